@@ -0,0 +1,6 @@
+#!/bin/bash
+
+# Median and p99 handoff latency between every pair of CPUs, optionally restricted to a CPU list such as 1-7
+CPU_LIST=${1:+-Dbench.c2c.cpus=$1}
+
+java -XX:+UseSerialGC -cp target/benchmarks.jar $CPU_LIST -Dbench.c2c.samples=100000 com.aitusoftware.messaging.benchmarks.CoreToCoreLatency
@@ -0,0 +1,8 @@
+#!/bin/bash
+
+CPUS=${PLACEMENT:+-Dipc.placement=$PLACEMENT}
+
+# Round-trip latency with publisher, echo and subscriber in one JVM, then in a JVM each
+TRANSPORT=${1:-varhandle}
+
+java -XX:+UseSerialGC --add-exports java.base/sun.nio.ch=ALL-UNNAMED -cp target/benchmarks.jar -Dipc.transport=$TRANSPORT ${CPUS:--Dipc.pub.cpu=1 -Dipc.echo.cpu=2 -Dipc.sub.cpu=3} -Dipc.msgCount=1048576 -Dipc.bufferSize=131072 -Dipc.intervals=8 -Dagrona.disable.bounds.checks=true -Dipc.compareInProcess=true com.aitusoftware.messaging.ipc.CrossProcessHarness
@@ -0,0 +1,13 @@
+#!/bin/bash
+
+CPUS=${PLACEMENT:+-Dipc.placement=$PLACEMENT}
+
+# Runs a harness with each idle strategy at several publish intervals, reporting latency against polling CPU use
+HARNESS=${1:-com.aitusoftware.messaging.ipc.UnsafeHarness}
+
+for DELAY_NS in 0 10000 100000 1000000; do
+    MSG_COUNT=$(( DELAY_NS == 0 ? 1048576 : 5000000000 / DELAY_NS ))
+    for IDLE in busySpin spinWait yield park backoff; do
+        java -XX:+UseSerialGC -cp target/benchmarks.jar ${CPUS:--Dipc.pub.cpu=1 -Dipc.echo.cpu=2 -Dipc.sub.cpu=3} -Dipc.msgCount=$MSG_COUNT -Dipc.bufferSize=131072 -Dagrona.disable.bounds.checks=true -Dipc.intervals=2 -Dipc.idleStrategy=$IDLE -Dipc.pub.delayNs=$DELAY_NS $HARNESS | grep "^idle:" | tail -n 1
+    done
+done
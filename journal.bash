@@ -0,0 +1,12 @@
+#!/bin/bash
+
+CPUS=${PLACEMENT:+-Dipc.placement=$PLACEMENT}
+
+# Runs the journal harness with each flush policy and force mode, reporting publish latency and throughput
+JOURNAL_DIR=${1:-/var/tmp/ipc-journal}
+
+for FORCE_MODE in MSYNC FSYNC; do
+    for FLUSH_POLICY in NONE BYTES MICROS RECORD; do
+        java -XX:+UseSerialGC -cp target/benchmarks.jar ${CPUS:--Dipc.pub.cpu=1 -Dipc.sub.cpu=2} -Dipc.msgCount=1048576 -Dipc.bufferSize=1048576 -Dagrona.disable.bounds.checks=true -Dipc.intervals=3 -Dipc.journal.dir=$JOURNAL_DIR -Dipc.journal.flushPolicy=$FLUSH_POLICY -Dipc.journal.forceMode=$FORCE_MODE -Dipc.journal.flushBytes=1048576 -Dipc.journal.flushMicros=1000 com.aitusoftware.messaging.ipc.JournalHarness | grep "^journal:" | tail -n 1
+    done
+done
@@ -0,0 +1,8 @@
+#!/bin/bash
+
+CPUS=${PLACEMENT:+-Dipc.placement=$PLACEMENT}
+
+# Round-trip latency under an open-loop schedule, e.g.
+# ./load.bash -Dipc.load.profile=burst -Dipc.load.burstSize=500 -Dipc.load.burstPeriodNs=1000000
+# ./load.bash -Dipc.load.profile=step -Dipc.load.rates=50000,1000000,200000 -Dipc.load.stepNs=2000000000
+java -XX:+UseSerialGC -cp target/benchmarks.jar ${CPUS:--Dipc.pub.cpu=1 -Dipc.echo.cpu=2 -Dipc.sub.cpu=3} -Dipc.msgCount=4194304 -Dipc.bufferSize=131072 -Dipc.load.profile=constant -Dipc.load.rate=100000 "$@" com.aitusoftware.messaging.ipc.Harness
@@ -0,0 +1,10 @@
+#!/bin/bash
+
+CPUS=${PLACEMENT:+-Dipc.placement=$PLACEMENT}
+
+# Compares first-lap and steady-state round-trip latency of a large ring with each mapping option
+HARNESS=${1:-com.aitusoftware.messaging.ipc.UnsafeHarness}
+
+for MAP_OPTIONS in "" "-Dipc.map.prefault=true" "-Dipc.map.prefault=true -Dipc.map.lock=true" "-Dipc.map.prefault=true -Dipc.map.lock=true -Dipc.map.hugePages=true"; do
+    java -XX:+UseSerialGC -cp target/benchmarks.jar ${CPUS:--Dipc.pub.cpu=1 -Dipc.echo.cpu=2 -Dipc.sub.cpu=3} -Dipc.msgCount=1048576 -Dipc.bufferSize=67108864 -Dagrona.disable.bounds.checks=true -Dipc.intervals=1 -Dipc.reportFirstLap=true $MAP_OPTIONS $HARNESS | grep "^lap:"
+done
@@ -0,0 +1,226 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import org.agrona.BufferUtil;
+import org.agrona.UnsafeAccess;
+import org.agrona.concurrent.UnsafeBuffer;
+import sun.misc.Unsafe;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The {@link BulkCopy} for each way of moving bytes, selected by name.
+ */
+public final class BulkCopies
+{
+    public static final String UNSAFE_BUFFER = "unsafeBuffer";
+    public static final String BYTE_BUFFER = "byteBuffer";
+    public static final String LONG_LOOP = "longLoop";
+    public static final String UNSAFE = "unsafe";
+    public static final String MEMORY_SEGMENT = "segment";
+    public static final String VECTOR = "vector";
+
+    private static final String MEMORY_SEGMENT_COPY = "com.aitusoftware.messaging.benchmarks.MemorySegmentBulkCopy";
+    private static final String VECTOR_COPY = "com.aitusoftware.messaging.benchmarks.VectorBulkCopy";
+
+    private BulkCopies()
+    {
+    }
+
+    /**
+     * Looks up a copier by name. The {@value #MEMORY_SEGMENT} and {@value #VECTOR} copiers are built by the
+     * {@code jdk21} profile, and need {@code --enable-preview --add-modules jdk.incubator.vector} at run time.
+     */
+    public static BulkCopy forName(final String name)
+    {
+        switch (name)
+        {
+            case UNSAFE_BUFFER:
+                return new UnsafeBufferCopy();
+            case BYTE_BUFFER:
+                return new ByteBufferCopy();
+            case LONG_LOOP:
+                return new LongLoopCopy();
+            case UNSAFE:
+                return new UnsafeCopy();
+            case MEMORY_SEGMENT:
+                return newJdk21Copy(MEMORY_SEGMENT_COPY);
+            case VECTOR:
+                return newJdk21Copy(VECTOR_COPY);
+            default:
+                throw new IllegalArgumentException("Unknown copy: " + name);
+        }
+    }
+
+    private static BulkCopy newJdk21Copy(final String className)
+    {
+        try
+        {
+            return (BulkCopy) Class.forName(className).getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException | LinkageError e)
+        {
+            throw new IllegalStateException(className + " needs a build on JDK 21 (profile jdk21), run with " +
+                    "--enable-preview --add-modules jdk.incubator.vector", e);
+        }
+    }
+
+    private static final class UnsafeBufferCopy implements BulkCopy
+    {
+        private final UnsafeBuffer source = new UnsafeBuffer(0, 0);
+        private final UnsafeBuffer target = new UnsafeBuffer(0, 0);
+
+        @Override
+        public String name()
+        {
+            return UNSAFE_BUFFER;
+        }
+
+        @Override
+        public void wrap(final ByteBuffer source, final ByteBuffer target)
+        {
+            this.source.wrap(source);
+            this.target.wrap(target);
+        }
+
+        @Override
+        public void copy(final int sourceOffset, final int targetOffset, final int length)
+        {
+            target.putBytes(targetOffset, source, sourceOffset, length);
+        }
+
+        @Override
+        public void zero(final int targetOffset, final int length)
+        {
+            target.setMemory(targetOffset, length, (byte) 0);
+        }
+    }
+
+    private static final class ByteBufferCopy implements BulkCopy
+    {
+        private ByteBuffer source;
+        private ByteBuffer target;
+
+        @Override
+        public String name()
+        {
+            return BYTE_BUFFER;
+        }
+
+        @Override
+        public void wrap(final ByteBuffer source, final ByteBuffer target)
+        {
+            this.source = source.duplicate();
+            this.target = target.duplicate();
+        }
+
+        @Override
+        public void copy(final int sourceOffset, final int targetOffset, final int length)
+        {
+            source.limit(sourceOffset + length).position(sourceOffset);
+            target.limit(targetOffset + length).position(targetOffset);
+            target.put(source);
+        }
+
+        @Override
+        public void zero(final int targetOffset, final int length)
+        {
+            for (int i = targetOffset; i < targetOffset + length; i++)
+            {
+                target.put(i, (byte) 0);
+            }
+        }
+    }
+
+    private static final class LongLoopCopy implements BulkCopy
+    {
+        private ByteBuffer source;
+        private ByteBuffer target;
+
+        @Override
+        public String name()
+        {
+            return LONG_LOOP;
+        }
+
+        @Override
+        public void wrap(final ByteBuffer source, final ByteBuffer target)
+        {
+            this.source = source.duplicate().order(ByteOrder.nativeOrder());
+            this.target = target.duplicate().order(ByteOrder.nativeOrder());
+        }
+
+        @Override
+        public void copy(final int sourceOffset, final int targetOffset, final int length)
+        {
+            int i = 0;
+            for (; i <= length - 8; i += 8)
+            {
+                target.putLong(targetOffset + i, source.getLong(sourceOffset + i));
+            }
+            for (; i < length; i++)
+            {
+                target.put(targetOffset + i, source.get(sourceOffset + i));
+            }
+        }
+
+        @Override
+        public void zero(final int targetOffset, final int length)
+        {
+            int i = 0;
+            for (; i <= length - 8; i += 8)
+            {
+                target.putLong(targetOffset + i, 0L);
+            }
+            for (; i < length; i++)
+            {
+                target.put(targetOffset + i, (byte) 0);
+            }
+        }
+    }
+
+    private static final class UnsafeCopy implements BulkCopy
+    {
+        private static final Unsafe UNSAFE = UnsafeAccess.UNSAFE;
+
+        private byte[] sourceArray;
+        private long sourceAddress;
+        private byte[] targetArray;
+        private long targetAddress;
+
+        @Override
+        public String name()
+        {
+            return BulkCopies.UNSAFE;
+        }
+
+        @Override
+        public void wrap(final ByteBuffer source, final ByteBuffer target)
+        {
+            sourceArray = source.hasArray() ? source.array() : null;
+            sourceAddress = address(source);
+            targetArray = target.hasArray() ? target.array() : null;
+            targetAddress = address(target);
+        }
+
+        @Override
+        public void copy(final int sourceOffset, final int targetOffset, final int length)
+        {
+            UNSAFE.copyMemory(sourceArray, sourceAddress + sourceOffset, targetArray, targetAddress + targetOffset, length);
+        }
+
+        @Override
+        public void zero(final int targetOffset, final int length)
+        {
+            UNSAFE.setMemory(targetArray, targetAddress + targetOffset, length, (byte) 0);
+        }
+
+        /**
+         * @return the address of a direct buffer, or the offset of a heap buffer from the start of its array
+         */
+        private static long address(final ByteBuffer buffer)
+        {
+            return buffer.isDirect() ? BufferUtil.address(buffer) : BufferUtil.ARRAY_BASE_OFFSET + buffer.arrayOffset();
+        }
+    }
+}
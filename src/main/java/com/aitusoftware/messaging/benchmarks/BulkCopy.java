@@ -0,0 +1,21 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One way of moving bytes from a source buffer to a target buffer, and of zeroing a range of the target,
+ * so that {@link DataCopyBenchmark} can compare them over the same buffers.
+ */
+public interface BulkCopy
+{
+    String name();
+
+    /**
+     * Binds the copier to its buffers, which may be heap, direct or mapped. Called once, before any copy.
+     */
+    void wrap(ByteBuffer source, ByteBuffer target);
+
+    void copy(int sourceOffset, int targetOffset, int length);
+
+    void zero(int targetOffset, int length);
+}
@@ -0,0 +1,405 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import org.agrona.UnsafeAccess;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import sun.misc.Unsafe;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contended versions of {@link LibraryVsUnsafeBenchmark} and {@link LongByteArrayBenchmark}: 2, 4, 8 and 16
+ * threads incrementing one shared counter, and groups of writers incrementing it while readers read it.
+ * Each fork runs a single counter implementation, so calls through {@link Counter} stay monomorphic.
+ * <p>
+ * As well as a single shared long accessed in each of the ways the uncontended benchmarks compare, the
+ * counters include a {@link LongAdder}, a striped counter with a padded stripe per thread, and an
+ * {@link OffHeapLongAdder}, whose reads sum every stripe or cell.
+ * <p>
+ * Threads are not pinned, as {@code bench.affinity} names a single CPU.
+ */
+@Measurement(iterations = 10)
+@Warmup(iterations = 10)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContendedCounterBenchmark
+{
+    private static final int CACHE_LINE_SIZE_IN_BYTES = 64;
+    private static final int MAX_THREADS = 16;
+    private static final AtomicInteger THREAD_INDEX = new AtomicInteger();
+
+    @Param(value = {"atomic", "updater", "unsafe", "varHandle", "byteBufferView", "unsafeBuffer",
+            "longAdder", "striped", "offHeapAdder"})
+    private String counterType;
+    private Counter counter;
+
+    @State(Scope.Thread)
+    public static class ThreadState
+    {
+        private int index;
+        private int probe;
+
+        @Setup
+        public void setup()
+        {
+            index = THREAD_INDEX.getAndIncrement() % MAX_THREADS;
+            // distinct, non-zero starting probes
+            probe = (index + 1) * 0x9E3779B9;
+        }
+    }
+
+    @Setup
+    public void setup()
+    {
+        counter = newCounter(counterType);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long twoWriters(final ThreadState thread)
+    {
+        return counter.increment(thread);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long fourWriters(final ThreadState thread)
+    {
+        return counter.increment(thread);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long eightWriters(final ThreadState thread)
+    {
+        return counter.increment(thread);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long sixteenWriters(final ThreadState thread)
+    {
+        return counter.increment(thread);
+    }
+
+    @Benchmark
+    @Group("oneWriterOneReader")
+    @GroupThreads(1)
+    public long oneWriterOneReaderWrite(final ThreadState thread)
+    {
+        return counter.increment(thread);
+    }
+
+    @Benchmark
+    @Group("oneWriterOneReader")
+    @GroupThreads(1)
+    public long oneWriterOneReaderRead()
+    {
+        return counter.get();
+    }
+
+    @Benchmark
+    @Group("oneWriterSevenReaders")
+    @GroupThreads(1)
+    public long oneWriterSevenReadersWrite(final ThreadState thread)
+    {
+        return counter.increment(thread);
+    }
+
+    @Benchmark
+    @Group("oneWriterSevenReaders")
+    @GroupThreads(7)
+    public long oneWriterSevenReadersRead()
+    {
+        return counter.get();
+    }
+
+    @Benchmark
+    @Group("fourWritersFourReaders")
+    @GroupThreads(4)
+    public long fourWritersFourReadersWrite(final ThreadState thread)
+    {
+        return counter.increment(thread);
+    }
+
+    @Benchmark
+    @Group("fourWritersFourReaders")
+    @GroupThreads(4)
+    public long fourWritersFourReadersRead()
+    {
+        return counter.get();
+    }
+
+    @Benchmark
+    @Group("sevenWritersOneReader")
+    @GroupThreads(7)
+    public long sevenWritersOneReaderWrite(final ThreadState thread)
+    {
+        return counter.increment(thread);
+    }
+
+    @Benchmark
+    @Group("sevenWritersOneReader")
+    @GroupThreads(1)
+    public long sevenWritersOneReaderRead()
+    {
+        return counter.get();
+    }
+
+    private static Counter newCounter(final String counterType)
+    {
+        switch (counterType)
+        {
+            case "atomic":
+                return new AtomicCounter();
+            case "updater":
+                return new UpdaterCounter();
+            case "unsafe":
+                return new UnsafeCounter();
+            case "varHandle":
+                return new VarHandleCounter();
+            case "byteBufferView":
+                return new ByteBufferViewCounter();
+            case "unsafeBuffer":
+                return new UnsafeBufferCounter();
+            case "longAdder":
+                return new LongAdderCounter();
+            case "striped":
+                return new StripedCounter();
+            case "offHeapAdder":
+                return new OffHeapAdderCounter();
+            default:
+                throw new IllegalArgumentException("Unknown counter: " + counterType);
+        }
+    }
+
+    interface Counter
+    {
+        long increment(ThreadState thread);
+
+        long get();
+    }
+
+    private static final class AtomicCounter implements Counter
+    {
+        private final AtomicLong value = new AtomicLong();
+
+        @Override
+        public long increment(final ThreadState thread)
+        {
+            return value.getAndIncrement();
+        }
+
+        @Override
+        public long get()
+        {
+            return value.get();
+        }
+    }
+
+    private static final class UpdaterCounter implements Counter
+    {
+        private static final AtomicLongFieldUpdater<UpdaterCounter> UPDATER =
+                AtomicLongFieldUpdater.newUpdater(UpdaterCounter.class, "value");
+        private volatile long value;
+
+        @Override
+        public long increment(final ThreadState thread)
+        {
+            return UPDATER.getAndIncrement(this);
+        }
+
+        @Override
+        public long get()
+        {
+            return UPDATER.get(this);
+        }
+    }
+
+    private static final class UnsafeCounter implements Counter
+    {
+        private static final Unsafe UNSAFE = UnsafeAccess.UNSAFE;
+        private static final long OFFSET;
+
+        static
+        {
+            try
+            {
+                OFFSET = UNSAFE.objectFieldOffset(UnsafeCounter.class.getDeclaredField("value"));
+            }
+            catch (NoSuchFieldException e)
+            {
+                throw new IllegalStateException();
+            }
+        }
+
+        private volatile long value;
+
+        @Override
+        public long increment(final ThreadState thread)
+        {
+            return UNSAFE.getAndAddLong(this, OFFSET, 1L);
+        }
+
+        @Override
+        public long get()
+        {
+            return UNSAFE.getLongVolatile(this, OFFSET);
+        }
+    }
+
+    private static final class VarHandleCounter implements Counter
+    {
+        private static final VarHandle VALUE_HANDLE;
+
+        static
+        {
+            try
+            {
+                VALUE_HANDLE = MethodHandles.lookup().findVarHandle(VarHandleCounter.class, "value", long.class);
+            }
+            catch (NoSuchFieldException | IllegalAccessException e)
+            {
+                throw new IllegalStateException();
+            }
+        }
+
+        private volatile long value;
+
+        @Override
+        public long increment(final ThreadState thread)
+        {
+            return (long) VALUE_HANDLE.getAndAdd(this, 1L);
+        }
+
+        @Override
+        public long get()
+        {
+            return (long) VALUE_HANDLE.getVolatile(this);
+        }
+    }
+
+    private static final class ByteBufferViewCounter implements Counter
+    {
+        private static final VarHandle LONG_ARRAY_VIEW =
+                MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(3 * CACHE_LINE_SIZE_IN_BYTES)
+                .alignedSlice(CACHE_LINE_SIZE_IN_BYTES);
+
+        @Override
+        public long increment(final ThreadState thread)
+        {
+            return (long) LONG_ARRAY_VIEW.getAndAdd(buffer, CACHE_LINE_SIZE_IN_BYTES, 1L);
+        }
+
+        @Override
+        public long get()
+        {
+            return (long) LONG_ARRAY_VIEW.getVolatile(buffer, CACHE_LINE_SIZE_IN_BYTES);
+        }
+    }
+
+    private static final class UnsafeBufferCounter implements Counter
+    {
+        private final UnsafeBuffer buffer = new UnsafeBuffer(ByteBuffer.allocateDirect(3 * CACHE_LINE_SIZE_IN_BYTES)
+                .alignedSlice(CACHE_LINE_SIZE_IN_BYTES));
+
+        @Override
+        public long increment(final ThreadState thread)
+        {
+            return buffer.getAndAddLong(CACHE_LINE_SIZE_IN_BYTES, 1L);
+        }
+
+        @Override
+        public long get()
+        {
+            return buffer.getLongVolatile(CACHE_LINE_SIZE_IN_BYTES);
+        }
+    }
+
+    private static final class LongAdderCounter implements Counter
+    {
+        private final LongAdder value = new LongAdder();
+
+        @Override
+        public long increment(final ThreadState thread)
+        {
+            value.increment();
+            return 0L;
+        }
+
+        @Override
+        public long get()
+        {
+            return value.sum();
+        }
+    }
+
+    /**
+     * A stripe per thread, each in its own cache line of a heap array, so that writers never contend.
+     */
+    private static final class StripedCounter implements Counter
+    {
+        private static final VarHandle STRIPES = MethodHandles.arrayElementVarHandle(long[].class);
+        private static final int STRIPE_STRIDE = CACHE_LINE_SIZE_IN_BYTES / 8;
+        private final long[] stripes = new long[(MAX_THREADS + 2) * STRIPE_STRIDE];
+
+        @Override
+        public long increment(final ThreadState thread)
+        {
+            return (long) STRIPES.getAndAdd(stripes, (thread.index + 1) * STRIPE_STRIDE, 1L);
+        }
+
+        @Override
+        public long get()
+        {
+            long sum = 0L;
+            for (int stripe = 1; stripe <= MAX_THREADS; stripe++)
+            {
+                sum += (long) STRIPES.getVolatile(stripes, stripe * STRIPE_STRIDE);
+            }
+            return sum;
+        }
+    }
+
+    private static final class OffHeapAdderCounter implements Counter
+    {
+        private final OffHeapLongAdder adder = new OffHeapLongAdder(Runtime.getRuntime().availableProcessors());
+
+        @Override
+        public long increment(final ThreadState thread)
+        {
+            thread.probe = adder.add(1L, thread.probe);
+            return thread.probe;
+        }
+
+        @Override
+        public long get()
+        {
+            return adder.sum();
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import com.aitusoftware.messaging.util.Affinity;
+import com.aitusoftware.messaging.util.CpuTopology;
+import org.HdrHistogram.Histogram;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Handoff latency between every pair of CPUs. For each pair, a ping thread pinned to the row CPU and a pong
+ * thread pinned to the column CPU take turns incrementing a {@link PaddedLongSequence}, either with
+ * {@link Handoff#CAS} on both sides, or with a {@link Handoff#RELEASE_ACQUIRE} store that the other side
+ * spins on. The ping thread times each round trip, and half of it is recorded as the handoff latency.
+ * <p>
+ * Prints an N×N matrix of median and p99 latency for each handoff, over the CPUs in {@code bench.c2c.cpus}
+ * (a kernel CPU list, all CPUs allowed to the process by default) that the process may run on, with
+ * {@code bench.c2c.samples} round trips per pair after {@code bench.c2c.warmup} unrecorded ones. A pair whose
+ * threads cannot be pinned, or that takes longer than {@code bench.c2c.timeoutMs}, is stopped and shown as
+ * failed. The pairs with the lowest and highest median are
+ * candidates for {@code ipc.pub.cpu}, {@code ipc.echo.cpu} and {@code ipc.sub.cpu}, depending on
+ * which path a run should measure.
+ */
+public final class CoreToCoreLatency
+{
+    private static final boolean DEBUG = false;
+    private static final int SAMPLE_COUNT = Integer.getInteger("bench.c2c.samples", 100_000);
+    private static final int WARMUP_COUNT = Integer.getInteger("bench.c2c.warmup", 10_000);
+    private static final String CPUS = System.getProperty("bench.c2c.cpus");
+    private static final int CACHE_LINE_SIZE_IN_BYTES = 64;
+    private static final long MAX_LATENCY_NS = TimeUnit.SECONDS.toNanos(1L);
+    private static final long TIMEOUT_MS = Long.getLong("bench.c2c.timeoutMs", 60_000L);
+    private static final long FAILED = -1L;
+
+    enum Handoff
+    {
+        CAS,
+        RELEASE_ACQUIRE
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        final BitSet allowed = new Affinity().getCurrentThreadCpuMask();
+        final BitSet cpuSet = CPUS == null ? allowed : CpuTopology.parseCpuList(CPUS);
+        if (cpuSet != allowed)
+        {
+            final BitSet excluded = (BitSet) cpuSet.clone();
+            excluded.andNot(allowed);
+            if (!excluded.isEmpty())
+            {
+                System.out.printf("Skipping CPUs %s, which the process may not run on%n", excluded);
+            }
+            cpuSet.and(allowed);
+        }
+        final int[] cpus = cpuSet.stream().toArray();
+        if (cpus.length < 2)
+        {
+            System.out.printf("Need at least two CPUs, have %s%n", cpuSet);
+            return;
+        }
+
+        for (Handoff handoff : Handoff.values())
+        {
+            final long[][] p50 = new long[cpus.length][cpus.length];
+            final long[][] p99 = new long[cpus.length][cpus.length];
+            for (int row = 0; row < cpus.length; row++)
+            {
+                for (int column = 0; column < cpus.length; column++)
+                {
+                    if (row == column)
+                    {
+                        continue;
+                    }
+                    final Histogram histogram = measure(cpus[row], cpus[column], handoff, SAMPLE_COUNT);
+                    p50[row][column] = histogram == null ? FAILED : histogram.getValueAtPercentile(50d);
+                    p99[row][column] = histogram == null ? FAILED : histogram.getValueAtPercentile(99d);
+                    if (DEBUG)
+                    {
+                        System.out.printf("%s %d -> %d: %d/%dns%n", handoff, cpus[row], cpus[column],
+                                p50[row][column], p99[row][column]);
+                    }
+                }
+            }
+            printMatrix(handoff + " p50 (ns)", cpus, p50);
+            printMatrix(handoff + " p99 (ns)", cpus, p99);
+            printExtremes(handoff, cpus, p50);
+        }
+    }
+
+    /**
+     * @return handoff latencies between a ping thread on {@code pingCpu} and a pong thread on {@code pongCpu},
+     * or {@code null} if either thread could not be pinned, or the pair did not finish in time
+     */
+    static Histogram measure(final int pingCpu, final int pongCpu, final Handoff handoff, final int sampleCount)
+            throws InterruptedException
+    {
+        // the sequence sits alone in the second cache line of an aligned buffer
+        final PaddedLongSequence sequence = new PaddedLongSequence(
+                ByteBuffer.allocateDirect(4 * CACHE_LINE_SIZE_IN_BYTES).alignedSlice(CACHE_LINE_SIZE_IN_BYTES));
+        final Histogram histogram = new Histogram(MAX_LATENCY_NS, 3);
+        final int roundTrips = WARMUP_COUNT + sampleCount;
+        // set when either side gives up, so that the other never waits for a partner that has gone
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final Thread pong = new Thread(() ->
+        {
+            if (!pin(pongCpu, stopped))
+            {
+                return;
+            }
+            for (long i = 0; i < roundTrips; i++)
+            {
+                if (!handOff(sequence, handoff, 2 * i + 1, stopped))
+                {
+                    return;
+                }
+            }
+        }, "pong-" + pongCpu);
+        final Thread ping = new Thread(() ->
+        {
+            if (!pin(pingCpu, stopped))
+            {
+                return;
+            }
+            for (long i = 0; i < roundTrips; i++)
+            {
+                final long startNanos = System.nanoTime();
+                if (!handOff(sequence, handoff, 2 * i, stopped) || !awaitValue(sequence, 2 * i + 2, stopped))
+                {
+                    return;
+                }
+                if (i >= WARMUP_COUNT)
+                {
+                    histogram.recordValue(Math.min((System.nanoTime() - startNanos) / 2, MAX_LATENCY_NS));
+                }
+            }
+        }, "ping-" + pingCpu);
+        pong.start();
+        ping.start();
+        ping.join(TIMEOUT_MS);
+        if (ping.isAlive())
+        {
+            System.out.printf("%s %d -> %d did not finish in %dms%n", handoff, pingCpu, pongCpu, TIMEOUT_MS);
+            stopped.set(true);
+        }
+        ping.join();
+        pong.join();
+        return stopped.get() ? null : histogram;
+    }
+
+    private static boolean pin(final int cpu, final AtomicBoolean stopped)
+    {
+        try
+        {
+            new Affinity().setCurrentThreadCpuAffinityAndValidate(cpu);
+            return true;
+        }
+        catch (RuntimeException e)
+        {
+            System.out.printf("Unable to pin %s to CPU %d: %s%n", Thread.currentThread().getName(), cpu, e);
+            stopped.set(true);
+            return false;
+        }
+    }
+
+    /**
+     * Waits for the sequence to reach {@code current}, and moves it on to {@code current + 1}.
+     *
+     * @return {@code false} if the pair was stopped first
+     */
+    private static boolean handOff(
+            final PaddedLongSequence sequence, final Handoff handoff, final long current, final AtomicBoolean stopped)
+    {
+        if (handoff == Handoff.CAS)
+        {
+            while (!sequence.compareAndSwap(current, current + 1))
+            {
+                if (stopped.get())
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (!awaitValue(sequence, current, stopped))
+        {
+            return false;
+        }
+        sequence.setRelease(current + 1);
+        return true;
+    }
+
+    /**
+     * @return {@code false} if the pair was stopped before the sequence reached {@code value}
+     */
+    private static boolean awaitValue(final PaddedLongSequence sequence, final long value, final AtomicBoolean stopped)
+    {
+        while (sequence.getAcquire() != value)
+        {
+            if (stopped.get())
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void printMatrix(final String title, final int[] cpus, final long[][] values)
+    {
+        System.out.printf("%n%s%n%6s", title, "");
+        for (int cpu : cpus)
+        {
+            System.out.printf("%7d", cpu);
+        }
+        System.out.println();
+        for (int row = 0; row < cpus.length; row++)
+        {
+            System.out.printf("%6d", cpus[row]);
+            for (int column = 0; column < cpus.length; column++)
+            {
+                if (row == column)
+                {
+                    System.out.printf("%7s", "-");
+                }
+                else if (values[row][column] == FAILED)
+                {
+                    System.out.printf("%7s", "fail");
+                }
+                else
+                {
+                    System.out.printf("%7d", values[row][column]);
+                }
+            }
+            System.out.println();
+        }
+    }
+
+    private static void printExtremes(final Handoff handoff, final int[] cpus, final long[][] p50)
+    {
+        int minRow = -1;
+        int minColumn = -1;
+        int maxRow = -1;
+        int maxColumn = -1;
+        for (int row = 0; row < cpus.length; row++)
+        {
+            for (int column = 0; column < cpus.length; column++)
+            {
+                if (row == column || p50[row][column] == FAILED)
+                {
+                    continue;
+                }
+                if (minRow == -1 || p50[row][column] < p50[minRow][minColumn])
+                {
+                    minRow = row;
+                    minColumn = column;
+                }
+                if (maxRow == -1 || p50[row][column] > p50[maxRow][maxColumn])
+                {
+                    maxRow = row;
+                    maxColumn = column;
+                }
+            }
+        }
+        if (minRow == -1)
+        {
+            System.out.printf("%s failed on every pair%n", handoff);
+            return;
+        }
+        System.out.printf("%s lowest p50: %d -> %d (%dns), highest p50: %d -> %d (%dns)%n", handoff,
+                cpus[minRow], cpus[minColumn], p50[minRow][minColumn],
+                cpus[maxRow], cpus[maxColumn], p50[maxRow][maxColumn]);
+    }
+}
@@ -1,6 +1,5 @@
 package com.aitusoftware.messaging.benchmarks;
 
-import org.agrona.concurrent.UnsafeBuffer;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
@@ -11,99 +10,112 @@ import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.TimeUnit;
 
-@Measurement(iterations = 10)
-@Warmup(iterations = 10)
+/**
+ * Cost of moving a payload with each {@link BulkCopy}, from heap or direct memory into direct or mapped memory,
+ * and of zeroing it in the target, with source and target offset by {@code alignment} bytes from a cache line
+ * boundary. Zeroing only touches the target, so its {@code heapToDirect} and {@code directToDirect} results
+ * measure the same thing.
+ * <p>
+ * The {@code segment} and {@code vector} copiers are only built on JDK 21, so add them with
+ * {@code -p copy=unsafe,segment,vector -jvmArgsAppend "--enable-preview --add-modules jdk.incubator.vector"}.
+ * On JDK 17 and later, the {@code unsafe} and {@code unsafeBuffer} copiers of direct memory need
+ * {@code --add-exports java.base/sun.nio.ch=ALL-UNNAMED}.
+ */
+@Measurement(iterations = 5)
+@Warmup(iterations = 5)
 @OutputTimeUnit(TimeUnit.NANOSECONDS)
 @BenchmarkMode(Mode.AverageTime)
 @Fork(1)
 @State(Scope.Benchmark)
 public class DataCopyBenchmark {
     private static final int MAX_PAYLOAD_SIZE = 2097152;
-    private static final byte ZERO = (byte) 0;
-    private final UnsafeBuffer agronaBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(MAX_PAYLOAD_SIZE));
-    private final ByteBuffer nativeBuffer = ByteBuffer.allocateDirect(MAX_PAYLOAD_SIZE);
-    private ByteBuffer source;
+    private static final int CACHE_LINE_SIZE_IN_BYTES = 64;
+    private static final int BUFFER_SIZE = MAX_PAYLOAD_SIZE + CACHE_LINE_SIZE_IN_BYTES;
+    private static final String DIRECT_TO_DIRECT = "directToDirect";
+    private static final String HEAP_TO_DIRECT = "heapToDirect";
+    private static final String DIRECT_TO_MAPPED = "directToMapped";
 
+    private final Path mappedFile = Paths.get("/dev/shm/ipc-copy");
+
+    @Param(value = {BulkCopies.UNSAFE_BUFFER, BulkCopies.BYTE_BUFFER, BulkCopies.LONG_LOOP, BulkCopies.UNSAFE})
+    private String copy;
+    @Param(value = {DIRECT_TO_DIRECT, HEAP_TO_DIRECT, DIRECT_TO_MAPPED})
+    private String route;
+    @Param(value = {"0", "1", "8"})
+    private int alignment;
     @Param(value = {"64", "256", "1024", "4096", "262144", "2097152"})
     private int payloadSize;
-    private int eightByteStepCount;
+
+    private BulkCopy bulkCopy;
+    private ByteBuffer target;
 
     @Setup
-    public void setup() {
+    public void setup() throws IOException {
         AffinityUtil.set();
-        source = ByteBuffer.allocateDirect(payloadSize);
-        for (int i = 0; i < payloadSize / 8; i += 8) {
-            source.putLong(i / 8, (byte) i);
+        final ByteBuffer source = HEAP_TO_DIRECT.equals(route) ?
+                ByteBuffer.allocate(BUFFER_SIZE) : allocateAligned();
+        target = DIRECT_TO_MAPPED.equals(route) ? map() : allocateAligned();
+        for (int i = 0; i < BUFFER_SIZE; i++) {
+            source.put(i, (byte) (i + 1));
         }
-        eightByteStepCount = payloadSize / 8;
+        bulkCopy = BulkCopies.forName(copy);
+        bulkCopy.wrap(source, target);
+        verify(source);
     }
 
-    @Benchmark
-    public long copyUnsafeBuffer() {
-        source.clear();
-        agronaBuffer.putBytes(0, source, payloadSize);
-        return source.position();
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(mappedFile);
     }
 
     @Benchmark
-    @Fork(jvmArgsPrepend = "-Dagrona.disable.bounds.checks=true")
-    public long copyUnsafeBufferWithoutBoundsCheck() {
-        source.clear();
-        agronaBuffer.putBytes(0, source, payloadSize);
-        return source.position();
+    public long copy() {
+        bulkCopy.copy(alignment, alignment, payloadSize);
+        return target.get(alignment);
     }
 
     @Benchmark
-    public long copyByteBuffer() {
-        source.clear();
-        nativeBuffer.clear();
-        nativeBuffer.put(source);
-        return source.position();
+    public long zero() {
+        bulkCopy.zero(alignment, payloadSize);
+        return target.get(alignment);
     }
 
-    @Benchmark
-    public long copyByteBufferEightBytes() {
-        source.clear();
-        nativeBuffer.clear();
-
-        for (int i = 0; i < eightByteStepCount; i += 8) {
-            nativeBuffer.putLong(i, source.get(i));
+    private void verify(final ByteBuffer source) {
+        bulkCopy.copy(alignment, alignment, payloadSize);
+        for (int i = alignment; i < alignment + payloadSize; i++) {
+            if (target.get(i) != source.get(i)) {
+                throw new IllegalStateException(String.format("%s copied %d to %d at %d",
+                        bulkCopy.name(), source.get(i), target.get(i), i));
+            }
+        }
+        bulkCopy.zero(alignment, payloadSize);
+        for (int i = alignment; i < alignment + payloadSize; i++) {
+            if (target.get(i) != 0) {
+                throw new IllegalStateException(String.format("%s left %d at %d", bulkCopy.name(), target.get(i), i));
+            }
         }
-
-        return nativeBuffer.get(0);
-    }
-
-    @Benchmark
-    public long zeroUnsafeBuffer() {
-        agronaBuffer.setMemory(0, payloadSize, ZERO);
-        return agronaBuffer.getLong(0);
-    }
-
-    @Benchmark
-    @Fork(jvmArgsPrepend = "-Dagrona.disable.bounds.checks=true")
-    public long zeroUnsafeBufferWithoutBoundsCheck() {
-        agronaBuffer.setMemory(0, payloadSize, ZERO);
-        return agronaBuffer.getLong(0);
     }
 
-    @Benchmark
-    public long zeroByteBuffer() {
-        for (int i = 0; i < payloadSize; i++) {
-            nativeBuffer.put(i, ZERO);
+    private ByteBuffer map() throws IOException {
+        try (FileChannel channel = FileChannel.open(mappedFile, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0L, BUFFER_SIZE);
         }
-        return nativeBuffer.get(0);
     }
 
-    @Benchmark
-    public long zeroByteBufferEightBytes() {
-        for (int i = 0; i < eightByteStepCount; i += 8) {
-            nativeBuffer.putLong(i, 0);
-        }
-        return nativeBuffer.get(0);
+    private static ByteBuffer allocateAligned() {
+        return ByteBuffer.allocateDirect(BUFFER_SIZE + CACHE_LINE_SIZE_IN_BYTES).alignedSlice(CACHE_LINE_SIZE_IN_BYTES);
     }
-}
\ No newline at end of file
+}
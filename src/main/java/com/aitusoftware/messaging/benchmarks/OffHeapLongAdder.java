@@ -0,0 +1,82 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A counter in the style of {@link java.util.concurrent.atomic.LongAdder}, with its cells in off-heap
+ * memory, one per cache line. A thread adds to the cell selected by its probe, and on a failed CAS moves
+ * its probe to another cell, so that contending threads spread out over the cells. Unlike
+ * {@code LongAdder}, the number of cells is fixed at construction, and there is no base value.
+ * <p>
+ * Callers keep their own probe, as the JDK's per-thread probe is not accessible.
+ */
+public final class OffHeapLongAdder
+{
+    private static final int CACHE_LINE_SIZE_IN_BYTES = 64;
+    private static final VarHandle VIEW =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer cells;
+    private final int cellMask;
+
+    /**
+     * @param cellCount number of cells, rounded up to a power of two
+     */
+    public OffHeapLongAdder(final int cellCount)
+    {
+        final int cellCountPowerOfTwo = cellCount <= 1 ? 1 : Integer.highestOneBit(cellCount - 1) << 1;
+        // a spare line either side keeps the first and last cells clear of neighbouring allocations
+        this.cells = ByteBuffer.allocateDirect((cellCountPowerOfTwo + 3) * CACHE_LINE_SIZE_IN_BYTES)
+                .alignedSlice(CACHE_LINE_SIZE_IN_BYTES);
+        this.cellMask = cellCountPowerOfTwo - 1;
+    }
+
+    /**
+     * @param probe the caller's probe, any value to start with
+     * @return the probe to pass on the next call
+     */
+    public int add(final long delta, final int probe)
+    {
+        // xorshift never leaves zero
+        int currentProbe = probe == 0 ? 1 : probe;
+        while (true)
+        {
+            final int offset = cellOffset(currentProbe & cellMask);
+            final long value = (long) VIEW.getVolatile(cells, offset);
+            if (VIEW.compareAndSet(cells, offset, value, value + delta))
+            {
+                return currentProbe;
+            }
+            // xorshift, as LongAdder rehashes after a collision
+            currentProbe ^= currentProbe << 13;
+            currentProbe ^= currentProbe >>> 17;
+            currentProbe ^= currentProbe << 5;
+        }
+    }
+
+    /**
+     * @return the sum of all cells, which is only exact while no thread is adding
+     */
+    public long sum()
+    {
+        long sum = 0L;
+        for (int cell = 0; cell <= cellMask; cell++)
+        {
+            sum += (long) VIEW.getVolatile(cells, cellOffset(cell));
+        }
+        return sum;
+    }
+
+    public int cellCount()
+    {
+        return cellMask + 1;
+    }
+
+    private static int cellOffset(final int cell)
+    {
+        return (cell + 1) * CACHE_LINE_SIZE_IN_BYTES;
+    }
+}
@@ -30,6 +30,14 @@ public final class PaddedLongSequence {
                 data, sequenceOffset, expected, update)) == expected;
     }
 
+    public long getAcquire() {
+        return (long) VIEW.getAcquire(data, sequenceOffset);
+    }
+
+    public void setRelease(long value) {
+        VIEW.setRelease(data, sequenceOffset, value);
+    }
+
 
 
 
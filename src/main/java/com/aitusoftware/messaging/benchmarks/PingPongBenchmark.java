@@ -0,0 +1,162 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import com.aitusoftware.messaging.ipc.RecordFormat;
+import com.aitusoftware.messaging.ipc.Transport;
+import com.aitusoftware.messaging.ipc.TransportFactory;
+import com.aitusoftware.messaging.ipc.Transports;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Control;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Publisher and subscriber of each {@link Transport} as paired threads with the subscriber gate enabled,
+ * unlike {@link UnsafeIpcBenchmark} and {@link VarHandleIpcBenchmark}.
+ * <p>
+ * In {@code roundTrip}, {@code ping} sends a sequence number and waits for {@code pong} to echo the same
+ * sequence back through a second ring, so the score of {@code ping} is the round-trip time. In {@code oneWay},
+ * {@code publish} writes as fast as {@code subscribe} keeps up, so each score is the cost per message on that
+ * side of a live ring. Either side may give up on a message when an iteration ends, so both rings are drained
+ * between iterations.
+ */
+@Measurement(iterations = 10)
+@Warmup(iterations = 10)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 2)
+@State(Scope.Group)
+public class PingPongBenchmark
+{
+    @Param({Transports.UNSAFE, Transports.VAR_HANDLE})
+    private String transport;
+    @Param({"32", "256", "1024"})
+    private int messageSize;
+    @Param({"65536", "2097152"})
+    private int bufferSize;
+
+    private TransportFactory<Object> factory;
+    private Object message;
+    private Transport<Object> inPublisher;
+    private Transport<Object> inSubscriber;
+    private Transport<Object> outPublisher;
+    private Transport<Object> outSubscriber;
+    private Consumer<Object> echo;
+    private Consumer<Object> pingReceiver;
+    private Consumer<Object> subscribeReceiver;
+    private final Consumer<Object> discard = received -> {};
+    private long sequence;
+    private long echoedSequence = -1L;
+    private long receivedSequence = -1L;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        AffinityUtil.set();
+        Path ipcFileIn = Paths.get("/dev/shm/ipc-ping");
+        Path ipcFileOut = Paths.get("/dev/shm/ipc-pong");
+        if (Files.exists(ipcFileIn))
+        {
+            Files.delete(ipcFileIn);
+        }
+        if (Files.exists(ipcFileOut))
+        {
+            Files.delete(ipcFileOut);
+        }
+
+        factory = Transports.forName(transport);
+        message = factory.allocate(messageSize);
+        inPublisher = factory.open(ipcFileIn, bufferSize, RecordFormat.CACHE_LINE);
+        inSubscriber = factory.open(ipcFileIn, bufferSize, RecordFormat.CACHE_LINE);
+        outPublisher = factory.open(ipcFileOut, bufferSize, RecordFormat.CACHE_LINE);
+        outSubscriber = factory.open(ipcFileOut, bufferSize, RecordFormat.CACHE_LINE);
+        echo = received -> outPublisher.writeRecord(received);
+        pingReceiver = received -> echoedSequence = factory.getLong(received, 0);
+        subscribeReceiver = received -> receivedSequence = factory.getLong(received, 0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain()
+    {
+        while (inSubscriber.poll(discard, Integer.MAX_VALUE) != 0 ||
+                outSubscriber.poll(discard, Integer.MAX_VALUE) != 0)
+        {
+            // discard messages and echoes left over from the iteration
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        inPublisher.close();
+        inSubscriber.close();
+        outPublisher.close();
+        outSubscriber.close();
+    }
+
+    @Benchmark
+    @Group("roundTrip")
+    @GroupThreads(1)
+    public long ping(final Control control)
+    {
+        final long sent = sequence++;
+        factory.rewind(message);
+        factory.putLong(message, 0, sent);
+        // never blocks, so that ping keeps returning once pong has stopped at the end of an iteration
+        while (inPublisher.tryWriteRecord(message) == Transport.BACK_PRESSURED && !control.stopMeasurement)
+        {
+            // spin
+        }
+        // only the echo of this message ends the round trip, never one left over from an earlier message
+        while (echoedSequence != sent && !control.stopMeasurement)
+        {
+            outSubscriber.poll(pingReceiver);
+        }
+        return echoedSequence;
+    }
+
+    @Benchmark
+    @Group("roundTrip")
+    @GroupThreads(1)
+    public int pong(final Control control)
+    {
+        int length;
+        while ((length = inSubscriber.poll(echo)) == 0 && !control.stopMeasurement)
+        {
+            // spin
+        }
+        return length;
+    }
+
+    @Benchmark
+    @Group("oneWay")
+    @GroupThreads(1)
+    public long publish(final Control control)
+    {
+        factory.rewind(message);
+        factory.putLong(message, 0, sequence++);
+        long result;
+        while ((result = inPublisher.tryWriteRecord(message)) == Transport.BACK_PRESSURED &&
+                !control.stopMeasurement)
+        {
+            // spin
+        }
+        return result;
+    }
+
+    @Benchmark
+    @Group("oneWay")
+    @GroupThreads(1)
+    public long subscribe(final Control control)
+    {
+        while (inSubscriber.poll(subscribeReceiver) == 0 && !control.stopMeasurement)
+        {
+            // spin
+        }
+        return receivedSequence;
+    }
+}
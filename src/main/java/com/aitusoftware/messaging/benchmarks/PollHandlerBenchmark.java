@@ -0,0 +1,110 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import com.aitusoftware.messaging.ipc.MessageHandler;
+import com.aitusoftware.messaging.ipc.OffHeapByteBufferTransport;
+import com.aitusoftware.messaging.ipc.RecordFormat;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Poll cost of {@link OffHeapByteBufferTransport} handing each message to a {@code Consumer<ByteBuffer>},
+ * which moves the message buffer's limit and position per message, against a {@link MessageHandler}, which
+ * gets an offset and length in a view that is never changed.
+ */
+@Measurement(iterations = 10)
+@Warmup(iterations = 10)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 2)
+@State(Scope.Benchmark)
+public class PollHandlerBenchmark
+{
+    private static final int BUFFER_SIZE = 1 << 21;
+    private static final int BURST_LENGTH = 16;
+
+    @Param({"64", "256"})
+    private int messageSize;
+
+    private OffHeapByteBufferTransport publisher;
+    private OffHeapByteBufferTransport subscriber;
+    private ByteBuffer message;
+    private Consumer<ByteBuffer> consumer;
+    private MessageHandler handler;
+    private long sequence;
+
+    @Setup
+    public void setup(final Blackhole blackhole) throws Exception
+    {
+        AffinityUtil.set();
+        Path ipcFile = Paths.get("/dev/shm/ipc-poll-handler");
+        if (Files.exists(ipcFile))
+        {
+            Files.delete(ipcFile);
+        }
+
+        message = ByteBuffer.allocateDirect(messageSize);
+        publisher = new OffHeapByteBufferTransport(ipcFile, BUFFER_SIZE, RecordFormat.CACHE_LINE);
+        subscriber = new OffHeapByteBufferTransport(ipcFile, BUFFER_SIZE, RecordFormat.CACHE_LINE);
+        consumer = received -> blackhole.consume(received.getLong(received.position()));
+        handler = (buffer, offset, length) -> blackhole.consume(buffer.getLong(offset));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        publisher.close();
+        subscriber.close();
+    }
+
+    @Benchmark
+    public int consumerPoll()
+    {
+        publish();
+        return subscriber.poll(consumer);
+    }
+
+    @Benchmark
+    public int handlerPoll()
+    {
+        publish();
+        return subscriber.poll(handler);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_LENGTH)
+    public int consumerDrain()
+    {
+        publishBurst();
+        return subscriber.poll(consumer, BURST_LENGTH);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_LENGTH)
+    public int handlerDrain()
+    {
+        publishBurst();
+        return subscriber.poll(handler, BURST_LENGTH);
+    }
+
+    private void publishBurst()
+    {
+        for (int i = 0; i < BURST_LENGTH; i++)
+        {
+            publish();
+        }
+    }
+
+    private void publish()
+    {
+        message.clear();
+        message.putLong(0, sequence++);
+        publisher.writeRecord(message);
+    }
+}
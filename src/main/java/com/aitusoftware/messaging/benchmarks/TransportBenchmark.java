@@ -0,0 +1,89 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import com.aitusoftware.messaging.ipc.RecordFormat;
+import com.aitusoftware.messaging.ipc.Transport;
+import com.aitusoftware.messaging.ipc.TransportFactory;
+import com.aitusoftware.messaging.ipc.Transports;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Publish and poll cost of each {@link Transport} implementation through the common interface. The
+ * {@code segment} transport is only built on JDK 21, so add it with
+ * {@code -p transport=unsafe,varhandle,segment -jvmArgsAppend --enable-preview}.
+ */
+@Measurement(iterations = 10)
+@Warmup(iterations = 10)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 2)
+@State(Scope.Benchmark)
+public class TransportBenchmark
+{
+    private static final int BUFFER_SIZE = 1 << 21;
+    private static final int BURST_LENGTH = 16;
+
+    @Param({Transports.UNSAFE, Transports.VAR_HANDLE})
+    private String transport;
+    @Param({"64", "256"})
+    private int messageSize;
+
+    private TransportFactory<Object> factory;
+    private Transport<Object> publisher;
+    private Transport<Object> subscriber;
+    private Object message;
+    private Consumer<Object> receiver;
+    private long sequence;
+
+    @Setup
+    public void setup(final Blackhole blackhole) throws Exception
+    {
+        AffinityUtil.set();
+        Path ipcFile = Paths.get("/dev/shm/ipc-transport");
+        if (Files.exists(ipcFile))
+        {
+            Files.delete(ipcFile);
+        }
+
+        factory = Transports.forName(transport);
+        message = factory.allocate(messageSize);
+        publisher = factory.open(ipcFile, BUFFER_SIZE, RecordFormat.CACHE_LINE);
+        subscriber = factory.open(ipcFile, BUFFER_SIZE, RecordFormat.CACHE_LINE);
+        receiver = received -> blackhole.consume(factory.getLong(received, 0));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        publisher.close();
+        subscriber.close();
+    }
+
+    @Benchmark
+    public int publishAndPoll()
+    {
+        factory.rewind(message);
+        factory.putLong(message, 0, sequence++);
+        publisher.writeRecord(message);
+        return subscriber.poll(receiver);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST_LENGTH)
+    public int publishBurstAndDrain()
+    {
+        for (int i = 0; i < BURST_LENGTH; i++)
+        {
+            factory.rewind(message);
+            factory.putLong(message, 0, sequence++);
+            publisher.writeRecord(message);
+        }
+        return subscriber.poll(receiver, BURST_LENGTH);
+    }
+}
@@ -0,0 +1,124 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import com.aitusoftware.messaging.ipc.UnsafeBufferTransport;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+@Measurement(iterations = 10)
+@Warmup(iterations = 10)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.Throughput)
+@Fork(value = 2)
+@State(Scope.Benchmark)
+public class UnsafeBackPressureBenchmark
+{
+    private static final int MESSAGE_SIZE = 256;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long DUTY_CYCLE_TOKENS = 100L;
+
+    @Param({"500", "5000"})
+    private long subscriberDelayNs;
+
+    private UnsafeBuffer message;
+    private UnsafeBufferTransport clientPublisher;
+    private UnsafeBufferTransport clientSubscriber;
+    private Thread subscriberThread;
+    private volatile boolean running;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class PublishCounters
+    {
+        public long published;
+        public long backPressured;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            published = 0;
+            backPressured = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException
+    {
+        AffinityUtil.set();
+        Path ipcFile = Paths.get("/dev/shm/ipc-back-pressure");
+        if (Files.exists(ipcFile))
+        {
+            Files.delete(ipcFile);
+        }
+
+        message = new UnsafeBuffer(ByteBuffer.allocateDirect(MESSAGE_SIZE));
+        for (int i = 0; i < MESSAGE_SIZE; i++)
+        {
+            message.putByte(i, (byte) 7);
+        }
+
+        clientPublisher = new UnsafeBufferTransport(ipcFile, BUFFER_SIZE);
+        clientSubscriber = new UnsafeBufferTransport(ipcFile, BUFFER_SIZE);
+        running = true;
+        subscriberThread = new Thread(this::slowSubscriberLoop, "slow-subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        running = false;
+        subscriberThread.join();
+        clientPublisher.close();
+        clientSubscriber.close();
+    }
+
+    @Benchmark
+    public long spinningWriteRecord(final PublishCounters counters)
+    {
+        final long result = clientPublisher.writeRecord(message);
+        counters.published++;
+        return result;
+    }
+
+    @Benchmark
+    public long tryWriteRecord(final PublishCounters counters)
+    {
+        final long result = clientPublisher.tryWriteRecord(message);
+        if (result == UnsafeBufferTransport.BACK_PRESSURED)
+        {
+            counters.backPressured++;
+            Blackhole.consumeCPU(DUTY_CYCLE_TOKENS);
+        }
+        else
+        {
+            counters.published++;
+        }
+        return result;
+    }
+
+    private void slowSubscriberLoop()
+    {
+        final Consumer<UnsafeBuffer> receiver = buffer -> {};
+        while (running)
+        {
+            if (clientSubscriber.poll(receiver) != 0)
+            {
+                final long waitUntil = System.nanoTime() + subscriberDelayNs;
+                while (System.nanoTime() < waitUntil)
+                {
+                    // spin
+                }
+            }
+        }
+    }
+}
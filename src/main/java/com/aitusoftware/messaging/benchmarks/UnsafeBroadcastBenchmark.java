@@ -0,0 +1,125 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import com.aitusoftware.messaging.ipc.RecordFormat;
+import com.aitusoftware.messaging.ipc.UnsafeBroadcastTransport;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One publisher of an {@link UnsafeBroadcastTransport} and a group of subscribers, each with its own instance and
+ * subscriber slot. Neither side blocks, so the {@code published} and {@code received} counters give the message
+ * rate of the publisher and the total over all subscribers. The number of subscribers is set with
+ * {@code -tg 1,N}.
+ */
+@Measurement(iterations = 10)
+@Warmup(iterations = 10)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.Throughput)
+@Fork(value = 2)
+@State(Scope.Group)
+public class UnsafeBroadcastBenchmark
+{
+    private static final int BUFFER_SIZE = 1 << 21;
+    private static final int FRAGMENT_LIMIT = 16;
+
+    @Param({"64", "256", "1024"})
+    private int payloadSize;
+    @Param({"64", "8"})
+    private int alignment;
+
+    private final Path ipcFile = Paths.get("/dev/shm/ipc-broadcast");
+    private RecordFormat format;
+    private UnsafeBuffer message;
+    private UnsafeBroadcastTransport clientPublisher;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class MessageCounters
+    {
+        public long published;
+        public long received;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            published = 0;
+            received = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Subscriber
+    {
+        private UnsafeBroadcastTransport clientSubscriber;
+        private final Consumer<UnsafeBuffer> receiver = buffer -> {};
+
+        @Setup
+        public void setup(final UnsafeBroadcastBenchmark benchmark) throws IOException
+        {
+            clientSubscriber = new UnsafeBroadcastTransport(benchmark.ipcFile, BUFFER_SIZE, benchmark.format);
+            clientSubscriber.registerSubscriber();
+        }
+
+        @TearDown
+        public void tearDown() throws Exception
+        {
+            clientSubscriber.close();
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException
+    {
+        AffinityUtil.set();
+        if (Files.exists(ipcFile))
+        {
+            Files.delete(ipcFile);
+        }
+
+        message = new UnsafeBuffer(ByteBuffer.allocateDirect(payloadSize));
+        for (int i = 0; i < payloadSize; i++)
+        {
+            message.putByte(i, (byte) 7);
+        }
+
+        format = alignment == 64 ? RecordFormat.CACHE_LINE : RecordFormat.compact(alignment);
+        clientPublisher = new UnsafeBroadcastTransport(ipcFile, BUFFER_SIZE, format);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        clientPublisher.close();
+    }
+
+    @Benchmark
+    @Group("broadcast")
+    @GroupThreads(1)
+    public long publish(final MessageCounters counters)
+    {
+        final long result = clientPublisher.tryWriteRecord(message);
+        if (result != UnsafeBroadcastTransport.BACK_PRESSURED)
+        {
+            counters.published++;
+        }
+        return result;
+    }
+
+    @Benchmark
+    @Group("broadcast")
+    @GroupThreads(2)
+    public int poll(final Subscriber subscriber, final MessageCounters counters)
+    {
+        final int fragmentsRead = subscriber.clientSubscriber.poll(subscriber.receiver, FRAGMENT_LIMIT);
+        counters.received += fragmentsRead;
+        return fragmentsRead;
+    }
+}
@@ -0,0 +1,107 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import com.aitusoftware.messaging.ipc.RecordFormat;
+import com.aitusoftware.messaging.ipc.UnsafeBufferTransport;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Compares subscriber-side zeroing with epoch-stamped headers, where the publisher clears the ring instead.
+ * The publisher and subscriber run as one group, and neither blocks, so the {@code published} and
+ * {@code received} counters give the message rate on each side.
+ */
+@Measurement(iterations = 10)
+@Warmup(iterations = 10)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.Throughput)
+@Fork(value = 2)
+@State(Scope.Group)
+public class UnsafeEpochStampBenchmark
+{
+    private static final int BUFFER_SIZE = 1 << 24;
+    private static final int FRAGMENT_LIMIT = 16;
+
+    @Param({"64", "256", "1024", "4096", "262144", "2097152"})
+    private int payloadSize;
+    @Param({"false", "true"})
+    private boolean epochStamped;
+
+    private UnsafeBuffer message;
+    private UnsafeBufferTransport clientPublisher;
+    private UnsafeBufferTransport clientSubscriber;
+    private final Consumer<UnsafeBuffer> receiver = buffer -> {};
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class MessageCounters
+    {
+        public long published;
+        public long received;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            published = 0;
+            received = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException
+    {
+        AffinityUtil.set();
+        Path ipcFile = Paths.get("/dev/shm/ipc-epoch-stamp");
+        if (Files.exists(ipcFile))
+        {
+            Files.delete(ipcFile);
+        }
+
+        message = new UnsafeBuffer(ByteBuffer.allocateDirect(payloadSize));
+        for (int i = 0; i < payloadSize; i++)
+        {
+            message.putByte(i, (byte) 7);
+        }
+
+        final RecordFormat format = epochStamped ? RecordFormat.CACHE_LINE.withEpochStamps() : RecordFormat.CACHE_LINE;
+        clientPublisher = new UnsafeBufferTransport(ipcFile, BUFFER_SIZE, format);
+        clientSubscriber = new UnsafeBufferTransport(ipcFile, BUFFER_SIZE, format);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        clientPublisher.close();
+        clientSubscriber.close();
+    }
+
+    @Benchmark
+    @Group("pubSub")
+    @GroupThreads(1)
+    public long publish(final MessageCounters counters)
+    {
+        final long result = clientPublisher.tryWriteRecord(message);
+        if (result != UnsafeBufferTransport.BACK_PRESSURED)
+        {
+            counters.published++;
+        }
+        return result;
+    }
+
+    @Benchmark
+    @Group("pubSub")
+    @GroupThreads(1)
+    public int poll(final MessageCounters counters)
+    {
+        final int fragmentsRead = clientSubscriber.poll(receiver, FRAGMENT_LIMIT);
+        counters.received += fragmentsRead;
+        return fragmentsRead;
+    }
+}
@@ -1,5 +1,6 @@
 package com.aitusoftware.messaging.benchmarks;
 
+import com.aitusoftware.messaging.ipc.BufferClaim;
 import com.aitusoftware.messaging.ipc.OffHeapByteBufferTransport;
 import com.aitusoftware.messaging.ipc.UnsafeBufferTransport;
 import org.agrona.concurrent.UnsafeBuffer;
@@ -12,6 +13,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Publish cost into a ring with the subscriber gate disabled, so that nothing reads it;
+ * see {@link PingPongBenchmark} for a live subscriber.
+ */
 @Measurement(iterations = 10)
 @Warmup(iterations = 10)
 @OutputTimeUnit(TimeUnit.MICROSECONDS)
@@ -20,18 +25,21 @@ import java.util.concurrent.TimeUnit;
 @State(Scope.Benchmark)
 public class UnsafeIpcBenchmark
 {
-    private static final int MESSAGE_SIZE = 256;
-    private static final int BUFFER_SIZE = 1 << 21;
+    @Param({"32", "256", "1024"})
+    private int messageSize;
+    @Param({"65536", "2097152"})
+    private int bufferSize;
 
     private UnsafeBuffer message;
     private UnsafeBufferTransport clientPublisher;
+    private final BufferClaim bufferClaim = new BufferClaim();
+    private long sequence;
 
     @Setup
     public void setup() throws IOException
     {
         AffinityUtil.set();
         System.setProperty(OffHeapByteBufferTransport.IPC_DISABLE_SUBSCRIBER_GATE, "true");
-        int messageSize = MESSAGE_SIZE;
         Path ipcFileIn = Paths.get("/dev/shm/ipc-in");
         if (Files.exists(ipcFileIn))
         {
@@ -44,7 +52,7 @@ public class UnsafeIpcBenchmark
             message.putByte(i, (byte) 7);
         }
 
-        clientPublisher = new UnsafeBufferTransport(ipcFileIn, BUFFER_SIZE);
+        clientPublisher = new UnsafeBufferTransport(ipcFileIn, bufferSize);
     }
 
     @Benchmark
@@ -52,4 +60,29 @@ public class UnsafeIpcBenchmark
     {
         return clientPublisher.writeRecord(message);
     }
+
+    @Benchmark
+    public long encodeAndPublish()
+    {
+        encode(message);
+        return clientPublisher.writeRecord(message);
+    }
+
+    @Benchmark
+    public long encodeInPlaceAndCommit()
+    {
+        final long result = clientPublisher.tryClaim(messageSize, bufferClaim);
+        encode(bufferClaim.buffer());
+        bufferClaim.commit();
+        return result;
+    }
+
+    private void encode(final UnsafeBuffer buffer)
+    {
+        final long value = sequence++;
+        for (int i = 0; i < messageSize; i += 8)
+        {
+            buffer.putLong(i, value);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,116 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import com.aitusoftware.messaging.ipc.UnsafeBufferTransport;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+@Measurement(iterations = 10)
+@Warmup(iterations = 10)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.Throughput)
+@Fork(value = 2)
+@State(Scope.Benchmark)
+public class UnsafeMultiProducerBenchmark
+{
+    private static final int MESSAGE_SIZE = 256;
+    private static final int BUFFER_SIZE = 1 << 21;
+    private static final int FRAGMENT_LIMIT = 64;
+
+    private final Path ipcFile = Paths.get("/dev/shm/ipc-multi-producer");
+    private UnsafeBufferTransport clientSubscriber;
+    private Thread subscriberThread;
+    private volatile boolean running;
+
+    @State(Scope.Thread)
+    public static class Producer
+    {
+        private UnsafeBuffer message;
+        private UnsafeBufferTransport clientPublisher;
+
+        @Setup
+        public void setup(final UnsafeMultiProducerBenchmark benchmark) throws IOException
+        {
+            message = new UnsafeBuffer(ByteBuffer.allocateDirect(MESSAGE_SIZE));
+            for (int i = 0; i < MESSAGE_SIZE; i++)
+            {
+                message.putByte(i, (byte) 7);
+            }
+            clientPublisher = new UnsafeBufferTransport(benchmark.ipcFile, BUFFER_SIZE);
+        }
+
+        @TearDown
+        public void tearDown() throws Exception
+        {
+            clientPublisher.close();
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException
+    {
+        AffinityUtil.set();
+        if (Files.exists(ipcFile))
+        {
+            Files.delete(ipcFile);
+        }
+
+        clientSubscriber = new UnsafeBufferTransport(ipcFile, BUFFER_SIZE);
+        running = true;
+        subscriberThread = new Thread(this::subscriberLoop, "subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        running = false;
+        subscriberThread.join();
+        clientSubscriber.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long oneProducer(final Producer producer)
+    {
+        return producer.clientPublisher.writeRecord(producer.message);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long twoProducers(final Producer producer)
+    {
+        return producer.clientPublisher.writeRecord(producer.message);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long fourProducers(final Producer producer)
+    {
+        return producer.clientPublisher.writeRecord(producer.message);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long eightProducers(final Producer producer)
+    {
+        return producer.clientPublisher.writeRecord(producer.message);
+    }
+
+    private void subscriberLoop()
+    {
+        final Consumer<UnsafeBuffer> receiver = buffer -> {};
+        while (running)
+        {
+            clientSubscriber.poll(receiver, FRAGMENT_LIMIT);
+        }
+    }
+}
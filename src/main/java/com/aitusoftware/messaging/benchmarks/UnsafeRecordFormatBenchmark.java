@@ -0,0 +1,112 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import com.aitusoftware.messaging.ipc.RecordFormat;
+import com.aitusoftware.messaging.ipc.UnsafeBufferTransport;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Publish throughput for each record format. The {@code ringBytes} and {@code payloadBytes} counters are
+ * reported as rates, so {@code ringBytes} divided by the primary score gives the ring bytes used per message.
+ */
+@Measurement(iterations = 10)
+@Warmup(iterations = 10)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.Throughput)
+@Fork(value = 2)
+@State(Scope.Benchmark)
+public class UnsafeRecordFormatBenchmark
+{
+    private static final int BUFFER_SIZE = 1 << 21;
+    private static final int FRAGMENT_LIMIT = 64;
+
+    @Param({"8", "64"})
+    private int headerLength;
+    @Param({"8", "16", "32", "64"})
+    private int alignment;
+    @Param({"32", "100", "256"})
+    private int messageSize;
+
+    private UnsafeBuffer message;
+    private int recordLength;
+    private UnsafeBufferTransport clientPublisher;
+    private UnsafeBufferTransport clientSubscriber;
+    private Thread subscriberThread;
+    private volatile boolean running;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class ByteCounters
+    {
+        public long ringBytes;
+        public long payloadBytes;
+
+        @Setup(Level.Iteration)
+        public void reset()
+        {
+            ringBytes = 0;
+            payloadBytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException
+    {
+        AffinityUtil.set();
+        Path ipcFile = Paths.get("/dev/shm/ipc-record-format");
+        if (Files.exists(ipcFile))
+        {
+            Files.delete(ipcFile);
+        }
+
+        message = new UnsafeBuffer(ByteBuffer.allocateDirect(messageSize));
+        for (int i = 0; i < messageSize; i++)
+        {
+            message.putByte(i, (byte) 7);
+        }
+
+        final RecordFormat format = RecordFormat.of(headerLength, alignment);
+        recordLength = format.recordLength(messageSize);
+        System.out.printf("%n%s: %db messages take %db of ring%n", format, messageSize, recordLength);
+        clientPublisher = new UnsafeBufferTransport(ipcFile, BUFFER_SIZE, format);
+        clientSubscriber = new UnsafeBufferTransport(ipcFile, BUFFER_SIZE, format);
+        running = true;
+        subscriberThread = new Thread(this::subscriberLoop, "subscriber");
+        subscriberThread.setDaemon(true);
+        subscriberThread.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        running = false;
+        subscriberThread.join();
+        clientPublisher.close();
+        clientSubscriber.close();
+    }
+
+    @Benchmark
+    public long publish(final ByteCounters counters)
+    {
+        counters.ringBytes += recordLength;
+        counters.payloadBytes += messageSize;
+        return clientPublisher.writeRecord(message);
+    }
+
+    private void subscriberLoop()
+    {
+        final Consumer<UnsafeBuffer> receiver = buffer -> {};
+        while (running)
+        {
+            clientSubscriber.poll(receiver, FRAGMENT_LIMIT);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import com.aitusoftware.messaging.ipc.MessageHandler;
+import com.aitusoftware.messaging.ipc.OffHeapByteBufferTransport;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message cost of publishing {@value #MESSAGE_COUNT} messages one record at a time, as batches of
+ * {@code batchSize} records each reserved at once, and as records gathered from {@code batchSize} fragments.
+ * Every invocation drains the ring, so the cost of reading the records back is included in each.
+ */
+@Measurement(iterations = 10)
+@Warmup(iterations = 10)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 2)
+@State(Scope.Benchmark)
+public class VarHandleBatchWriteBenchmark
+{
+    private static final int BUFFER_SIZE = 1 << 21;
+    private static final int MESSAGE_COUNT = 64;
+
+    @Param({"1", "2", "4", "8", "16", "32", "64"})
+    private int batchSize;
+    @Param({"32", "256"})
+    private int messageSize;
+
+    private final ByteBuffer[] messages = new ByteBuffer[MESSAGE_COUNT];
+    private ByteBuffer[][] batches;
+    private OffHeapByteBufferTransport publisher;
+    private OffHeapByteBufferTransport subscriber;
+    private MessageHandler handler;
+
+    @Setup
+    public void setup(final Blackhole blackhole) throws IOException
+    {
+        AffinityUtil.set();
+        Path ipcFile = Paths.get("/dev/shm/ipc-batch-write");
+        if (Files.exists(ipcFile))
+        {
+            Files.delete(ipcFile);
+        }
+
+        for (int i = 0; i < MESSAGE_COUNT; i++)
+        {
+            messages[i] = ByteBuffer.allocateDirect(messageSize);
+            messages[i].putLong(0, i);
+        }
+        batches = new ByteBuffer[MESSAGE_COUNT / batchSize][];
+        for (int i = 0; i < batches.length; i++)
+        {
+            batches[i] = new ByteBuffer[batchSize];
+            System.arraycopy(messages, i * batchSize, batches[i], 0, batchSize);
+        }
+        publisher = new OffHeapByteBufferTransport(ipcFile, BUFFER_SIZE);
+        subscriber = new OffHeapByteBufferTransport(ipcFile, BUFFER_SIZE);
+        handler = (buffer, offset, length) -> blackhole.consume(buffer.getLong(offset));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        publisher.close();
+        subscriber.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public int writeRecord()
+    {
+        for (int i = 0; i < MESSAGE_COUNT; i++)
+        {
+            messages[i].clear();
+            publisher.writeRecord(messages[i]);
+        }
+        return subscriber.poll(handler, MESSAGE_COUNT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public int writeRecords()
+    {
+        for (final ByteBuffer[] batch : batches)
+        {
+            clear(batch);
+            publisher.writeRecords(batch, batchSize);
+        }
+        return subscriber.poll(handler, MESSAGE_COUNT);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public int writeGatheredRecord()
+    {
+        for (final ByteBuffer[] batch : batches)
+        {
+            clear(batch);
+            publisher.writeGatheredRecord(batch, batchSize);
+        }
+        return subscriber.poll(handler, MESSAGE_COUNT);
+    }
+
+    private static void clear(final ByteBuffer[] batch)
+    {
+        for (final ByteBuffer message : batch)
+        {
+            message.clear();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.aitusoftware.messaging.benchmarks;
 
+import com.aitusoftware.messaging.ipc.ByteBufferClaim;
 import com.aitusoftware.messaging.ipc.OffHeapByteBufferTransport;
 import org.openjdk.jmh.annotations.*;
 
@@ -10,6 +11,10 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Publish cost into a ring with the subscriber gate disabled, so that nothing reads it;
+ * see {@link PingPongBenchmark} for a live subscriber.
+ */
 @Measurement(iterations = 10)
 @Warmup(iterations = 10)
 @OutputTimeUnit(TimeUnit.MICROSECONDS)
@@ -18,17 +23,21 @@ import java.util.concurrent.TimeUnit;
 @State(Scope.Benchmark)
 public class VarHandleIpcBenchmark
 {
-    private static final int MESSAGE_SIZE = 256;
-    private static final int BUFFER_SIZE = 1 << 21;
+    @Param({"32", "256", "1024"})
+    private int messageSize;
+    @Param({"65536", "2097152"})
+    private int bufferSize;
 
     private ByteBuffer message;
     private OffHeapByteBufferTransport clientPublisher;
+    private final ByteBufferClaim bufferClaim = new ByteBufferClaim();
+    private long sequence;
 
     @Setup
     public void setup() throws IOException
     {
         AffinityUtil.set();
-        int messageSize = MESSAGE_SIZE;
+        System.setProperty(OffHeapByteBufferTransport.IPC_DISABLE_SUBSCRIBER_GATE, "true");
         Path ipcFileIn = Paths.get("/dev/shm/ipc-in");
         if (Files.exists(ipcFileIn))
         {
@@ -42,7 +51,7 @@ public class VarHandleIpcBenchmark
         }
         message.clear();
 
-        clientPublisher = new OffHeapByteBufferTransport(ipcFileIn, BUFFER_SIZE);
+        clientPublisher = new OffHeapByteBufferTransport(ipcFileIn, bufferSize);
     }
 
     @Benchmark
@@ -51,4 +60,31 @@ public class VarHandleIpcBenchmark
         message.clear();
         return clientPublisher.writeRecord(message);
     }
+
+    @Benchmark
+    public long encodeAndPublish()
+    {
+        message.clear();
+        encode(message, 0);
+        return clientPublisher.writeRecord(message);
+    }
+
+    @Benchmark
+    public long encodeInPlaceAndCommit()
+    {
+        final long result = clientPublisher.tryClaim(messageSize, bufferClaim);
+        final ByteBuffer buffer = bufferClaim.buffer();
+        encode(buffer, buffer.position());
+        bufferClaim.commit();
+        return result;
+    }
+
+    private void encode(final ByteBuffer buffer, final int offset)
+    {
+        final long value = sequence++;
+        for (int i = 0; i < messageSize; i += 8)
+        {
+            buffer.putLong(offset + i, value);
+        }
+    }
 }
\ No newline at end of file
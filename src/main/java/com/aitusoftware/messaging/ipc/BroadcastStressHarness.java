@@ -0,0 +1,183 @@
+package com.aitusoftware.messaging.ipc;
+
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs a single publisher against several subscriber threads of an {@link UnsafeBroadcastTransport}, each with
+ * its own instance and subscriber slot, and checks that every subscriber receives every record exactly once,
+ * in order, with its payload intact. Message sizes vary, so that records regularly meet the end of the ring.
+ * The publisher alternates between writeRecord and tryWriteRecord.
+ * The first failure of the publisher or of any subscriber ends the run with a non-zero exit status.
+ */
+public final class BroadcastStressHarness
+{
+    private static final int SUBSCRIBER_COUNT = Integer.getInteger("ipc.stress.subscribers", 4);
+    private static final int MESSAGE_COUNT = Integer.getInteger("ipc.msgCount", 1 << 20);
+    private static final int BUFFER_SIZE = Integer.getInteger("ipc.bufferSize", 1 << 16);
+    private static final int MAX_MESSAGE_SIZE = Integer.getInteger("ipc.msgSize", 256);
+    private static final RecordFormat RECORD_FORMAT = RecordFormat.fromSystemProperties();
+    private static final int FRAGMENT_LIMIT = 16;
+    private static final int SEQUENCE_OFFSET = 0;
+    private static final int MIN_MESSAGE_SIZE = 8;
+
+    private final Path path;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    public static void main(String[] args) throws Exception
+    {
+        try
+        {
+            new BroadcastStressHarness(Paths.get("/dev/shm/ipc-broadcast-stress")).run();
+        }
+        catch (Throwable t)
+        {
+            t.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public BroadcastStressHarness(Path path) throws IOException
+    {
+        if (Files.exists(path))
+        {
+            Files.delete(path);
+        }
+        this.path = path;
+    }
+
+    private void run() throws Exception
+    {
+        final Thread[] threads = new Thread[SUBSCRIBER_COUNT + 1];
+        // every subscriber registers before the first record is written, so each must see all of them
+        for (int i = 0; i < SUBSCRIBER_COUNT; i++)
+        {
+            final UnsafeBroadcastTransport subscriber = new UnsafeBroadcastTransport(path, BUFFER_SIZE, RECORD_FORMAT);
+            subscriber.registerSubscriber();
+            threads[i] = new Thread(() -> receive(subscriber), "subscriber-" + i);
+        }
+        threads[SUBSCRIBER_COUNT] = new Thread(this::publish, "publisher");
+
+        final long startNanos = System.nanoTime();
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        final long durationNanos = System.nanoTime() - startNanos;
+        if (failure.get() != null)
+        {
+            throw new IllegalStateException("Broadcast stress run failed", failure.get());
+        }
+
+        System.out.printf("%d subscribers each received %d messages exactly once in %dms (%.0f msg/s, %s)%n",
+                SUBSCRIBER_COUNT, MESSAGE_COUNT, TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                MESSAGE_COUNT * (double) TimeUnit.SECONDS.toNanos(1L) / durationNanos, RECORD_FORMAT);
+    }
+
+    /**
+     * Closing the subscriber, even after a failure, retires its slot, so the publisher never waits on it.
+     */
+    private void receive(final UnsafeBroadcastTransport subscriber)
+    {
+        final IdleStrategy idleStrategy = Util.newIdleStrategy(Util.SUBSCRIBER_IDLE_STRATEGY);
+        final SequenceCheck check = new SequenceCheck();
+        try (UnsafeBroadcastTransport transport = subscriber)
+        {
+            while (check.nextSequence < MESSAGE_COUNT && failure.get() == null)
+            {
+                idleStrategy.idle(transport.poll(check, FRAGMENT_LIMIT));
+            }
+        }
+        catch (Throwable t)
+        {
+            failure.compareAndSet(null, t);
+        }
+    }
+
+    private void publish()
+    {
+        final UnsafeBuffer message = new UnsafeBuffer(ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE));
+        final UnsafeBuffer view = new UnsafeBuffer();
+        try (UnsafeBroadcastTransport publisher = new UnsafeBroadcastTransport(path, BUFFER_SIZE, RECORD_FORMAT))
+        {
+            for (long sequence = 0; sequence < MESSAGE_COUNT && failure.get() == null; sequence++)
+            {
+                view.wrap(message, 0, messageSize(sequence));
+                encode(view, sequence);
+                if ((sequence & 1) == 0)
+                {
+                    publisher.writeRecord(view);
+                }
+                else
+                {
+                    while (publisher.tryWriteRecord(view) == UnsafeBroadcastTransport.BACK_PRESSURED &&
+                            failure.get() == null)
+                    {
+                        Thread.yield();
+                    }
+                }
+            }
+        }
+        catch (Throwable t)
+        {
+            failure.compareAndSet(null, t);
+        }
+    }
+
+    private static final class SequenceCheck implements Consumer<UnsafeBuffer>
+    {
+        private long nextSequence;
+
+        @Override
+        public void accept(final UnsafeBuffer message)
+        {
+            final long sequence = message.getLong(SEQUENCE_OFFSET);
+            if (sequence != nextSequence)
+            {
+                throw new IllegalStateException(String.format("%s: expected sequence %d, received %d",
+                        Thread.currentThread().getName(), nextSequence, sequence));
+            }
+            if (message.capacity() != messageSize(sequence))
+            {
+                throw new IllegalStateException(String.format("%s sequence %d: expected %db, received %db",
+                        Thread.currentThread().getName(), sequence, messageSize(sequence), message.capacity()));
+            }
+            for (int i = SEQUENCE_OFFSET + 8; i < message.capacity(); i++)
+            {
+                if (message.getByte(i) != (byte) sequence)
+                {
+                    throw new IllegalStateException(String.format("%s sequence %d: corrupt payload at %d",
+                            Thread.currentThread().getName(), sequence, i));
+                }
+            }
+            nextSequence++;
+        }
+    }
+
+    private static void encode(final UnsafeBuffer buffer, final long sequence)
+    {
+        buffer.putLong(SEQUENCE_OFFSET, sequence);
+        for (int i = SEQUENCE_OFFSET + 8; i < buffer.capacity(); i++)
+        {
+            buffer.putByte(i, (byte) sequence);
+        }
+    }
+
+    private static int messageSize(final long sequence)
+    {
+        return MIN_MESSAGE_SIZE + (int) ((sequence * 31) % (MAX_MESSAGE_SIZE - MIN_MESSAGE_SIZE + 1));
+    }
+}
@@ -0,0 +1,54 @@
+package com.aitusoftware.messaging.ipc;
+
+import org.agrona.concurrent.UnsafeBuffer;
+
+/**
+ * Flyweight over a record claimed in an {@link UnsafeBufferTransport} ring. The payload is encoded
+ * directly into {@link #buffer()}, then published with {@link #commit()} or skipped with {@link #abort()}.
+ */
+public final class BufferClaim
+{
+    private final UnsafeBuffer buffer = new UnsafeBuffer();
+    private UnsafeBuffer ringBuffer;
+    private int headerOffset;
+    private int length;
+    private int recordLength;
+    private long epoch;
+    private Journal journal;
+
+    void wrap(final UnsafeBuffer ringBuffer, final int headerOffset, final int length, final RecordFormat format,
+              final long epoch, final Journal journal)
+    {
+        this.ringBuffer = ringBuffer;
+        this.headerOffset = headerOffset;
+        this.length = length;
+        this.recordLength = format.recordLength(length);
+        this.epoch = epoch;
+        this.journal = journal;
+        buffer.wrap(ringBuffer, headerOffset + format.headerLength(), length);
+    }
+
+    public UnsafeBuffer buffer()
+    {
+        return buffer;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public void commit()
+    {
+        if (journal != null)
+        {
+            journal.append(buffer, 0, length);
+        }
+        ringBuffer.putLongOrdered(headerOffset, Util.recordHeader(epoch, Util.RECORD_TYPE_MESSAGE, length));
+    }
+
+    public void abort()
+    {
+        ringBuffer.putLongOrdered(headerOffset, Util.recordHeader(epoch, Util.RECORD_TYPE_PADDING, recordLength));
+    }
+}
@@ -0,0 +1,63 @@
+package com.aitusoftware.messaging.ipc;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Flyweight over a record claimed in an {@link OffHeapByteBufferTransport} ring. The payload is encoded
+ * between the position and limit of {@link #buffer()}, then published with {@link #commit()} or skipped
+ * with {@link #abort()}.
+ */
+public final class ByteBufferClaim
+{
+    private static final VarHandle VIEW =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private ByteBuffer ringBuffer;
+    private ByteBuffer buffer;
+    private int headerOffset;
+    private int length;
+    private int recordLength;
+    private long epoch;
+    private Journal journal;
+
+    void wrap(final ByteBuffer ringBuffer, final ByteBuffer claimView, final int headerOffset, final int length,
+              final RecordFormat format, final long epoch, final Journal journal)
+    {
+        this.ringBuffer = ringBuffer;
+        this.headerOffset = headerOffset;
+        this.length = length;
+        this.recordLength = format.recordLength(length);
+        this.epoch = epoch;
+        this.journal = journal;
+        final int payloadOffset = headerOffset + format.headerLength();
+        claimView.limit(payloadOffset + length).position(payloadOffset);
+        this.buffer = claimView;
+    }
+
+    public ByteBuffer buffer()
+    {
+        return buffer;
+    }
+
+    public int length()
+    {
+        return length;
+    }
+
+    public void commit()
+    {
+        if (journal != null)
+        {
+            journal.append(ringBuffer, buffer.position(), length);
+        }
+        VIEW.setRelease(ringBuffer, headerOffset, Util.recordHeader(epoch, Util.RECORD_TYPE_MESSAGE, length));
+    }
+
+    public void abort()
+    {
+        VIEW.setRelease(ringBuffer, headerOffset, Util.recordHeader(epoch, Util.RECORD_TYPE_PADDING, recordLength));
+    }
+}
@@ -0,0 +1,421 @@
+package com.aitusoftware.messaging.ipc;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogReader;
+import org.agrona.concurrent.IdleStrategy;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Round-trip latency harness with the publisher, echo and subscriber as separate JVMs attached to the same
+ * rings, so that each runs with its own heap, GC and page tables. The role of a process is set with
+ * {@value #IPC_ROLE}:
+ * <ul>
+ *     <li>{@value #ROLE_PUBLISHER}, {@value #ROLE_ECHO} and {@value #ROLE_SUBSCRIBER} run one role each</li>
+ *     <li>{@value #ROLE_IN_PROCESS} runs all three roles as threads of one JVM</li>
+ *     <li>{@value #ROLE_LAUNCHER} (the default) starts one JVM per role with its own JVM arguments, waits for
+ *     them, and reports the subscriber's interval histograms merged into one. With {@code ipc.compareInProcess}
+ *     it first runs an {@value #ROLE_IN_PROCESS} JVM, and prints both results side by side</li>
+ * </ul>
+ * The roles count themselves in and signal the end of the run through the control words in the header of the
+ * inbound ring, so they can be started in any order. Round-trip times compare {@code System.nanoTime()} between
+ * processes, which relies on a monotonic clock shared by the whole host, as on Linux. With a {@link LoadSchedule},
+ * the publisher follows it for the whole run, and stamps messages with their intended send time.
+ *
+ * @param <M> the message type of the transport
+ */
+public final class CrossProcessHarness<M>
+{
+    public static final String IPC_ROLE = "ipc.role";
+    public static final String ROLE_LAUNCHER = "launcher";
+    public static final String ROLE_IN_PROCESS = "inProcess";
+    public static final String ROLE_PUBLISHER = "publisher";
+    public static final String ROLE_ECHO = "echo";
+    public static final String ROLE_SUBSCRIBER = "subscriber";
+
+    private static final boolean DEBUG = false;
+    private static final int MESSAGE_COUNT = Integer.getInteger("ipc.msgCount", 1 << 20);
+    private static final int BUFFER_SIZE = Integer.getInteger("ipc.bufferSize", MESSAGE_COUNT / 8);
+    private static final int MESSAGE_SIZE = Integer.getInteger("ipc.msgSize", 256);
+    private static final long DELAY_NS = Long.getLong("ipc.pub.delayNs", 0);
+    private static final LoadSchedule LOAD_SCHEDULE = LoadSchedule.fromSystemProperties();
+    private static final boolean SHOULD_DELAY = DELAY_NS != 0 && LOAD_SCHEDULE == null;
+    // open-loop latencies include any time spent behind the schedule, so they are never clamped
+    private static final long MAX_VALUE =
+            LOAD_SCHEDULE == null ? TimeUnit.MILLISECONDS.toNanos(50L) : LatencyRecorder.AUTO_RESIZE;
+    private static final RecordFormat RECORD_FORMAT = RecordFormat.fromSystemProperties();
+    private static final int INTERVAL_COUNT = Integer.getInteger("ipc.intervals", 4);
+    private static final boolean COMPARE_IN_PROCESS = Boolean.getBoolean("ipc.compareInProcess");
+    private static final String RESULTS_DIR = System.getProperty("ipc.resultsDir", "/tmp");
+    private static final Path IPC_FILE_IN = Paths.get("/dev/shm/ipc-in");
+    private static final Path IPC_FILE_OUT = Paths.get("/dev/shm/ipc-out");
+    private static final VarHandle VIEW =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int ROLE_COUNT = 3;
+    private static final long RUN_STATE_WAITING = 0L;
+    private static final long RUN_STATE_RUNNING = 1L;
+    private static final long RUN_STATE_STOPPED = 2L;
+
+    private final TransportFactory<M> factory;
+    private final String mode;
+    private final RolePlacement placement;
+    private final ByteBuffer control;
+    private final int sequenceOffset = MESSAGE_SIZE - 8;
+    private LatencyRecorder latencyRecorder;
+    private long receivedCount;
+
+    public static void main(String[] args) throws Exception
+    {
+        final String role = System.getProperty(IPC_ROLE, ROLE_LAUNCHER);
+        // every process places all three roles, so that they agree on the CPU of each, and the launcher
+        // fails before starting any role if they cannot be placed
+        final RolePlacement placement = RolePlacement.placeOrExit(
+                RolePlacement.Role.PUBLISHER, RolePlacement.Role.ECHO, RolePlacement.Role.SUBSCRIBER);
+        if (ROLE_LAUNCHER.equals(role))
+        {
+            launch();
+            return;
+        }
+
+        final CrossProcessHarness<Object> harness =
+                new CrossProcessHarness<>(Transports.fromSystemProperties(Transports.VAR_HANDLE), role, placement);
+        switch (role)
+        {
+            case ROLE_PUBLISHER:
+                harness.publishLoop();
+                break;
+            case ROLE_ECHO:
+                harness.echoLoop();
+                break;
+            case ROLE_SUBSCRIBER:
+                harness.receiveLoop();
+                break;
+            case ROLE_IN_PROCESS:
+                harness.runInProcess();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown role: " + role);
+        }
+    }
+
+    /**
+     * @param role      the role of this process, which decides the name of the histogram log written by the subscriber
+     * @param placement the CPU of each role
+     */
+    public CrossProcessHarness(final TransportFactory<M> factory, final String role, final RolePlacement placement)
+            throws IOException
+    {
+        this.factory = factory;
+        this.placement = placement;
+        this.mode = ROLE_IN_PROCESS.equals(role) ? ROLE_IN_PROCESS : "crossProcess";
+        // mapping the whole ring creates it at the length a transport expects, whichever role attaches first
+        try (FileChannel channel = FileChannel.open(IPC_FILE_IN, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ))
+        {
+            control = channel.map(FileChannel.MapMode.READ_WRITE, 0L, BUFFER_SIZE + Util.DATA_OFFSET + 8);
+        }
+    }
+
+    private void runInProcess() throws Exception
+    {
+        final Thread echo = new Thread(this::echoLoopUnchecked, "echo");
+        final Thread subscriber = new Thread(this::receiveLoopUnchecked, "subscriber");
+        echo.start();
+        subscriber.start();
+        publishLoop();
+        subscriber.join();
+        echo.join();
+    }
+
+    private void publishLoop() throws Exception
+    {
+        placement.bind(RolePlacement.Role.PUBLISHER);
+        try (Transport<M> publisher = factory.open(IPC_FILE_IN, BUFFER_SIZE, RECORD_FORMAT))
+        {
+            final M message = factory.allocate(MESSAGE_SIZE);
+            for (int i = 0; i + 8 <= MESSAGE_SIZE; i += 8)
+            {
+                factory.putLong(message, i, 0x0707_0707_0707_0707L);
+            }
+            awaitStart(ROLE_PUBLISHER);
+
+            final long totalCount = (long) MESSAGE_COUNT * INTERVAL_COUNT;
+            final long scheduleStartNanos = System.nanoTime();
+            for (long sequence = 0; sequence < totalCount && !isStopped(); sequence++)
+            {
+                factory.rewind(message);
+                factory.putLong(message, sequenceOffset, sequence);
+                final long publishNanos;
+                if (LOAD_SCHEDULE != null)
+                {
+                    publishNanos = scheduleStartNanos + LOAD_SCHEDULE.nextSendOffsetNanos();
+                    while (System.nanoTime() < publishNanos)
+                    {
+                        // spin
+                    }
+                }
+                else
+                {
+                    publishNanos = System.nanoTime();
+                }
+                factory.putLong(message, 0, publishNanos);
+                publisher.writeRecord(message);
+
+                if (SHOULD_DELAY)
+                {
+                    final long waitUntil = publishNanos + DELAY_NS;
+                    while (System.nanoTime() < waitUntil)
+                    {
+                        // spin
+                    }
+                }
+            }
+        }
+    }
+
+    private void echoLoop() throws Exception
+    {
+        placement.bind(RolePlacement.Role.ECHO);
+        try (Transport<M> subscriber = factory.open(IPC_FILE_IN, BUFFER_SIZE, RECORD_FORMAT);
+             Transport<M> publisher = factory.open(IPC_FILE_OUT, BUFFER_SIZE, RECORD_FORMAT))
+        {
+            final Consumer<M> echoMessage = publisher::writeRecord;
+            final IdleStrategy idleStrategy = Util.newIdleStrategy(Util.SUBSCRIBER_IDLE_STRATEGY);
+            awaitStart(ROLE_ECHO);
+            // the subscriber only stops once every message has come back, so nothing is left in the ring
+            while (!isStopped())
+            {
+                idleStrategy.idle(subscriber.poll(echoMessage));
+            }
+        }
+    }
+
+    private void receiveLoop() throws Exception
+    {
+        placement.bind(RolePlacement.Role.SUBSCRIBER);
+        try (Transport<M> subscriber = factory.open(IPC_FILE_OUT, BUFFER_SIZE, RECORD_FORMAT);
+             LatencyRecorder recorder =
+                     new LatencyRecorder(MAX_VALUE, histogramLogFile(mode), MESSAGE_COUNT, this::report))
+        {
+            latencyRecorder = recorder;
+            final Consumer<M> receiveMessage = this::receiveMessage;
+            final IdleStrategy idleStrategy = Util.newIdleStrategy(Util.SUBSCRIBER_IDLE_STRATEGY);
+            awaitStart(ROLE_SUBSCRIBER);
+
+            recorder.start();
+            final long totalCount = (long) MESSAGE_COUNT * INTERVAL_COUNT;
+            // a role that failed may never send the rest, and stops the run through the control words instead
+            while (receivedCount < totalCount && !isStopped())
+            {
+                idleStrategy.idle(subscriber.poll(receiveMessage));
+            }
+        }
+        finally
+        {
+            VIEW.setVolatile(control, Util.CONTROL_RUN_STATE_OFFSET, RUN_STATE_STOPPED);
+        }
+    }
+
+    private void receiveMessage(final M message)
+    {
+        final long rttNanos = System.nanoTime() - factory.getLong(message, 0);
+        receivedCount++;
+        if (SHOULD_DELAY)
+        {
+            latencyRecorder.recordValueWithExpectedInterval(LatencyRecorder.clamp(MAX_VALUE, rttNanos), DELAY_NS);
+        }
+        else
+        {
+            latencyRecorder.recordValue(LatencyRecorder.clamp(MAX_VALUE, rttNanos));
+        }
+    }
+
+    private void report(
+            final long messageCount, final long intervalStartNanos, final long intervalEndNanos,
+            final Histogram histogram)
+    {
+        System.out.printf("Received %d messages in %dms (%.0f msg/s, transport: %s, %s, %s), " +
+                        "rtt p50: %dns, p99: %dns, p99.9: %dns, max: %dns%n",
+                messageCount, TimeUnit.NANOSECONDS.toMillis(intervalEndNanos - intervalStartNanos),
+                messageCount * (double) TimeUnit.SECONDS.toNanos(1L) / (intervalEndNanos - intervalStartNanos),
+                factory.name(), mode, RECORD_FORMAT,
+                histogram.getValueAtPercentile(50d), histogram.getValueAtPercentile(99d),
+                histogram.getValueAtPercentile(99.9d), histogram.getMaxValue());
+    }
+
+    private void echoLoopUnchecked()
+    {
+        try
+        {
+            echoLoop();
+        }
+        catch (Throwable t)
+        {
+            t.printStackTrace();
+        }
+    }
+
+    private void receiveLoopUnchecked()
+    {
+        try
+        {
+            receiveLoop();
+        }
+        catch (Throwable t)
+        {
+            t.printStackTrace();
+        }
+    }
+
+    /**
+     * Counts this role in, and waits until every role has attached. The last one to attach starts the run.
+     * Control words left in the inbound ring by an earlier run are rejected, as the run would never start or
+     * never stop.
+     */
+    private void awaitStart(final String role)
+    {
+        final long attached = (long) VIEW.getAndAdd(control, Util.CONTROL_ATTACHED_COUNT_OFFSET, 1L) + 1;
+        if (DEBUG)
+        {
+            System.out.printf("%s attached as %d of %d%n", role, attached, ROLE_COUNT);
+        }
+        if (attached > ROLE_COUNT || isStopped())
+        {
+            VIEW.setVolatile(control, Util.CONTROL_RUN_STATE_OFFSET, RUN_STATE_STOPPED);
+            throw new IllegalStateException("Control words of " + IPC_FILE_IN +
+                    " are left over from an earlier run, delete it before starting the roles");
+        }
+        if (attached == ROLE_COUNT)
+        {
+            VIEW.compareAndSet(control, Util.CONTROL_RUN_STATE_OFFSET, RUN_STATE_WAITING, RUN_STATE_RUNNING);
+        }
+        while ((long) VIEW.getVolatile(control, Util.CONTROL_RUN_STATE_OFFSET) == RUN_STATE_WAITING)
+        {
+            Thread.onSpinWait();
+        }
+    }
+
+    private boolean isStopped()
+    {
+        return (long) VIEW.getVolatile(control, Util.CONTROL_RUN_STATE_OFFSET) == RUN_STATE_STOPPED;
+    }
+
+    private static void launch() throws Exception
+    {
+        Histogram inProcess = null;
+        if (COMPARE_IN_PROCESS)
+        {
+            inProcess = runChildren(ROLE_IN_PROCESS, ROLE_IN_PROCESS);
+        }
+        final Histogram crossProcess = runChildren("crossProcess", ROLE_PUBLISHER, ROLE_ECHO, ROLE_SUBSCRIBER);
+
+        final String transport = System.getProperty(Transports.IPC_TRANSPORT, Transports.VAR_HANDLE);
+        System.out.printf("%-13s %10s %10s %10s %10s %10s %10s%n",
+                transport, "count", "p50", "p99", "p99.9", "p99.99", "max");
+        if (inProcess != null)
+        {
+            report(transport, ROLE_IN_PROCESS, inProcess);
+        }
+        report(transport, "crossProcess", crossProcess);
+    }
+
+    /**
+     * Starts one JVM per role, with the arguments of this JVM, from fresh rings, and merges the interval
+     * histograms logged by the subscriber.
+     */
+    private static Histogram runChildren(final String mode, final String... roles) throws Exception
+    {
+        Files.deleteIfExists(IPC_FILE_IN);
+        Files.deleteIfExists(IPC_FILE_OUT);
+        final File logFile = histogramLogFile(mode);
+        Files.deleteIfExists(logFile.toPath());
+
+        final String java = ProcessHandle.current().info().command().orElse("java");
+        final List<Process> processes = new ArrayList<>();
+        for (String role : roles)
+        {
+            final List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-D" + IPC_ROLE + "=" + role);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(CrossProcessHarness.class.getName());
+            if (DEBUG)
+            {
+                System.out.printf("Starting %s%n", command);
+            }
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+        }
+
+        // a role that fails leaves the others spinning on the control words, so stop them all
+        for (Process process : processes)
+        {
+            while (!process.waitFor(100, TimeUnit.MILLISECONDS))
+            {
+                for (Process other : processes)
+                {
+                    if (!other.isAlive() && other.exitValue() != 0)
+                    {
+                        processes.forEach(Process::destroyForcibly);
+                        throw new IllegalStateException(mode + " role exited with " + other.exitValue());
+                    }
+                }
+            }
+            if (process.exitValue() != 0)
+            {
+                processes.forEach(Process::destroyForcibly);
+                throw new IllegalStateException(mode + " role exited with " + process.exitValue());
+            }
+        }
+
+        final Histogram merged = LatencyRecorder.newHistogram(MAX_VALUE);
+        final HistogramLogReader reader = new HistogramLogReader(logFile);
+        while (reader.hasNext())
+        {
+            merged.add((Histogram) reader.nextIntervalHistogram());
+        }
+        return merged;
+    }
+
+    private static void report(final String transport, final String mode, final Histogram histogram)
+    {
+        System.out.printf("%-13s %10d %10d %10d %10d %10d %10d%n", mode, histogram.getTotalCount(),
+                histogram.getValueAtPercentile(50d), histogram.getValueAtPercentile(99d),
+                histogram.getValueAtPercentile(99.9d), histogram.getValueAtPercentile(99.99d),
+                histogram.getMaxValue());
+        final File percentileFile =
+                new File(RESULTS_DIR, transport + "-" + mode + "-" + System.currentTimeMillis() + ".hgram");
+        try (PrintStream output = new PrintStream(new FileOutputStream(percentileFile, false)))
+        {
+            histogram.outputPercentileDistribution(output, 1d);
+        }
+        catch (FileNotFoundException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private static File histogramLogFile(final String mode)
+    {
+        return new File(RESULTS_DIR, "ipc-" + mode + ".hlog");
+    }
+}
@@ -1,80 +1,152 @@
 package com.aitusoftware.messaging.ipc;
 
 import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.agrona.concurrent.IdleStrategy;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.nio.ByteBuffer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 
-public final class Harness
+/**
+ * Round-trip latency harness: a publisher sends timestamped messages through one ring to an echo thread,
+ * which returns them through a second ring to a subscriber that records their round-trip time.
+ * With a {@link LoadSchedule}, messages are stamped with their intended send time, so that the round-trip time
+ * includes any delay in sending them.
+ * <p>
+ * The subscriber only records round-trip times, through a {@link LatencyRecorder}, whose reporter thread logs
+ * them to {@code /tmp/<transport>-<timestamp>.hlog}, and prints and writes a percentile file for every
+ * {@code ipc.msgCount} messages.
+ * <p>
+ * With {@code ipc.throughput}, the publisher instead streams messages as fast as back-pressure allows, and
+ * the rate of each thread is reported every {@code ipc.report.intervalMs}, without recording latency.
+ * Runs against any {@link Transport}, selected with {@value Transports#IPC_TRANSPORT}.
+ *
+ * @param <M> the message type of the transport
+ */
+public final class Harness<M>
 {
     private static final int MESSAGE_COUNT = Integer.getInteger("ipc.msgCount", 1 << 20);
-    private static final long MAX_VALUE = TimeUnit.MILLISECONDS.toNanos(50L);
     private static final int BUFFER_SIZE = Integer.getInteger("ipc.bufferSize", MESSAGE_COUNT / 8);
     private static final int MESSAGE_SIZE = Integer.getInteger("ipc.msgSize", 256);
     private static final long DELAY_NS = Long.getLong("ipc.pub.delayNs", 0);
-    private static final boolean SHOULD_DELAY = DELAY_NS != 0;
-
-    private final OffHeapByteBufferTransport clientPublisher;
-    private final OffHeapByteBufferTransport clientSubscriber;
-    private final OffHeapByteBufferTransport serverPublisher;
-    private final OffHeapByteBufferTransport serverSubscriber;
-    private final ByteBuffer message;
-    private final Histogram histogram = new Histogram(MAX_VALUE, 3);
+    private static final LoadSchedule LOAD_SCHEDULE = LoadSchedule.fromSystemProperties();
+    // an open-loop schedule replaces the fixed delay, and its send times need no correction
+    private static final boolean SHOULD_DELAY = DELAY_NS != 0 && LOAD_SCHEDULE == null;
+    // open-loop latencies include any time spent behind the schedule, so they are never clamped
+    private static final long MAX_VALUE =
+            LOAD_SCHEDULE == null ? TimeUnit.MILLISECONDS.toNanos(50L) : LatencyRecorder.AUTO_RESIZE;
+    private static final int FRAGMENT_LIMIT = Integer.getInteger("ipc.sub.fragmentLimit", 0);
+    private static final RecordFormat RECORD_FORMAT = RecordFormat.fromSystemProperties();
+    private static final int INTERVAL_COUNT = Integer.getInteger("ipc.intervals", 0);
+    private static final boolean RESUME = Boolean.getBoolean("ipc.resume");
+    private static final boolean REPORT_FIRST_LAP = Boolean.getBoolean("ipc.reportFirstLap");
+    private static final boolean THROUGHPUT = Boolean.getBoolean("ipc.throughput");
+    private static final long REPORT_INTERVAL_NS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("ipc.report.intervalMs", 1000L));
+
+    private final TransportFactory<M> factory;
+    private final RolePlacement placement;
+    private final Transport<M> clientPublisher;
+    private final Transport<M> clientSubscriber;
+    private final Transport<M> serverPublisher;
+    private final Transport<M> serverSubscriber;
+    private final M message;
+    private final LatencyRecorder latencyRecorder;
+    private final Recorder firstLapRecorder = LatencyRecorder.newRecorder(MAX_VALUE);
+    private final Histogram firstLapHistogram = LatencyRecorder.newHistogram(MAX_VALUE);
+    private final long firstLapMessageCount;
     private final int sequenceOffset;
-    private final Consumer<ByteBuffer> receiveMessage = this::receiveMessage;
-    private final Consumer<ByteBuffer> echoMessage = this::echoMessage;
+    private final Consumer<M> receiveMessage = this::receiveMessage;
+    private final Consumer<M> echoMessage = this::echoMessage;
     private long sequence;
-    private long messageCount;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private volatile long echoThreadId;
+    private volatile long subscriberThreadId;
+    private final AtomicLong publishedCount = new AtomicLong();
+    private final AtomicLong echoedCount = new AtomicLong();
+    private final AtomicLong receivedCount = new AtomicLong();
+    private long echoed;
+    private long received;
+    private long echoCpuStartNanos;
+    private long subscriberCpuStartNanos;
 
     public static void main(String[] args) throws IOException
     {
-        new Harness(Paths.get("/dev/shm/ipc-in"),
-                Paths.get("/dev/shm/ipc-out"), MESSAGE_SIZE).publishLoop();
+        run(Transports.fromSystemProperties(Transports.VAR_HANDLE));
+    }
+
+    static <M> void run(final TransportFactory<M> factory) throws IOException
+    {
+        final RolePlacement placement = RolePlacement.placeOrExit(
+                RolePlacement.Role.PUBLISHER, RolePlacement.Role.ECHO, RolePlacement.Role.SUBSCRIBER);
+        new Harness<>(factory, Paths.get("/dev/shm/ipc-in"),
+                Paths.get("/dev/shm/ipc-out"), MESSAGE_SIZE, placement).publishLoop();
     }
 
-    public Harness(Path ipcFileIn, Path ipcFileOut, int messageSize) throws IOException
+    public Harness(TransportFactory<M> factory, Path ipcFileIn, Path ipcFileOut, int messageSize,
+                   RolePlacement placement) throws IOException
     {
-        if (Files.exists(ipcFileIn))
+        // with ipc.resume, attach to the rings left by a previous run and carry on from their stored sequences
+        if (!RESUME && Files.exists(ipcFileIn))
         {
             Files.delete(ipcFileIn);
         }
-        if (Files.exists(ipcFileOut))
+        if (!RESUME && Files.exists(ipcFileOut))
         {
             Files.delete(ipcFileOut);
         }
-        message = ByteBuffer.allocateDirect(messageSize);
-        for (int i = 0; i < messageSize; i++)
+        this.factory = factory;
+        this.placement = placement;
+        message = factory.allocate(messageSize);
+        for (int i = 0; i + 8 <= messageSize; i += 8)
         {
-            message.put(i, (byte) 7);
+            factory.putLong(message, i, 0x0707_0707_0707_0707L);
         }
-        message.clear();
 
-        clientPublisher = new OffHeapByteBufferTransport(ipcFileIn, BUFFER_SIZE);
-        clientSubscriber = new OffHeapByteBufferTransport(ipcFileOut, BUFFER_SIZE);
-        serverPublisher = new OffHeapByteBufferTransport(ipcFileOut, BUFFER_SIZE);
-        serverSubscriber = new OffHeapByteBufferTransport(ipcFileIn, BUFFER_SIZE);
+        clientPublisher = factory.open(ipcFileIn, BUFFER_SIZE, RECORD_FORMAT);
+        clientSubscriber = factory.open(ipcFileOut, BUFFER_SIZE, RECORD_FORMAT);
+        serverPublisher = factory.open(ipcFileOut, BUFFER_SIZE, RECORD_FORMAT);
+        serverSubscriber = factory.open(ipcFileIn, BUFFER_SIZE, RECORD_FORMAT);
         this.sequenceOffset = messageSize - 8;
+        this.firstLapMessageCount = BUFFER_SIZE / RECORD_FORMAT.recordLength(messageSize);
+        this.latencyRecorder = new LatencyRecorder(MAX_VALUE,
+                new File("/tmp/" + factory.name() + "-" + System.currentTimeMillis() + ".hlog"),
+                MESSAGE_COUNT, this::report);
+        Runtime.getRuntime().addShutdownHook(new Thread(latencyRecorder::close, "summary"));
     }
 
     private void echoLoop()
     {
         Thread.currentThread().setName("echo");
-        Util.setCpu("echo", Util.ECHO_CPU);
+        placement.bind(RolePlacement.Role.ECHO);
+        echoThreadId = Thread.currentThread().getId();
+        final IdleStrategy idleStrategy = Util.newIdleStrategy(Util.SUBSCRIBER_IDLE_STRATEGY);
         try
         {
             while (!Thread.currentThread().isInterrupted())
             {
-                serverSubscriber.poll(echoMessage);
+                if (FRAGMENT_LIMIT > 0)
+                {
+                    idleStrategy.idle(serverSubscriber.poll(echoMessage, FRAGMENT_LIMIT));
+                }
+                else
+                {
+                    idleStrategy.idle(serverSubscriber.poll(echoMessage));
+                }
             }
         }
         catch (Throwable t)
@@ -83,9 +155,13 @@ public final class Harness
         }
     }
 
-    private void echoMessage(ByteBuffer message)
+    private void echoMessage(M message)
     {
         serverPublisher.writeRecord(message);
+        if (THROUGHPUT)
+        {
+            echoedCount.lazySet(++echoed);
+        }
     }
 
     private void publishLoop()
@@ -93,17 +169,39 @@ public final class Harness
         ExecutorService executor = Executors.newCachedThreadPool();
         executor.submit(this::echoLoop);
         executor.submit(this::receiveLoop);
+        if (THROUGHPUT)
+        {
+            executor.submit(this::reportThroughputLoop);
+        }
         Thread.currentThread().setName("harness");
-        Util.setCpu("publish", Util.PUBLISHER_CPU);
+        placement.bind(RolePlacement.Role.PUBLISHER);
 
         while (!Thread.currentThread().isInterrupted())
         {
+            final long scheduleStartNanos = System.nanoTime();
+            if (LOAD_SCHEDULE != null && !THROUGHPUT)
+            {
+                LOAD_SCHEDULE.reset();
+            }
             for (int i = 0; i < MESSAGE_COUNT; i++)
             {
-                message.clear();
-                message.putLong(sequenceOffset, sequence++);
-                final long publishNanos = System.nanoTime();
-                message.putLong(0, publishNanos);
+                factory.rewind(message);
+                factory.putLong(message, sequenceOffset, sequence++);
+                final long publishNanos;
+                if (LOAD_SCHEDULE != null && !THROUGHPUT)
+                {
+                    publishNanos = scheduleStartNanos + LOAD_SCHEDULE.nextSendOffsetNanos();
+                    // a late publisher sends at once, and the message keeps its intended time
+                    while (System.nanoTime() < publishNanos)
+                    {
+                        // spin
+                    }
+                }
+                else
+                {
+                    publishNanos = System.nanoTime();
+                }
+                factory.putLong(message, 0, publishNanos);
                 try
                 {
                     clientPublisher.writeRecord(message);
@@ -114,7 +212,11 @@ public final class Harness
                     return;
                 }
 
-                if (SHOULD_DELAY)
+                if (THROUGHPUT)
+                {
+                    publishedCount.lazySet(sequence);
+                }
+                else if (SHOULD_DELAY)
                 {
                     final long waitUntil = publishNanos + DELAY_NS;
                     while (System.nanoTime() < waitUntil)
@@ -124,7 +226,7 @@ public final class Harness
                 }
             }
 
-            final long spinUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+            final long spinUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(THROUGHPUT ? 0L : 5L);
             while (System.nanoTime() < spinUntil)
             {
                 // spin
@@ -134,40 +236,182 @@ public final class Harness
 
     private void receiveLoop()
     {
-        Util.setCpu("subcribe", Util.SUBSCRIBER_CPU);
+        placement.bind(RolePlacement.Role.SUBSCRIBER);
         Thread.currentThread().setName("subscriber");
+        subscriberThreadId = Thread.currentThread().getId();
 
+        if (!THROUGHPUT)
+        {
+            latencyRecorder.start();
+        }
+        final IdleStrategy idleStrategy = Util.newIdleStrategy(Util.SUBSCRIBER_IDLE_STRATEGY);
         while (!Thread.currentThread().isInterrupted())
         {
-            clientSubscriber.poll(receiveMessage);
+            if (FRAGMENT_LIMIT > 0)
+            {
+                idleStrategy.idle(clientSubscriber.poll(receiveMessage, FRAGMENT_LIMIT));
+            }
+            else
+            {
+                idleStrategy.idle(clientSubscriber.poll(receiveMessage));
+            }
         }
     }
 
-    private void receiveMessage(ByteBuffer message)
+    private void receiveMessage(M message)
     {
-        long rttNanos = System.nanoTime() - message.getLong(message.position());
-        messageCount++;
-        if (SHOULD_DELAY)
+        if (THROUGHPUT)
+        {
+            receivedCount.lazySet(++received);
+            return;
+        }
+        final long rttNanos = LatencyRecorder.clamp(MAX_VALUE, System.nanoTime() - factory.getLong(message, 0));
+        if (REPORT_FIRST_LAP && factory.getLong(message, sequenceOffset) < firstLapMessageCount)
         {
-            histogram.recordValueWithExpectedInterval(Math.min(MAX_VALUE, rttNanos), DELAY_NS);
+            firstLapRecorder.recordValue(rttNanos);
+            latencyRecorder.countValue();
+        }
+        else if (SHOULD_DELAY)
+        {
+            latencyRecorder.recordValueWithExpectedInterval(rttNanos, DELAY_NS);
         }
         else
         {
-            histogram.recordValue(Math.min(MAX_VALUE, rttNanos));
+            latencyRecorder.recordValue(rttNanos);
         }
-        if (messageCount == MESSAGE_COUNT)
+        // the reporter prints each interval, the subscriber only stops the run
+        if (INTERVAL_COUNT != 0 && latencyRecorder.recordedCount() == (long) MESSAGE_COUNT * INTERVAL_COUNT)
         {
-            try (PrintStream output = new PrintStream(
-                    new FileOutputStream("/tmp/vh-" + System.currentTimeMillis() + ".hgram", false)))
-            {
-                histogram.outputPercentileDistribution(output, 1d);
-            }
-            catch (FileNotFoundException e)
+            latencyRecorder.close();
+            System.exit(0);
+        }
+    }
+
+    private void report(
+            final long messageCount, final long intervalStartNanos, final long intervalEndNanos,
+            final Histogram histogram)
+    {
+        System.out.printf("Received %d messages in %dms (%.0f msg/s, transport: %s, fragmentLimit: %d, %s)%n",
+                messageCount, TimeUnit.NANOSECONDS.toMillis(intervalEndNanos - intervalStartNanos),
+                messageCount * (double) TimeUnit.SECONDS.toNanos(1L) / (intervalEndNanos - intervalStartNanos),
+                factory.name(), FRAGMENT_LIMIT, RECORD_FORMAT);
+        reportLatencyAndCpu(intervalEndNanos - intervalStartNanos, histogram);
+        firstLapHistogram.add(firstLapRecorder.getIntervalHistogram());
+        if (firstLapHistogram.getTotalCount() != 0)
+        {
+            reportFirstLap(histogram);
+        }
+        try (PrintStream output = new PrintStream(new FileOutputStream(
+                "/tmp/" + factory.name() + "-" + System.currentTimeMillis() + ".hgram", false)))
+        {
+            histogram.outputPercentileDistribution(output, 1d);
+        }
+        catch (FileNotFoundException e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Prints the rate at which each thread handled messages over every {@code ipc.report.intervalMs}, in
+     * messages and payload megabytes per second, next to the share of the interval that the publisher and the
+     * echo spent stalled, waiting for their subscriber to free space in the ring, and the number of stalls.
+     */
+    private void reportThroughputLoop()
+    {
+        Thread.currentThread().setName("throughput");
+        long intervalStartNanos = System.nanoTime();
+        long lastPublished = 0L;
+        long lastEchoed = 0L;
+        long lastReceived = 0L;
+        long lastPublisherStallNanos = 0L;
+        long lastPublisherStallCount = 0L;
+        long lastEchoStallNanos = 0L;
+        long lastEchoStallCount = 0L;
+        int intervalCount = 0;
+        while (!Thread.currentThread().isInterrupted())
+        {
+            LockSupport.parkNanos(REPORT_INTERVAL_NS);
+            final long intervalEndNanos = System.nanoTime();
+            final double intervalNanos = intervalEndNanos - intervalStartNanos;
+            final long published = publishedCount.get();
+            final long echoed = echoedCount.get();
+            final long received = receivedCount.get();
+            final long publisherStallNanos = clientPublisher.publisherStallNanos();
+            final long publisherStallCount = clientPublisher.publisherStallCount();
+            final long echoStallNanos = serverPublisher.publisherStallNanos();
+            final long echoStallCount = serverPublisher.publisherStallCount();
+            System.out.printf("throughput: %s, msgSize: %d, publish: %.0f msg/s (%.1f MB/s), " +
+                            "echo: %.0f msg/s (%.1f MB/s), receive: %.0f msg/s (%.1f MB/s), " +
+                            "stalled publisher: %.1f%% (%d), echo: %.1f%% (%d)%n",
+                    factory.name(), MESSAGE_SIZE,
+                    messagesPerSecond(published - lastPublished, intervalNanos),
+                    megabytesPerSecond(published - lastPublished, intervalNanos),
+                    messagesPerSecond(echoed - lastEchoed, intervalNanos),
+                    megabytesPerSecond(echoed - lastEchoed, intervalNanos),
+                    messagesPerSecond(received - lastReceived, intervalNanos),
+                    megabytesPerSecond(received - lastReceived, intervalNanos),
+                    100d * (publisherStallNanos - lastPublisherStallNanos) / intervalNanos,
+                    publisherStallCount - lastPublisherStallCount,
+                    100d * (echoStallNanos - lastEchoStallNanos) / intervalNanos,
+                    echoStallCount - lastEchoStallCount);
+            intervalStartNanos = intervalEndNanos;
+            lastPublished = published;
+            lastEchoed = echoed;
+            lastReceived = received;
+            lastPublisherStallNanos = publisherStallNanos;
+            lastPublisherStallCount = publisherStallCount;
+            lastEchoStallNanos = echoStallNanos;
+            lastEchoStallCount = echoStallCount;
+            if (++intervalCount == INTERVAL_COUNT)
             {
-                e.printStackTrace();
+                System.exit(0);
             }
-            histogram.reset();
-            messageCount = 0;
         }
     }
+
+    private static double messagesPerSecond(final long messageCount, final double intervalNanos)
+    {
+        return messageCount * TimeUnit.SECONDS.toNanos(1L) / intervalNanos;
+    }
+
+    private static double megabytesPerSecond(final long messageCount, final double intervalNanos)
+    {
+        return messagesPerSecond(messageCount, intervalNanos) * MESSAGE_SIZE / 1_000_000d;
+    }
+
+    /**
+     * Prints round-trip latency next to the share of a CPU used by each polling thread,
+     * so that idle strategies can be compared at a given {@code ipc.pub.delayNs}.
+     */
+    private void reportLatencyAndCpu(final long intervalNanos, final Histogram histogram)
+    {
+        final long echoCpuNanos = threadMXBean.getThreadCpuTime(echoThreadId);
+        final long subscriberCpuNanos = threadMXBean.getThreadCpuTime(subscriberThreadId);
+        System.out.printf("idle: %s/%s, delayNs: %d, load: %s, rtt p50: %dns, p99: %dns, p99.9: %dns, max: %dns, " +
+                        "CPU echo: %.1f%%, subscriber: %.1f%%%n",
+                Util.SUBSCRIBER_IDLE_STRATEGY, Util.PUBLISHER_IDLE_STRATEGY, DELAY_NS, LOAD_SCHEDULE,
+                histogram.getValueAtPercentile(50d), histogram.getValueAtPercentile(99d),
+                histogram.getValueAtPercentile(99.9d), histogram.getMaxValue(),
+                100d * (echoCpuNanos - echoCpuStartNanos) / intervalNanos,
+                100d * (subscriberCpuNanos - subscriberCpuStartNanos) / intervalNanos);
+        echoCpuStartNanos = echoCpuNanos;
+        subscriberCpuStartNanos = subscriberCpuNanos;
+    }
+
+    /**
+     * Prints the latency of messages sent before the publisher first wrapped the ring next to the rest of
+     * the interval, so that the cost of faulting in a lazily mapped ring shows up against the
+     * {@code ipc.map.*} options. The first lap also includes JIT warm-up, so compare runs with and without them.
+     */
+    private void reportFirstLap(final Histogram histogram)
+    {
+        System.out.printf("lap: prefault: %b, lock: %b, hugePages: %b, first lap (%d msgs) p99: %dns, p99.9: %dns, " +
+                        "max: %dns, steady p99: %dns, p99.9: %dns, max: %dns%n",
+                Util.PREFAULT_MAPPINGS, Util.LOCK_MAPPINGS, Util.HUGE_PAGE_MAPPINGS,
+                firstLapHistogram.getTotalCount(), firstLapHistogram.getValueAtPercentile(99d),
+                firstLapHistogram.getValueAtPercentile(99.9d), firstLapHistogram.getMaxValue(),
+                histogram.getValueAtPercentile(99d), histogram.getValueAtPercentile(99.9d), histogram.getMaxValue());
+        firstLapHistogram.reset();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,403 @@
+package com.aitusoftware.messaging.ipc;
+
+import org.agrona.DirectBuffer;
+import org.agrona.UnsafeAccess;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only, on-disk copy of the records a publisher writes to its ring. Records are appended to
+ * fixed-size memory-mapped segment files as an 8-byte length followed by the payload, padded to 8 bytes,
+ * and a length of -1 marks the end of a segment.
+ * <p>
+ * A background thread makes appended data durable according to the {@link FlushPolicy}, and maps the next
+ * segment ahead of the publisher, so that the publisher never forces or maps a file in the steady state.
+ * Segments the publisher has moved on from are closed and unmapped by the same thread.
+ * A journal has a single writer, so each publisher needs its own journal name.
+ * <p>
+ * Existing segments are never modified: a journal opened under a name that already has segments carries on
+ * from the segment after the last of them, so the records of earlier runs survive a restart.
+ */
+public final class Journal implements AutoCloseable
+{
+    public static final String IPC_JOURNAL_DIR = "ipc.journal.dir";
+
+    private static final boolean DEBUG = false;
+    private static final int RECORD_HEADER_LENGTH = 8;
+    private static final int RECORD_ALIGNMENT_MASK = 7;
+    private static final long END_OF_SEGMENT = -1L;
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    public enum FlushPolicy
+    {
+        /** Never force; the operating system writes pages back in its own time. */
+        NONE,
+        /** Force once at least {@code flushThreshold} bytes have been appended since the last force. */
+        BYTES,
+        /** Force pending data once {@code flushThreshold} microseconds have passed since the last force. */
+        MICROS,
+        /** Force as soon as any record is pending. */
+        RECORD
+    }
+
+    public enum ForceMode
+    {
+        /** {@link MappedByteBuffer#force()}, i.e. msync of the segment mapping. */
+        MSYNC,
+        /** {@link FileChannel#force(boolean)}, i.e. fdatasync of the segment file. */
+        FSYNC
+    }
+
+    private final Path directory;
+    private final String name;
+    private final int segmentSize;
+    private final FlushPolicy flushPolicy;
+    private final long flushThreshold;
+    private final ForceMode forceMode;
+    private final Thread flusher;
+    private final AtomicLong appendPosition = new AtomicLong();
+    private final AtomicLong durablePosition = new AtomicLong();
+    private final Queue<Segment> retiredSegments = new ConcurrentLinkedQueue<>();
+    private volatile Segment currentSegment;
+    private volatile Segment nextSegment;
+    private volatile boolean running = true;
+    private volatile Exception flusherFailure;
+
+    // publisher state
+    private Segment segment;
+    private int segmentOffset;
+
+    public Journal(
+            final Path directory, final String name, final int segmentSize,
+            final FlushPolicy flushPolicy, final long flushThreshold, final ForceMode forceMode) throws IOException
+    {
+        if ((segmentSize & RECORD_ALIGNMENT_MASK) != 0 || segmentSize < 2 * RECORD_HEADER_LENGTH)
+        {
+            throw new IllegalArgumentException("Segment size must be a multiple of 8, was " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.flushPolicy = flushPolicy;
+        this.flushThreshold = flushPolicy == FlushPolicy.MICROS ?
+                TimeUnit.MICROSECONDS.toNanos(flushThreshold) : flushThreshold;
+        this.forceMode = forceMode;
+        segment = mapSegment(nextSegmentIndex());
+        currentSegment = segment;
+        appendPosition.set(segment.index * (long) segmentSize);
+        durablePosition.set(segment.index * (long) segmentSize);
+        flusher = new Thread(this::flushLoop, "journal-" + name);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Creates a journal configured by {@code ipc.journal.*} properties, or returns null if
+     * {@value #IPC_JOURNAL_DIR} is not set.
+     */
+    public static Journal fromSystemProperties(final String name) throws IOException
+    {
+        final String directory = System.getProperty(IPC_JOURNAL_DIR);
+        if (directory == null)
+        {
+            return null;
+        }
+        final FlushPolicy flushPolicy = FlushPolicy.valueOf(
+                System.getProperty("ipc.journal.flushPolicy", FlushPolicy.NONE.name()));
+        final long flushThreshold = flushPolicy == FlushPolicy.MICROS ?
+                Long.getLong("ipc.journal.flushMicros", 1000L) : Long.getLong("ipc.journal.flushBytes", 1L << 20);
+        return new Journal(Paths.get(directory), name,
+                Integer.getInteger("ipc.journal.segmentSize", 1 << 27), flushPolicy, flushThreshold,
+                ForceMode.valueOf(System.getProperty("ipc.journal.forceMode", ForceMode.MSYNC.name())));
+    }
+
+    public void append(final DirectBuffer source, final int index, final int length)
+    {
+        final int recordOffset = reserve(length);
+        segment.buffer.putBytes(recordOffset + RECORD_HEADER_LENGTH, source, index, length);
+        commit(recordOffset, length);
+    }
+
+    public void append(final ByteBuffer source, final int index, final int length)
+    {
+        final int recordOffset = reserve(length);
+        segment.buffer.putBytes(recordOffset + RECORD_HEADER_LENGTH, source, index, length);
+        commit(recordOffset, length);
+    }
+
+    /**
+     * @return the journal position up to which records have been appended
+     */
+    public long appendPosition()
+    {
+        return appendPosition.get();
+    }
+
+    /**
+     * @return the journal position up to which records have been forced to disk
+     */
+    public long durablePosition()
+    {
+        return durablePosition.get();
+    }
+
+    public FlushPolicy flushPolicy()
+    {
+        return flushPolicy;
+    }
+
+    public ForceMode forceMode()
+    {
+        return forceMode;
+    }
+
+    /**
+     * Stops the flusher, forcing outstanding data unless the policy is {@link FlushPolicy#NONE}, and closes the
+     * segment files.
+     *
+     * @throws IllegalStateException if the flusher had failed, with its failure as the cause
+     */
+    @Override
+    public void close() throws Exception
+    {
+        running = false;
+        flusher.join();
+        retiredSegments.add(segment);
+        final Segment unused = nextSegment;
+        if (unused != null)
+        {
+            // never written, so it is removed rather than left as an empty segment between runs
+            unused.channel.close();
+            UnsafeAccess.UNSAFE.invokeCleaner(unused.mappedBuffer);
+            Files.delete(segmentPath(unused.index));
+        }
+        for (Segment retired = retiredSegments.poll(); retired != null; retired = retiredSegments.poll())
+        {
+            retired.channel.close();
+        }
+        if (flusherFailure != null)
+        {
+            throw new IllegalStateException("Journal flusher failed: " + name, flusherFailure);
+        }
+    }
+
+    private int reserve(final int length)
+    {
+        final int recordLength = (length + RECORD_HEADER_LENGTH + RECORD_ALIGNMENT_MASK) & ~RECORD_ALIGNMENT_MASK;
+        if (recordLength + RECORD_HEADER_LENGTH > segmentSize)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Record of %db does not fit in a journal segment of %db", length, segmentSize));
+        }
+        if (segmentOffset + recordLength + RECORD_HEADER_LENGTH > segmentSize)
+        {
+            roll();
+        }
+        return segmentOffset;
+    }
+
+    private void commit(final int recordOffset, final int length)
+    {
+        segment.buffer.putLong(recordOffset, length);
+        segmentOffset += (length + RECORD_HEADER_LENGTH + RECORD_ALIGNMENT_MASK) & ~RECORD_ALIGNMENT_MASK;
+        appendPosition.lazySet(segment.index * (long) segmentSize + segmentOffset);
+    }
+
+    /**
+     * Moves on to the segment mapped ahead by the flusher, only waiting if the flusher has fallen behind.
+     */
+    private void roll()
+    {
+        segment.buffer.putLong(segmentOffset, END_OF_SEGMENT);
+        Segment next;
+        while ((next = nextSegment) == null)
+        {
+            if (!flusher.isAlive())
+            {
+                throw new IllegalStateException("Journal flusher has stopped: " + name, flusherFailure);
+            }
+            Thread.onSpinWait();
+        }
+        if (DEBUG)
+        {
+            System.out.printf("%s %s rolling to segment %d%n", name, Thread.currentThread().getName(), next.index);
+        }
+        // retire before switching, so that a flush that sees the new segment also finds the old one
+        retiredSegments.add(segment);
+        segment = next;
+        segmentOffset = 0;
+        currentSegment = next;
+        // cleared only after the switch, so the flusher always maps the segment after the current one
+        nextSegment = null;
+        appendPosition.lazySet(next.index * (long) segmentSize);
+    }
+
+    private void flushLoop()
+    {
+        final IdleStrategy idleStrategy =
+                Util.newIdleStrategy(System.getProperty("ipc.journal.idleStrategy", Util.IDLE_BACKOFF));
+        long lastFlushNanos = System.nanoTime();
+        try
+        {
+            while (running)
+            {
+                int workCount = prepareNextSegment() + releaseRetiredSegments();
+                final long appended = appendPosition.get();
+                final long nowNanos = System.nanoTime();
+                if (appended > durablePosition.get() && shouldFlush(appended, nowNanos - lastFlushNanos))
+                {
+                    flush(appended);
+                    lastFlushNanos = nowNanos;
+                    workCount++;
+                }
+                idleStrategy.idle(workCount);
+            }
+            if (flushPolicy != FlushPolicy.NONE)
+            {
+                flush(appendPosition.get());
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // reported to the publisher by the next roll, and by close
+            flusherFailure = e;
+        }
+    }
+
+    private boolean shouldFlush(final long appended, final long nanosSinceFlush)
+    {
+        switch (flushPolicy)
+        {
+            case RECORD:
+                return true;
+            case BYTES:
+                return appended - durablePosition.get() >= flushThreshold;
+            case MICROS:
+                return nanosSinceFlush >= flushThreshold;
+            default:
+                return false;
+        }
+    }
+
+    private void flush(final long appended) throws IOException
+    {
+        // read after the append position, so this is the segment holding it or a later one
+        final Segment current = currentSegment;
+        force(current);
+        releaseRetiredSegments();
+        durablePosition.lazySet(appended);
+        if (DEBUG)
+        {
+            System.out.printf("%s %s forced journal to %d%n", name, Thread.currentThread().getName(), appended);
+        }
+    }
+
+    /**
+     * Closes and unmaps the segments the publisher has rolled past, forcing each first unless the policy is
+     * {@link FlushPolicy#NONE}, so that a long run holds no more than a few segments open whatever the policy.
+     */
+    private int releaseRetiredSegments() throws IOException
+    {
+        int released = 0;
+        for (Segment retired = retiredSegments.poll(); retired != null; retired = retiredSegments.poll())
+        {
+            if (flushPolicy != FlushPolicy.NONE)
+            {
+                force(retired);
+            }
+            retired.channel.close();
+            UnsafeAccess.UNSAFE.invokeCleaner(retired.mappedBuffer);
+            released++;
+        }
+        return released;
+    }
+
+    private void force(final Segment segment) throws IOException
+    {
+        if (forceMode == ForceMode.MSYNC)
+        {
+            segment.mappedBuffer.force();
+        }
+        else
+        {
+            segment.channel.force(false);
+        }
+    }
+
+    private int prepareNextSegment() throws IOException
+    {
+        if (nextSegment == null)
+        {
+            nextSegment = mapSegment(currentSegment.index + 1);
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * @throws java.nio.file.FileAlreadyExistsException if the segment exists, which is never overwritten
+     */
+    private Segment mapSegment(final int index) throws IOException
+    {
+        final FileChannel channel = FileChannel.open(segmentPath(index), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(index, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0L, segmentSize));
+    }
+
+    private Path segmentPath(final int index)
+    {
+        return directory.resolve(name + "-" + index + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return the index after the highest existing segment of this journal, or zero if it has none
+     */
+    private int nextSegmentIndex() throws IOException
+    {
+        final String prefix = name + "-";
+        int nextIndex = 0;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, prefix + "*" + SEGMENT_SUFFIX))
+        {
+            for (Path path : segments)
+            {
+                final String fileName = path.getFileName().toString();
+                final String index = fileName.substring(prefix.length(), fileName.length() - SEGMENT_SUFFIX.length());
+                if (!index.isEmpty() && index.chars().allMatch(Character::isDigit))
+                {
+                    nextIndex = Math.max(nextIndex, Integer.parseInt(index) + 1);
+                }
+            }
+        }
+        return nextIndex;
+    }
+
+    private static final class Segment
+    {
+        private final int index;
+        private final FileChannel channel;
+        private final MappedByteBuffer mappedBuffer;
+        private final UnsafeBuffer buffer;
+
+        Segment(final int index, final FileChannel channel, final MappedByteBuffer mappedBuffer)
+        {
+            this.index = index;
+            this.channel = channel;
+            this.mappedBuffer = mappedBuffer;
+            this.buffer = new UnsafeBuffer(mappedBuffer);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.aitusoftware.messaging.ipc;
+
+import org.HdrHistogram.Histogram;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Measures the cost a {@link Journal} adds to the publisher: one thread times each
+ * {@link UnsafeBufferTransport#writeRecord(UnsafeBuffer)} into a journalled ring while another drains it,
+ * and every interval reports publish latency, throughput and how far the durable position lags the appended one.
+ * <p>
+ * The journal is configured by the {@code ipc.journal.*} properties, and should be on local disk. Each run
+ * appends new segments after those of earlier runs, which are kept.
+ */
+public final class JournalHarness
+{
+    private static final int MESSAGE_COUNT = Integer.getInteger("ipc.msgCount", 1 << 20);
+    private static final long MAX_VALUE = TimeUnit.MILLISECONDS.toNanos(100L);
+    private static final int BUFFER_SIZE = Integer.getInteger("ipc.bufferSize", 1 << 20);
+    private static final int MESSAGE_SIZE = Integer.getInteger("ipc.msgSize", 256);
+    private static final long DELAY_NS = Long.getLong("ipc.pub.delayNs", 0);
+    private static final boolean SHOULD_DELAY = DELAY_NS != 0;
+    private static final RecordFormat RECORD_FORMAT = RecordFormat.fromSystemProperties();
+    private static final int INTERVAL_COUNT = Integer.getInteger("ipc.intervals", 0);
+    private static final String DEFAULT_JOURNAL_DIR = "/var/tmp/ipc-journal";
+
+    private final UnsafeBufferTransport publisher;
+    private final UnsafeBufferTransport subscriber;
+    private final Journal journal;
+    private final RolePlacement placement;
+    private final UnsafeBuffer message;
+    private final Histogram histogram = new Histogram(MAX_VALUE, 3);
+    private final Consumer<UnsafeBuffer> receiveMessage = message -> {};
+
+    public static void main(String[] args) throws Exception
+    {
+        final RolePlacement placement =
+                RolePlacement.placeOrExit(RolePlacement.Role.PUBLISHER, RolePlacement.Role.SUBSCRIBER);
+        if (System.getProperty(Journal.IPC_JOURNAL_DIR) == null)
+        {
+            System.setProperty(Journal.IPC_JOURNAL_DIR, DEFAULT_JOURNAL_DIR);
+        }
+        try (Journal journal = Journal.fromSystemProperties("harness"))
+        {
+            new JournalHarness(Paths.get("/dev/shm/ipc-journal"), journal, MESSAGE_SIZE, placement).run();
+        }
+    }
+
+    public JournalHarness(Path ipcFile, Journal journal, int messageSize, RolePlacement placement) throws IOException
+    {
+        this.placement = placement;
+        if (Files.exists(ipcFile))
+        {
+            Files.delete(ipcFile);
+        }
+        ByteBuffer message = ByteBuffer.allocateDirect(messageSize);
+        for (int i = 0; i < messageSize; i++)
+        {
+            message.put(i, (byte) 7);
+        }
+        this.message = new UnsafeBuffer(message);
+        this.journal = journal;
+        publisher = new UnsafeBufferTransport(ipcFile, BUFFER_SIZE, RECORD_FORMAT, journal);
+        subscriber = new UnsafeBufferTransport(ipcFile, BUFFER_SIZE, RECORD_FORMAT);
+    }
+
+    private void run() throws InterruptedException
+    {
+        final Thread drainer = new Thread(this::receiveLoop, "subscriber");
+        drainer.setDaemon(true);
+        drainer.start();
+        Thread.currentThread().setName("harness");
+        placement.bind(RolePlacement.Role.PUBLISHER);
+        int intervalCount = 0;
+        while (INTERVAL_COUNT == 0 || intervalCount++ < INTERVAL_COUNT)
+        {
+            final long intervalStartNanos = System.nanoTime();
+            for (int i = 0; i < MESSAGE_COUNT; i++)
+            {
+                message.putLong(0, i);
+                final long publishNanos = System.nanoTime();
+                publisher.writeRecord(message);
+                histogram.recordValue(Math.min(MAX_VALUE, System.nanoTime() - publishNanos));
+
+                if (SHOULD_DELAY)
+                {
+                    final long waitUntil = publishNanos + DELAY_NS;
+                    while (System.nanoTime() < waitUntil)
+                    {
+                        // spin
+                    }
+                }
+            }
+            report(System.nanoTime() - intervalStartNanos);
+            histogram.reset();
+        }
+        drainer.interrupt();
+        drainer.join();
+    }
+
+    private void receiveLoop()
+    {
+        placement.bind(RolePlacement.Role.SUBSCRIBER);
+        final IdleStrategy idleStrategy = Util.newIdleStrategy(Util.SUBSCRIBER_IDLE_STRATEGY);
+        while (!Thread.currentThread().isInterrupted())
+        {
+            idleStrategy.idle(subscriber.poll(receiveMessage));
+        }
+    }
+
+    private void report(final long intervalNanos)
+    {
+        final double seconds = intervalNanos / (double) TimeUnit.SECONDS.toNanos(1L);
+        System.out.printf("journal: %s/%s, delayNs: %d, publish p50: %dns, p99: %dns, p99.9: %dns, max: %dns, " +
+                        "%.0f msg/s, %.1f MB/s, durable lag: %db%n",
+                journal.flushPolicy(), journal.forceMode(),
+                DELAY_NS, histogram.getValueAtPercentile(50d), histogram.getValueAtPercentile(99d),
+                histogram.getValueAtPercentile(99.9d), histogram.getMaxValue(),
+                MESSAGE_COUNT / seconds, MESSAGE_COUNT * (double) MESSAGE_SIZE / seconds / (1 << 20),
+                journal.appendPosition() - journal.durablePosition());
+    }
+}
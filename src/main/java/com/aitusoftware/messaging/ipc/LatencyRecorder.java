@@ -0,0 +1,230 @@
+package com.aitusoftware.messaging.ipc;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records latencies from a single thread into a double-buffered {@link Recorder}, and leaves everything else to
+ * a reporter thread: every {@code ipc.report.intervalMs} it writes a timestamped interval histogram to a
+ * {@link HistogramLogWriter} log, and once every {@code messagesPerReport} recorded values it hands the
+ * histogram since the previous report to a {@link ReportHandler}. {@link #close()} prints a summary of the
+ * whole run.
+ * <p>
+ * The recording thread never prints or writes files. Reports are triggered within about a millisecond of
+ * the count being reached, so each holds slightly more than {@code messagesPerReport} values.
+ * <p>
+ * With a {@code maxValue} of {@link #AUTO_RESIZE}, the histograms grow to hold the largest value recorded, for
+ * open-loop runs whose latencies keep growing once the receiver falls behind the schedule.
+ */
+final class LatencyRecorder implements AutoCloseable
+{
+    private static final boolean DEBUG = false;
+    private static final long LOG_INTERVAL_NS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("ipc.report.intervalMs", 1000L));
+    private static final long POLL_INTERVAL_NS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    static final long AUTO_RESIZE = 0L;
+
+    interface ReportHandler
+    {
+        /**
+         * Called on the reporter thread.
+         *
+         * @param messageCount number of values in {@code histogram}
+         * @param histogram    values recorded since the previous report, only valid during the call
+         */
+        void onReport(long messageCount, long startNanos, long endNanos, Histogram histogram);
+    }
+
+    private final Recorder recorder;
+    private final AtomicLong recordedCount = new AtomicLong();
+    private final long messagesPerReport;
+    private final ReportHandler handler;
+    private final File logFile;
+    private final PrintStream logOutput;
+    private final HistogramLogWriter logWriter;
+    private final Histogram reportHistogram;
+    private final Histogram runHistogram;
+    private final Thread reporter;
+    private volatile boolean running = true;
+    private boolean closed;
+
+    // recorder state
+    private long count;
+
+    // reporter state
+    private Histogram intervalHistogram;
+    private long nextLogNanos;
+    private long nextReportCount;
+    private long reportStartCount;
+    private long reportStartNanos;
+
+    LatencyRecorder(
+            final long maxValue, final File logFile, final long messagesPerReport, final ReportHandler handler)
+            throws FileNotFoundException
+    {
+        this.recorder = newRecorder(maxValue);
+        this.reportHistogram = newHistogram(maxValue);
+        this.runHistogram = newHistogram(maxValue);
+        this.messagesPerReport = messagesPerReport;
+        this.handler = handler;
+        this.logFile = logFile;
+        this.logOutput = new PrintStream(new FileOutputStream(logFile, false));
+        this.logWriter = new HistogramLogWriter(logOutput);
+        logWriter.outputLogFormatVersion();
+        logWriter.outputStartTime(System.currentTimeMillis());
+        logWriter.outputLegend();
+        this.reporter = new Thread(this::reportLoop, "reporter");
+        reporter.setDaemon(true);
+    }
+
+    static Recorder newRecorder(final long maxValue)
+    {
+        return maxValue == AUTO_RESIZE ? new Recorder(3) : new Recorder(maxValue, 3);
+    }
+
+    static Histogram newHistogram(final long maxValue)
+    {
+        return maxValue == AUTO_RESIZE ? new Histogram(3) : new Histogram(maxValue, 3);
+    }
+
+    /**
+     * @return {@code value}, limited to {@code maxValue} unless that is {@link #AUTO_RESIZE}
+     */
+    static long clamp(final long maxValue, final long value)
+    {
+        return maxValue == AUTO_RESIZE ? value : Math.min(maxValue, value);
+    }
+
+    /**
+     * Starts the reporter thread, and the first report interval.
+     */
+    void start()
+    {
+        reportStartNanos = System.nanoTime();
+        nextLogNanos = reportStartNanos + LOG_INTERVAL_NS;
+        nextReportCount = messagesPerReport;
+        intervalHistogram = recorder.getIntervalHistogram();
+        reporter.start();
+    }
+
+    void recordValue(final long value)
+    {
+        recorder.recordValue(value);
+        recordedCount.lazySet(++count);
+    }
+
+    void recordValueWithExpectedInterval(final long value, final long expectedIntervalBetweenValueSamples)
+    {
+        recorder.recordValueWithExpectedInterval(value, expectedIntervalBetweenValueSamples);
+        recordedCount.lazySet(++count);
+    }
+
+    /**
+     * Counts a value that was recorded elsewhere towards the next report.
+     */
+    void countValue()
+    {
+        recordedCount.lazySet(++count);
+    }
+
+    /**
+     * @return number of values recorded, as last published by the recording thread
+     */
+    long recordedCount()
+    {
+        return recordedCount.get();
+    }
+
+    /**
+     * Stops the reporter, logs and reports the values recorded since it last ran, and prints a summary of
+     * the run. Later calls do nothing.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        if (Thread.currentThread() != reporter)
+        {
+            try
+            {
+                reporter.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            // nothing was recorded unless the recorder was started
+            if (intervalHistogram != null)
+            {
+                report(true);
+                System.out.printf("summary: %d msgs, p50: %dns, p99: %dns, p99.9: %dns, p99.99: %dns, max: %dns, " +
+                                "log: %s%n",
+                        runHistogram.getTotalCount(), runHistogram.getValueAtPercentile(50d),
+                        runHistogram.getValueAtPercentile(99d), runHistogram.getValueAtPercentile(99.9d),
+                        runHistogram.getValueAtPercentile(99.99d), runHistogram.getMaxValue(), logFile);
+            }
+            logOutput.close();
+        }
+    }
+
+    private void reportLoop()
+    {
+        while (running)
+        {
+            LockSupport.parkNanos(POLL_INTERVAL_NS);
+            synchronized (this)
+            {
+                if (closed)
+                {
+                    return;
+                }
+                report(false);
+            }
+        }
+    }
+
+    private void report(final boolean force)
+    {
+        final long recorded = recordedCount.get();
+        final long nowNanos = System.nanoTime();
+        final boolean reportDue = recorded >= nextReportCount || (force && recorded != reportStartCount);
+        if (force || reportDue || nowNanos >= nextLogNanos)
+        {
+            intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+            logWriter.outputIntervalHistogram(intervalHistogram);
+            reportHistogram.add(intervalHistogram);
+            runHistogram.add(intervalHistogram);
+            nextLogNanos = nowNanos + LOG_INTERVAL_NS;
+            if (DEBUG)
+            {
+                System.out.printf("Logged %d values%n", intervalHistogram.getTotalCount());
+            }
+        }
+        if (reportDue)
+        {
+            handler.onReport(recorded - reportStartCount, reportStartNanos, nowNanos, reportHistogram);
+            reportHistogram.reset();
+            reportStartCount = recorded;
+            reportStartNanos = nowNanos;
+            nextReportCount = (recorded / messagesPerReport + 1) * messagesPerReport;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.aitusoftware.messaging.ipc;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open-loop send times for a publisher. Each call to {@link #nextSendOffsetNanos()} returns when the next
+ * message is intended to be sent, relative to the start of the schedule, whether or not the previous sends
+ * happened on time. A publisher that stamps messages with the intended time, and sends immediately when it is
+ * already late, then measures latency including the time a message spent waiting to be sent, without any
+ * coordinated-omission correction at the receiver.
+ * <ul>
+ *     <li>{@link Profile#CONSTANT} sends evenly spaced at {@code rate} messages per second</li>
+ *     <li>{@link Profile#POISSON} sends with exponentially distributed gaps, at a mean of {@code rate}</li>
+ *     <li>{@link Profile#BURST} sends {@code burstSize} messages at once, every {@code burstPeriodNs}</li>
+ *     <li>{@link Profile#STEP} sends evenly spaced at each of {@code rates} in turn, for {@code stepNs} each,
+ *     and then stays at the last rate</li>
+ *     <li>{@link Profile#RAMP} sends evenly spaced at a rate that rises (or falls) linearly from {@code rate} to
+ *     {@code endRate} over {@code rampNs}, and then stays at {@code endRate}</li>
+ * </ul>
+ * A schedule is used by a single publisher thread.
+ */
+public final class LoadSchedule
+{
+    public static final String IPC_LOAD_PROFILE = "ipc.load.profile";
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1L);
+
+    public enum Profile
+    {
+        CONSTANT,
+        POISSON,
+        BURST,
+        STEP,
+        RAMP
+    }
+
+    private final Profile profile;
+    private final double[] rates;
+    private final double endRate;
+    private final long periodNs;
+    private final int burstSize;
+    private final long seed;
+    private SplittableRandom random;
+    private double nextOffsetNanos;
+    private long sentCount;
+
+    private LoadSchedule(
+            final Profile profile, final double[] rates, final double endRate,
+            final long periodNs, final int burstSize, final long seed)
+    {
+        for (double rate : rates)
+        {
+            if (!(rate > 0d))
+            {
+                throw new IllegalArgumentException("Rates must be positive, were " + Arrays.toString(rates));
+            }
+        }
+        if (profile == Profile.RAMP && !(endRate > 0d))
+        {
+            throw new IllegalArgumentException("End rate must be positive, was " + endRate);
+        }
+        if (periodNs <= 0L || burstSize <= 0)
+        {
+            throw new IllegalArgumentException("Period and burst size must be positive");
+        }
+        this.profile = profile;
+        this.rates = rates;
+        this.endRate = endRate;
+        this.periodNs = periodNs;
+        this.burstSize = burstSize;
+        this.seed = seed;
+        reset();
+    }
+
+    public static LoadSchedule constant(final double rate)
+    {
+        return new LoadSchedule(Profile.CONSTANT, new double[] {rate}, rate, 1L, 1, 0L);
+    }
+
+    public static LoadSchedule poisson(final double rate, final long seed)
+    {
+        return new LoadSchedule(Profile.POISSON, new double[] {rate}, rate, 1L, 1, seed);
+    }
+
+    public static LoadSchedule burst(final int burstSize, final long burstPeriodNs)
+    {
+        return new LoadSchedule(Profile.BURST, new double[] {1d}, 1d, burstPeriodNs, burstSize, 0L);
+    }
+
+    public static LoadSchedule step(final long stepNs, final double... rates)
+    {
+        if (rates.length == 0)
+        {
+            throw new IllegalArgumentException("A step profile needs at least one rate");
+        }
+        return new LoadSchedule(Profile.STEP, rates.clone(), rates[rates.length - 1], stepNs, 1, 0L);
+    }
+
+    public static LoadSchedule ramp(final double startRate, final double endRate, final long rampNs)
+    {
+        return new LoadSchedule(Profile.RAMP, new double[] {startRate}, endRate, rampNs, 1, 0L);
+    }
+
+    /**
+     * @return the schedule described by {@value #IPC_LOAD_PROFILE} (one of {@code constant}, {@code poisson},
+     * {@code burst}, {@code step} or {@code ramp}), {@code ipc.load.rate}, {@code ipc.load.rates},
+     * {@code ipc.load.endRate}, {@code ipc.load.stepNs}, {@code ipc.load.rampNs}, {@code ipc.load.burstSize},
+     * {@code ipc.load.burstPeriodNs} and {@code ipc.load.seed}, or null if no profile is set
+     */
+    public static LoadSchedule fromSystemProperties()
+    {
+        final String profile = System.getProperty(IPC_LOAD_PROFILE);
+        if (profile == null)
+        {
+            return null;
+        }
+        final double rate = Double.parseDouble(System.getProperty("ipc.load.rate", "100000"));
+        final long periodNs = TimeUnit.SECONDS.toNanos(1L);
+        switch (Profile.valueOf(profile.toUpperCase()))
+        {
+            case CONSTANT:
+                return constant(rate);
+            case POISSON:
+                return poisson(rate, Long.getLong("ipc.load.seed", System.nanoTime()));
+            case BURST:
+                return burst(Integer.getInteger("ipc.load.burstSize", 100),
+                        Long.getLong("ipc.load.burstPeriodNs", TimeUnit.MILLISECONDS.toNanos(1L)));
+            case STEP:
+                return step(Long.getLong("ipc.load.stepNs", periodNs),
+                        Arrays.stream(System.getProperty("ipc.load.rates", String.valueOf(rate)).split(","))
+                                .mapToDouble(s -> Double.parseDouble(s.trim())).toArray());
+            case RAMP:
+                return ramp(rate, Double.parseDouble(System.getProperty("ipc.load.endRate", String.valueOf(rate))),
+                        Long.getLong("ipc.load.rampNs", periodNs));
+            default:
+                throw new IllegalArgumentException("Unknown load profile: " + profile);
+        }
+    }
+
+    /**
+     * Restarts the schedule from an offset of zero, e.g. after a pause between measurement intervals.
+     * A Poisson schedule repeats the same gaps after each reset.
+     */
+    public void reset()
+    {
+        nextOffsetNanos = 0d;
+        sentCount = 0L;
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * @return the intended send time of the next message, in nanoseconds from the start of the schedule
+     */
+    public long nextSendOffsetNanos()
+    {
+        final long offsetNanos = (long) nextOffsetNanos;
+        switch (profile)
+        {
+            case CONSTANT:
+                nextOffsetNanos += NANOS_PER_SECOND / rates[0];
+                break;
+            case POISSON:
+                nextOffsetNanos += -Math.log(1d - random.nextDouble()) * NANOS_PER_SECOND / rates[0];
+                break;
+            case BURST:
+                nextOffsetNanos = (double) ((sentCount + 1) / burstSize) * periodNs;
+                break;
+            case STEP:
+                nextOffsetNanos += NANOS_PER_SECOND / rates[(int) Math.min(offsetNanos / periodNs, rates.length - 1)];
+                break;
+            case RAMP:
+                final double progress = Math.min(1d, nextOffsetNanos / periodNs);
+                nextOffsetNanos += NANOS_PER_SECOND / (rates[0] + (endRate - rates[0]) * progress);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+        sentCount++;
+        return offsetNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        switch (profile)
+        {
+            case BURST:
+                return "burst{" + burstSize + " every " + periodNs + "ns}";
+            case STEP:
+                return "step{" + Arrays.toString(rates) + "/s for " + periodNs + "ns each}";
+            case RAMP:
+                return "ramp{" + rates[0] + "/s to " + endRate + "/s over " + periodNs + "ns}";
+            default:
+                return profile.name().toLowerCase() + "{" + rates[0] + "/s}";
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.aitusoftware.messaging.ipc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives messages polled from a ring as a range of a view over the whole ring, so that handing over a
+ * message never changes the position or limit of a buffer.
+ */
+@FunctionalInterface
+public interface MessageHandler
+{
+    /**
+     * @param buffer view over the ring, only valid during the call, which must be read with absolute gets and
+     *               left with its position and limit unchanged
+     * @param offset of the message payload in {@code buffer}
+     * @param length of the message payload
+     */
+    void onMessage(ByteBuffer buffer, int offset, int length);
+}
@@ -0,0 +1,291 @@
+package com.aitusoftware.messaging.ipc;
+
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs several publisher threads, each with its own transport instance, against a single subscriber, and
+ * checks that every record arrives exactly once, in per-publisher order, with its payload intact.
+ * Publishers cycle through writeRecord, tryWriteRecord and tryClaim (including aborted claims).
+ * The first failure of a publisher or of the check ends the run with a non-zero exit status.
+ */
+public final class MultiProducerStressHarness
+{
+    private static final int PRODUCER_COUNT = Integer.getInteger("ipc.stress.producers", 4);
+    private static final int MESSAGE_COUNT = Integer.getInteger("ipc.msgCount", 1 << 20);
+    private static final int BUFFER_SIZE = Integer.getInteger("ipc.bufferSize", 1 << 16);
+    private static final int MAX_MESSAGE_SIZE = Integer.getInteger("ipc.msgSize", 256);
+    private static final boolean USE_UNSAFE = !"varhandle".equals(System.getProperty("ipc.stress.transport"));
+    private static final RecordFormat RECORD_FORMAT = RecordFormat.fromSystemProperties();
+    private static final int PRODUCER_ID_OFFSET = 0;
+    private static final int SEQUENCE_OFFSET = 8;
+    private static final int MIN_MESSAGE_SIZE = 16;
+
+    private final Path path;
+    private final long[] nextSequenceByProducer = new long[PRODUCER_COUNT];
+    private final AtomicReference<Throwable> producerFailure = new AtomicReference<>();
+    private long receivedCount;
+
+    public static void main(String[] args) throws Exception
+    {
+        try
+        {
+            new MultiProducerStressHarness(Paths.get("/dev/shm/ipc-stress")).run();
+        }
+        catch (Throwable t)
+        {
+            // the remaining publishers may be waiting on a subscriber that has stopped, so never join them
+            t.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    public MultiProducerStressHarness(Path path) throws IOException
+    {
+        if (Files.exists(path))
+        {
+            Files.delete(path);
+        }
+        this.path = path;
+    }
+
+    private void run() throws Exception
+    {
+        final Thread[] producers = new Thread[PRODUCER_COUNT];
+        for (int i = 0; i < PRODUCER_COUNT; i++)
+        {
+            final int producerId = i;
+            producers[i] = new Thread(() -> produce(producerId), "producer-" + i);
+        }
+
+        final long totalCount = (long) MESSAGE_COUNT * PRODUCER_COUNT;
+        final long startNanos = System.nanoTime();
+        if (USE_UNSAFE)
+        {
+            try (UnsafeBufferTransport subscriber = new UnsafeBufferTransport(path, BUFFER_SIZE, RECORD_FORMAT))
+            {
+                startAll(producers);
+                final Consumer<UnsafeBuffer> receiver =
+                        message -> verify(message.byteBuffer(), message.wrapAdjustment(), message.capacity());
+                while (receivedCount < totalCount && producerFailure.get() == null)
+                {
+                    subscriber.poll(receiver, 16);
+                }
+            }
+        }
+        else
+        {
+            try (OffHeapByteBufferTransport subscriber =
+                    new OffHeapByteBufferTransport(path, BUFFER_SIZE, RECORD_FORMAT))
+            {
+                startAll(producers);
+                final Consumer<ByteBuffer> receiver =
+                        message -> verify(message, message.position(), message.remaining());
+                while (receivedCount < totalCount && producerFailure.get() == null)
+                {
+                    subscriber.poll(receiver, 16);
+                }
+            }
+        }
+        final long durationNanos = System.nanoTime() - startNanos;
+        if (producerFailure.get() != null)
+        {
+            throw new IllegalStateException(String.format("Producer failed after %d messages were received",
+                    receivedCount), producerFailure.get());
+        }
+
+        for (Thread producer : producers)
+        {
+            producer.join();
+        }
+        System.out.printf("Received %d messages from %d producers exactly once in %dms (%.0f msg/s, %s)%n",
+                receivedCount, PRODUCER_COUNT, TimeUnit.NANOSECONDS.toMillis(durationNanos),
+                receivedCount * (double) TimeUnit.SECONDS.toNanos(1L) / durationNanos, RECORD_FORMAT);
+    }
+
+    private void verify(final ByteBuffer buffer, final int offset, final int length)
+    {
+        final int producerId = buffer.getInt(offset + PRODUCER_ID_OFFSET);
+        final long sequence = buffer.getLong(offset + SEQUENCE_OFFSET);
+        if (producerId < 0 || producerId >= PRODUCER_COUNT)
+        {
+            throw new IllegalStateException(String.format("Unknown producer %d at message %d",
+                    producerId, receivedCount));
+        }
+        if (sequence != nextSequenceByProducer[producerId])
+        {
+            throw new IllegalStateException(String.format("Producer %d: expected sequence %d, received %d",
+                    producerId, nextSequenceByProducer[producerId], sequence));
+        }
+        if (length != messageSize(sequence))
+        {
+            throw new IllegalStateException(String.format("Producer %d sequence %d: expected %db, received %db",
+                    producerId, sequence, messageSize(sequence), length));
+        }
+        for (int i = SEQUENCE_OFFSET + 8; i < length; i++)
+        {
+            if (buffer.get(offset + i) != (byte) sequence)
+            {
+                throw new IllegalStateException(String.format("Producer %d sequence %d: corrupt payload at %d",
+                        producerId, sequence, i));
+            }
+        }
+        nextSequenceByProducer[producerId]++;
+        receivedCount++;
+    }
+
+    private void produce(final int producerId)
+    {
+        try
+        {
+            if (USE_UNSAFE)
+            {
+                produceUnsafe(producerId);
+            }
+            else
+            {
+                produceVarHandle(producerId);
+            }
+        }
+        catch (Throwable t)
+        {
+            producerFailure.compareAndSet(null, t);
+        }
+    }
+
+    private void produceUnsafe(final int producerId) throws Exception
+    {
+        final UnsafeBuffer message = new UnsafeBuffer(ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE));
+        final UnsafeBuffer view = new UnsafeBuffer();
+        final BufferClaim bufferClaim = new BufferClaim();
+        try (UnsafeBufferTransport publisher = new UnsafeBufferTransport(path, BUFFER_SIZE, RECORD_FORMAT))
+        {
+            for (long sequence = 0; sequence < MESSAGE_COUNT; sequence++)
+            {
+                final int messageSize = messageSize(sequence);
+                switch ((int) (sequence % 4))
+                {
+                    case 0:
+                        view.wrap(message, 0, messageSize);
+                        encode(view, producerId, sequence);
+                        publisher.writeRecord(view);
+                        break;
+                    case 1:
+                        view.wrap(message, 0, messageSize);
+                        encode(view, producerId, sequence);
+                        while (publisher.tryWriteRecord(view) == UnsafeBufferTransport.BACK_PRESSURED)
+                        {
+                            Thread.yield();
+                        }
+                        break;
+                    default:
+                        boolean abort = sequence % 4 == 3;
+                        do
+                        {
+                            while (publisher.tryClaim(messageSize, bufferClaim) == UnsafeBufferTransport.BACK_PRESSURED)
+                            {
+                                Thread.yield();
+                            }
+                            encode(bufferClaim.buffer(), producerId, sequence);
+                            if (abort)
+                            {
+                                abort = false;
+                                bufferClaim.abort();
+                                continue;
+                            }
+                            bufferClaim.commit();
+                            break;
+                        }
+                        while (true);
+                }
+            }
+        }
+    }
+
+    private void produceVarHandle(final int producerId) throws IOException
+    {
+        final ByteBuffer message = ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE);
+        final ByteBufferClaim bufferClaim = new ByteBufferClaim();
+        try (OffHeapByteBufferTransport publisher = new OffHeapByteBufferTransport(path, BUFFER_SIZE, RECORD_FORMAT))
+        {
+            for (long sequence = 0; sequence < MESSAGE_COUNT; sequence++)
+            {
+                final int messageSize = messageSize(sequence);
+                switch ((int) (sequence % 4))
+                {
+                    case 0:
+                        message.clear().limit(messageSize);
+                        encode(message, 0, producerId, sequence);
+                        publisher.writeRecord(message);
+                        break;
+                    case 1:
+                        message.clear().limit(messageSize);
+                        encode(message, 0, producerId, sequence);
+                        while (publisher.tryWriteRecord(message) == OffHeapByteBufferTransport.BACK_PRESSURED)
+                        {
+                            Thread.yield();
+                        }
+                        break;
+                    default:
+                        boolean abort = sequence % 4 == 3;
+                        do
+                        {
+                            while (publisher.tryClaim(messageSize, bufferClaim) ==
+                                    OffHeapByteBufferTransport.BACK_PRESSURED)
+                            {
+                                Thread.yield();
+                            }
+                            final ByteBuffer buffer = bufferClaim.buffer();
+                            encode(buffer, buffer.position(), producerId, sequence);
+                            if (abort)
+                            {
+                                abort = false;
+                                bufferClaim.abort();
+                                continue;
+                            }
+                            bufferClaim.commit();
+                            break;
+                        }
+                        while (true);
+                }
+            }
+        }
+    }
+
+    private static void encode(final UnsafeBuffer buffer, final int producerId, final long sequence)
+    {
+        encode(buffer.byteBuffer(), buffer.wrapAdjustment(), producerId, sequence);
+    }
+
+    private static void encode(final ByteBuffer buffer, final int offset, final int producerId, final long sequence)
+    {
+        final int messageSize = messageSize(sequence);
+        buffer.putInt(offset + PRODUCER_ID_OFFSET, producerId);
+        buffer.putLong(offset + SEQUENCE_OFFSET, sequence);
+        for (int i = SEQUENCE_OFFSET + 8; i < messageSize; i++)
+        {
+            buffer.put(offset + i, (byte) sequence);
+        }
+    }
+
+    private static int messageSize(final long sequence)
+    {
+        return MIN_MESSAGE_SIZE + (int) ((sequence * 31) % (MAX_MESSAGE_SIZE - MIN_MESSAGE_SIZE + 1));
+    }
+
+    private static void startAll(final Thread[] threads)
+    {
+        for (Thread thread : threads)
+        {
+            thread.start();
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package com.aitusoftware.messaging.ipc;
 
+import com.aitusoftware.messaging.ipc.TransportCounters.Counter;
+import org.agrona.concurrent.IdleStrategy;
+
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.VarHandle;
@@ -11,36 +14,81 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.function.Consumer;
 
-public final class OffHeapByteBufferTransport implements AutoCloseable
+public final class OffHeapByteBufferTransport implements Transport<ByteBuffer>
 {
     public static final String IPC_DISABLE_SUBSCRIBER_GATE = "ipc.disable.subscriberGate";
+    private static final int NO_CAPACITY = -1;
     private static final boolean DEBUG = false;
     private static final boolean WAIT_FOR_SUBSCRIBER = !Boolean.getBoolean(IPC_DISABLE_SUBSCRIBER_GATE);
     private static final VarHandle VIEW =
             MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final int HEADER_WORD_LENGTH = 8;
+    private static final int CLEAN_AHEAD_LENGTH = Integer.getInteger("ipc.pub.cleanAheadLength", 64 * 1024);
 
     private final ByteBuffer data;
     private final ByteBuffer messageBuffer;
+    private final ByteBuffer claimView;
+    private final ByteBuffer pollView;
     private final long mask;
     private final FileChannel channel;
     private final Path path;
+    private final RecordFormat format;
+    private final TransportCounters counters;
+    private final int headerLength;
+    private final boolean zeroOnConsume;
+    private final int epochShift;
+    private final long epochMask;
+    private final Journal journal;
 
     // publisher state
     private long writeOffset;
     private long nextSubscriberSequenceCheck = -1L;
-    private long nextBufferWrapSequence;
+    private long cleanPosition;
+    private final long publisherToken = Util.newPublisherToken();
+    private boolean ownsRing;
+    private final IdleStrategy publisherIdleStrategy = Util.newIdleStrategy(Util.PUBLISHER_IDLE_STRATEGY);
 
     // subscriber state
-    private long lastConsumedSequence = 0L;
-
+    private long lastConsumedSequence;
+    private final MessageHandler receiverHandler = this::onReceiverMessage;
+    private Consumer<ByteBuffer> receiver;
 
     public OffHeapByteBufferTransport(Path path, long size) throws IOException
+    {
+        this(path, size, RecordFormat.CACHE_LINE);
+    }
+
+    public OffHeapByteBufferTransport(Path path, long size, RecordFormat format) throws IOException
+    {
+        this(path, size, format, null);
+    }
+
+    /**
+     * Maps the ring at {@code path}, creating it if it does not exist. An existing ring of the same size is
+     * attached to as it stands, so that a restarted process carries on where it stopped: the publisher from
+     * the stored publisher sequence, and the subscriber after the last record it consumed. The ring must
+     * still be opened with the record format it was written with.
+     *
+     * @param journal if not null, every record this instance publishes is also appended to {@code journal}
+     */
+    public OffHeapByteBufferTransport(Path path, long size, RecordFormat format, Journal journal) throws IOException
     {
         this.path = path;
+        this.journal = journal;
+        this.format = format;
+        this.headerLength = format.headerLength();
         channel = FileChannel.open(path, StandardOpenOption.CREATE,
                 StandardOpenOption.WRITE, StandardOpenOption.READ);
+        final long fileLength = channel.size();
+        if (fileLength != 0L && fileLength != size + Util.DATA_OFFSET + 8)
+        {
+            channel.close();
+            throw new IllegalArgumentException(String.format(
+                    "Existing file %s of %db does not hold a ring of %db", path, fileLength, size));
+        }
         final MappedByteBuffer data = channel.
                 map(FileChannel.MapMode.READ_WRITE, 0L, size + Util.DATA_OFFSET + 8);
+        Util.prepareMapping(path, data);
 
 
         if (Long.bitCount(size) != 1)
@@ -50,6 +98,8 @@ public final class OffHeapByteBufferTransport implements AutoCloseable
 
         this.data = data.alignedSlice(8);
         this.messageBuffer = data.position(Util.DATA_OFFSET).limit(Util.DATA_OFFSET + (int) size).slice();
+        this.claimView = messageBuffer.duplicate();
+        this.pollView = messageBuffer.duplicate();
         this.data.clear();
         this.mask = messageBuffer.capacity() - 1;
 
@@ -61,10 +111,20 @@ public final class OffHeapByteBufferTransport implements AutoCloseable
         {
             throw new IllegalArgumentException();
         }
-        nextBufferWrapSequence = messageBuffer.capacity();
+
+        this.zeroOnConsume = !format.epochStamped();
+        this.epochShift = Long.numberOfTrailingZeros(size);
+        this.epochMask = format.epochStamped() ? Util.RECORD_EPOCH_MASK : 0L;
+        // a ring that has never been written to is already clean for its first lap
+        final long publisherSequence = (long) VIEW.getVolatile(this.data, Util.PUBLISHER_SEQUENCE_OFFSET);
+        this.cleanPosition = publisherSequence == 0L ? size : publisherSequence;
+        // attaching to an existing ring resumes after the last record a subscriber consumed
+        this.lastConsumedSequence = (long) VIEW.getVolatile(this.data, Util.SUBSCRIBER_SEQUENCE_OFFSET);
+        this.counters = TransportCounters.forRing(path, size);
     }
 
 
+    @Override
     public long writeRecord(final ByteBuffer message)
     {
         final int messageSize = message.remaining();
@@ -73,83 +133,208 @@ public final class OffHeapByteBufferTransport implements AutoCloseable
             return -1;
         }
 
-        updateSubscriberCheckOffset(messageSize);
-        waitForSlowSubscribers(messageSize);
+        return writeRecord(message, messageSize, true);
+    }
 
-        final int paddedSize = Util.padToCacheLine(messageSize + Util.MESSAGE_HEADER_LENGTH);
+    /**
+     * Writes {@code message} only if the subscriber has consumed enough of the ring to make room for it.
+     * Unlike {@link #writeRecord}, this never waits for the subscriber, and reserves no space for the record
+     * when it fails, although it may already have padded out the end of the lap.
+     *
+     * @return the sequence of the written record, {@link #BACK_PRESSURED} if the subscriber is too far
+     * behind, or -1 if {@code message} is empty
+     */
+    @Override
+    public long tryWriteRecord(final ByteBuffer message)
+    {
+        final int messageSize = message.remaining();
+        if (messageSize == 0)
+        {
+            return -1;
+        }
 
-        writeOffset = (long) VIEW.getAndAdd(data, Util.PUBLISHER_SEQUENCE_OFFSET, paddedSize);
+        return writeRecord(message, messageSize, false);
+    }
 
-        if (writeOffset + paddedSize > nextBufferWrapSequence)
+    /**
+     * Writes the remaining bytes of each of the first {@code count} {@code messages} as consecutive records,
+     * reserving space for the whole batch with a single update of the publisher sequence, and waiting for the
+     * subscriber if the ring is full. Each record is released to the subscriber as soon as it is copied, and
+     * empty messages are skipped.
+     * <p>
+     * A batch is never split across the end of the ring. When it would cross the end, the rest of the lap is
+     * first published as padding on its own, and the whole batch is then reserved from the start of the next
+     * lap, so any batch that fits in the ring as a whole is accepted.
+     *
+     * @throws IllegalArgumentException if the records of the batch together are longer than the ring
+     *
+     * @return the sequence of the first written record, or -1 if every message is empty
+     */
+    public long writeRecords(final ByteBuffer[] messages, final int count)
+    {
+        long batchLength = 0L;
+        long batchBytes = 0L;
+        int recordCount = 0;
+        for (int i = 0; i < count; i++)
         {
-            if (DEBUG)
+            final int messageSize = messages[i].remaining();
+            if (messageSize != 0)
             {
-                System.out.printf("%s %s Buffer overrun, writing %d at %d and attempting another message%n",
-                        path, Thread.currentThread().getName(), -paddedSize, mask(writeOffset));
+                batchLength += format.recordLength(messageSize);
+                batchBytes += messageSize;
+                recordCount++;
             }
+        }
+        if (recordCount == 0)
+        {
+            return -1;
+        }
+        if (batchLength > messageBuffer.capacity())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Batch of %d records (%db) does not fit in a buffer of %db",
+                    recordCount, batchLength, messageBuffer.capacity()));
+        }
 
-            nextBufferWrapSequence = nextBufferWrapSequence + messageBuffer.capacity();
+        int headerOffset = claim((int) batchLength, recordCount, batchBytes, true);
+        // the batch lies within a single lap, so all of its records share an epoch
+        final long epoch = epoch(writeOffset);
+        for (int i = 0; i < count; i++)
+        {
+            final ByteBuffer message = messages[i];
+            final int messageSize = message.remaining();
+            if (messageSize == 0)
+            {
+                continue;
+            }
+            if (journal != null)
+            {
+                journal.append(message, message.position(), messageSize);
+            }
+            messageBuffer.position(headerOffset + headerLength);
+            messageBuffer.put(message);
+            VIEW.setRelease(messageBuffer, headerOffset,
+                    Util.recordHeader(epoch, Util.RECORD_TYPE_MESSAGE, messageSize));
+            headerOffset += format.recordLength(messageSize);
+        }
+        return writeOffset;
+    }
 
-            final int forwardingPointerPosition = mask(writeOffset);
-            long retryResult = writeRecord(message);
-            VIEW.setRelease(messageBuffer, forwardingPointerPosition, (long) -paddedSize);
-            return retryResult;
+    /**
+     * Writes the remaining bytes of the first {@code count} {@code fragments} back to back as a single record,
+     * e.g. a header and a body held in separate buffers, waiting for the subscriber if the ring is full.
+     *
+     * @return the sequence of the written record, or -1 if every fragment is empty
+     */
+    public long writeGatheredRecord(final ByteBuffer[] fragments, final int count)
+    {
+        long messageSize = 0L;
+        for (int i = 0; i < count; i++)
+        {
+            messageSize += fragments[i].remaining();
+        }
+        if (messageSize == 0L)
+        {
+            return -1;
+        }
+        if (messageSize > messageBuffer.capacity())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Message of %db does not fit in a buffer of %db", messageSize, messageBuffer.capacity()));
         }
 
-        int headerOffset = mask(writeOffset);
-        int actualOffset = headerOffset + Util.MESSAGE_HEADER_LENGTH;
-        if (DEBUG)
+        final int headerOffset = claimRecord((int) messageSize, true);
+        messageBuffer.position(headerOffset + headerLength);
+        for (int i = 0; i < count; i++)
         {
-            System.out.printf("%s %s Writing message of %db at %d [%d]%n",
-                    path, Thread.currentThread().getName(),
-                    paddedSize, headerOffset, writeOffset);
+            messageBuffer.put(fragments[i]);
         }
-        messageBuffer.position(actualOffset);
-        messageBuffer.put(message);
-        VIEW.setRelease(messageBuffer, headerOffset, (long) messageSize);
+        if (journal != null)
+        {
+            journal.append(messageBuffer, headerOffset + headerLength, (int) messageSize);
+        }
+        VIEW.setRelease(messageBuffer, headerOffset,
+                Util.recordHeader(epoch(writeOffset), Util.RECORD_TYPE_MESSAGE, (int) messageSize));
         return writeOffset;
     }
 
-    public int poll(final Consumer<ByteBuffer> receiver)
+    /**
+     * Reserves a record of {@code length} bytes at the publisher sequence and points {@code bufferClaim}
+     * at its payload, so that the message can be encoded in place. The record becomes visible to the
+     * subscriber on {@link ByteBufferClaim#commit()}, or is skipped after {@link ByteBufferClaim#abort()}.
+     * <p>
+     * Like {@link #tryWriteRecord}, the claim fails without reserving space if the subscriber is too far behind.
+     *
+     * @return the sequence of the claimed record, {@link #BACK_PRESSURED} if the subscriber is too far
+     * behind, or -1 if {@code length} is not positive
+     */
+    public long tryClaim(final int length, final ByteBufferClaim bufferClaim)
     {
-        int messageSize = (int) ((long) VIEW.getVolatile(messageBuffer, mask(lastConsumedSequence)));
-        if (messageSize < 0L)
+        if (length <= 0)
         {
+            return -1;
+        }
+
+        final int headerOffset = claimRecord(length, false);
+        if (headerOffset == NO_CAPACITY)
+        {
+            return BACK_PRESSURED;
+        }
+        bufferClaim.wrap(messageBuffer, claimView, headerOffset, length, format, epoch(writeOffset),
+                journal);
+        return writeOffset;
+    }
 
-            this.lastConsumedSequence -= messageSize;
-            messageSize = (int) ((long) VIEW.getVolatile(messageBuffer, mask(this.lastConsumedSequence)));
+    @Override
+    public int poll(final Consumer<ByteBuffer> receiver)
+    {
+        this.receiver = receiver;
+        return poll(receiverHandler);
+    }
+
+    /**
+     * Hands the next record to {@code handler} as an offset and length in a view over the ring, leaving the
+     * position and limit of every buffer unchanged.
+     *
+     * @return the length of the record read, or zero if none was available
+     */
+    public int poll(final MessageHandler handler)
+    {
+        long header = readHeader(lastConsumedSequence);
+        while (Util.recordType(header) == Util.RECORD_TYPE_PADDING)
+        {
+            final int paddingOffset = mask(lastConsumedSequence);
+            final int paddingLength = Util.recordLength(header);
+            if (zeroOnConsume)
+            {
+                zero(paddingOffset, Math.min(messageBuffer.capacity() - paddingOffset, paddingLength));
+            }
+            this.lastConsumedSequence += paddingLength;
+            VIEW.setRelease(data, Util.SUBSCRIBER_SEQUENCE_OFFSET, lastConsumedSequence);
+            counters.set(Counter.SUBSCRIBER_POSITION, lastConsumedSequence);
+            header = readHeader(this.lastConsumedSequence);
         }
+        final int messageSize = Util.recordLength(header);
         if (messageSize != 0)
         {
-            final int newPosition = mask(lastConsumedSequence + Util.MESSAGE_HEADER_LENGTH);
-            final int newLimit = newPosition + messageSize;
-            final int headerOffset = newPosition - Util.MESSAGE_HEADER_LENGTH;
+            final int headerOffset = mask(lastConsumedSequence);
             if (DEBUG)
             {
                 System.out.printf("%s %s Read message of %db at %d [%d]%n",
                         path, Thread.currentThread().getName(),
                         messageSize, headerOffset, lastConsumedSequence);
             }
-            try
-            {
-                messageBuffer.limit(newLimit);
-            }
-            catch (RuntimeException e)
+            handler.onMessage(pollView, headerOffset + headerLength, messageSize);
+            final int paddedMessageSize = format.recordLength(messageSize);
+            if (zeroOnConsume)
             {
-                System.out.printf("newLimit: %d, newPosition: %d, from messageSize: %d at %d%n",
-                        newLimit, newPosition, messageSize, lastConsumedSequence);
-                throw e;
+                zero(headerOffset, paddedMessageSize);
             }
-            messageBuffer.position(newPosition);
-            receiver.accept(messageBuffer);
-            messageBuffer.position(headerOffset);
-            final int paddedMessageSize = Util.padToCacheLine(messageSize + Util.MESSAGE_HEADER_LENGTH);
-            messageBuffer.limit(headerOffset + paddedMessageSize);
-            zero(messageBuffer);
 
-            VIEW.setRelease(data, Util.SUBSCRIBER_SEQUENCE_OFFSET, lastConsumedSequence);
             lastConsumedSequence += paddedMessageSize;
-            messageBuffer.limit(messageBuffer.capacity());
+            VIEW.setRelease(data, Util.SUBSCRIBER_SEQUENCE_OFFSET, lastConsumedSequence);
+            counters.set(Counter.SUBSCRIBER_POSITION, lastConsumedSequence);
+            counters.increment(Counter.MESSAGES_READ);
             if (DEBUG)
             {
                 System.out.printf("%s %s read sequence advanced to %d%n", path,
@@ -160,60 +345,354 @@ public final class OffHeapByteBufferTransport implements AutoCloseable
         return messageSize;
     }
 
+    /**
+     * Drains up to {@code fragmentLimit} contiguous records in a single pass. The consumed span is
+     * zeroed in bulk (unless headers are epoch-stamped), and the subscriber sequence is published once
+     * for the whole batch.
+     *
+     * @return the number of records handed to {@code receiver}
+     */
+    @Override
+    public int poll(final Consumer<ByteBuffer> receiver, final int fragmentLimit)
+    {
+        this.receiver = receiver;
+        return poll(receiverHandler, fragmentLimit);
+    }
+
+    /**
+     * Drains up to {@code fragmentLimit} contiguous records like {@link #poll(Consumer, int)}, handing each to
+     * {@code handler} as an offset and length in a view over the ring.
+     *
+     * @return the number of records handed to {@code handler}
+     */
+    public int poll(final MessageHandler handler, final int fragmentLimit)
+    {
+        final int capacity = messageBuffer.capacity();
+        long position = lastConsumedSequence;
+        int spanStart = mask(position);
+        int spanLength = 0;
+        int fragmentsRead = 0;
+        while (fragmentsRead < fragmentLimit)
+        {
+            final int headerOffset = mask(position);
+            if (spanStart + spanLength == capacity)
+            {
+                zeroConsumed(spanStart, spanLength);
+                spanStart = 0;
+                spanLength = 0;
+            }
+            final long header = readHeader(position);
+            if (header == 0L)
+            {
+                break;
+            }
+            if (Util.recordType(header) == Util.RECORD_TYPE_PADDING)
+            {
+                final int paddingLength = Util.recordLength(header);
+                spanLength += Math.min(capacity - headerOffset, paddingLength);
+                zeroConsumed(spanStart, spanLength);
+                position += paddingLength;
+                spanStart = mask(position);
+                spanLength = 0;
+                continue;
+            }
+
+            final int messageSize = Util.recordLength(header);
+            if (DEBUG)
+            {
+                System.out.printf("%s %s Read message of %db at %d [%d]%n",
+                        path, Thread.currentThread().getName(),
+                        messageSize, headerOffset, position);
+            }
+            handler.onMessage(pollView, headerOffset + headerLength, messageSize);
+
+            final int paddedMessageSize = format.recordLength(messageSize);
+            position += paddedMessageSize;
+            spanLength += paddedMessageSize;
+            fragmentsRead++;
+        }
+
+        if (position != lastConsumedSequence)
+        {
+            zeroConsumed(spanStart, spanLength);
+            VIEW.setRelease(data, Util.SUBSCRIBER_SEQUENCE_OFFSET, position);
+            counters.set(Counter.SUBSCRIBER_POSITION, position);
+            counters.add(Counter.MESSAGES_READ, fragmentsRead);
+            lastConsumedSequence = position;
+            if (DEBUG)
+            {
+                System.out.printf("%s %s read sequence advanced to %d after %d records%n", path,
+                        Thread.currentThread().getName(), lastConsumedSequence, fragmentsRead);
+            }
+        }
+
+        return fragmentsRead;
+    }
+
+    @Override
+    public long publisherStallNanos()
+    {
+        return counters.get(Counter.STALL_NANOS);
+    }
+
+    @Override
+    public long publisherStallCount()
+    {
+        return counters.get(Counter.STALLS);
+    }
+
+    @Override
     public void close() throws IOException
     {
+        if (ownsRing)
+        {
+            VIEW.compareAndSet(data, Util.PUBLISHER_OWNER_OFFSET, publisherToken, Util.NO_PUBLISHER);
+        }
         channel.close();
     }
 
-    private void waitForSlowSubscribers(int messageSize)
+    /**
+     * Hands a record to the receiver of the poll in progress as the message buffer, limited to the payload.
+     */
+    private void onReceiverMessage(final ByteBuffer buffer, final int offset, final int length)
     {
-        if (WAIT_FOR_SUBSCRIBER)
+        messageBuffer.limit(offset + length).position(offset);
+        receiver.accept(messageBuffer);
+        messageBuffer.limit(messageBuffer.capacity());
+    }
+
+    private long writeRecord(final ByteBuffer message, final int messageSize, final boolean waitForSubscriber)
+    {
+        final int headerOffset = claimRecord(messageSize, waitForSubscriber);
+        if (headerOffset == NO_CAPACITY)
+        {
+            return BACK_PRESSURED;
+        }
+        if (journal != null)
         {
-            if (writeOffset + messageSize > nextSubscriberSequenceCheck)
+            journal.append(message, message.position(), messageSize);
+        }
+        messageBuffer.position(headerOffset + headerLength);
+        messageBuffer.put(message);
+        VIEW.setRelease(messageBuffer, headerOffset,
+                Util.recordHeader(epoch(writeOffset), Util.RECORD_TYPE_MESSAGE, messageSize));
+        return writeOffset;
+    }
+
+    private int claimRecord(final int messageSize, final boolean waitForSubscriber)
+    {
+        final int paddedSize = format.recordLength(messageSize);
+        if (paddedSize > messageBuffer.capacity())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Message of %db does not fit in a buffer of %db", messageSize, messageBuffer.capacity()));
+        }
+
+        return claim(paddedSize, 1, messageSize, waitForSubscriber);
+    }
+
+    /**
+     * Reserves {@code paddedSize} bytes for one or more records by compare-and-set on the shared publisher
+     * sequence, so that any number of publishers, each with its own instance over the same file, may write
+     * concurrently. A reservation that would run past the end of the ring first publishes a padding record
+     * covering the rest of the lap, reserved on its own, and is then retried from the start of the next lap.
+     * <p>
+     * With epoch-stamped headers the subscriber leaves the ring dirty, so the publisher clears it ahead of
+     * the records, including the header word that follows them. Clearing outside the reservation is only safe
+     * for a single publisher, so the first claim takes ownership of the ring.
+     * <p>
+     * While the subscriber is too far behind, a blocking claim waits using the {@code ipc.pub.idleStrategy}.
+     */
+    private int claim(
+            final int paddedSize, final int recordCount, final long messageBytes, final boolean waitForSubscriber)
+    {
+        if (!zeroOnConsume && !ownsRing)
+        {
+            acquireRing();
+        }
+        final int capacity = messageBuffer.capacity();
+        boolean idled = false;
+        long stallStartNanos = 0L;
+        while (true)
+        {
+            final long position = (long) VIEW.getVolatile(data, Util.PUBLISHER_SEQUENCE_OFFSET);
+            final int offset = mask(position);
+            // a record that would run past the end of the ring first reserves the rest of the lap as padding on
+            // its own, then is claimed from the start of the next lap, so it only ever waits for its own length
+            final int padding = offset + paddedSize > capacity ? capacity - offset : 0;
+            final long limitPosition = position + (padding != 0 ? padding : paddedSize);
+            final long cleanLimitPosition = zeroOnConsume ? limitPosition : limitPosition + HEADER_WORD_LENGTH;
+            if (WAIT_FOR_SUBSCRIBER && !hasCapacity(cleanLimitPosition))
             {
+                if (!waitForSubscriber)
+                {
+                    counters.increment(Counter.BACK_PRESSURED);
+                    return NO_CAPACITY;
+                }
                 if (DEBUG)
                 {
-                    System.out.printf("%s %s writeOffset: %d, subscriber: %d%n",
-                            path, Thread.currentThread().getName(), writeOffset, getSubscriberOffset());
+                    System.out.printf("%s %s position: %d, subscriber: %d%n",
+                            path, Thread.currentThread().getName(), position, getSubscriberOffset());
                 }
-                while (writeOffset + messageSize > nextSubscriberSequenceCheck)
+                if (!idled)
                 {
-                    nextSubscriberSequenceCheck = getSubscriberOffset() + messageBuffer.capacity();
+                    stallStartNanos = System.nanoTime();
+                    idled = true;
                 }
+                counters.increment(Counter.BACK_PRESSURE_IDLES);
+                publisherIdleStrategy.idle();
+                continue;
+            }
+            if (!zeroOnConsume)
+            {
+                cleanAhead(cleanLimitPosition);
             }
+            if (!VIEW.compareAndSet(data, Util.PUBLISHER_SEQUENCE_OFFSET, position, limitPosition))
+            {
+                if (!zeroOnConsume)
+                {
+                    throw new IllegalStateException("Epoch-stamped records support a single publisher: " + path);
+                }
+                continue;
+            }
+
+            counters.set(Counter.PUBLISHER_POSITION, limitPosition);
+            if (padding != 0)
+            {
+                counters.increment(Counter.WRAPS);
+                if (DEBUG)
+                {
+                    System.out.printf("%s %s Writing %db padding at %d [%d]%n",
+                            path, Thread.currentThread().getName(), padding, offset, position);
+                }
+                VIEW.setRelease(messageBuffer, offset,
+                        Util.recordHeader(epoch(position), Util.RECORD_TYPE_PADDING, padding));
+                continue;
+            }
+
+            if (idled)
+            {
+                publisherIdleStrategy.reset();
+                counters.add(Counter.STALL_NANOS, System.nanoTime() - stallStartNanos);
+                counters.increment(Counter.STALLS);
+            }
+            counters.add(Counter.MESSAGES_WRITTEN, recordCount);
+            counters.add(Counter.BYTES_WRITTEN, messageBytes);
+
+            writeOffset = position;
+            final int headerOffset = mask(writeOffset);
+            if (DEBUG)
+            {
+                System.out.printf("%s %s Writing %d records of %db at %d [%d]%n",
+                        path, Thread.currentThread().getName(),
+                        recordCount, paddedSize, headerOffset, writeOffset);
+            }
+            return headerOffset;
         }
     }
 
-    private void updateSubscriberCheckOffset(int messageSize)
+    /**
+     * Takes sole ownership of an epoch-stamped ring before this instance clears any of it, failing while a
+     * live publisher holds it. Clearing then resumes from the current publisher sequence, as an earlier
+     * publisher may have written since this instance was opened.
+     */
+    private void acquireRing()
     {
-        if (nextSubscriberSequenceCheck == -1L)
+        while (true)
         {
-            nextSubscriberSequenceCheck = getSubscriberOffset() + messageBuffer.capacity();
+            final long owner = (long) VIEW.getVolatile(data, Util.PUBLISHER_OWNER_OFFSET);
+            if (owner != Util.NO_PUBLISHER && Util.isPublisherAlive(owner))
+            {
+                throw new IllegalStateException(String.format(
+                        "Epoch-stamped records support a single publisher, %s is published to by process %d",
+                        path, Util.publisherPid(owner)));
+            }
+            if (VIEW.compareAndSet(data, Util.PUBLISHER_OWNER_OFFSET, owner, publisherToken))
+            {
+                break;
+            }
         }
-        if (writeOffset + messageSize > nextSubscriberSequenceCheck)
+        final long publisherSequence = (long) VIEW.getVolatile(data, Util.PUBLISHER_SEQUENCE_OFFSET);
+        cleanPosition = publisherSequence == 0L ? messageBuffer.capacity() : publisherSequence;
+        ownsRing = true;
+    }
+
+    /**
+     * Zeroes the ring from the clean position through at least {@code requiredPosition}, and up to
+     * {@code ipc.pub.cleanAheadLength} bytes beyond it, without passing the subscriber.
+     */
+    private void cleanAhead(final long requiredPosition)
+    {
+        if (requiredPosition <= cleanPosition)
+        {
+            return;
+        }
+        final int capacity = messageBuffer.capacity();
+        final long cleanLimit = WAIT_FOR_SUBSCRIBER ?
+                Math.min(requiredPosition + CLEAN_AHEAD_LENGTH, nextSubscriberSequenceCheck) : requiredPosition;
+        long position = cleanPosition;
+        while (position < cleanLimit)
+        {
+            final int offset = mask(position);
+            final int length = (int) Math.min(cleanLimit - position, capacity - offset);
+            zero(offset, length);
+            position += length;
+        }
+        cleanPosition = cleanLimit;
+    }
+
+    private boolean hasCapacity(final long limitPosition)
+    {
+        if (limitPosition > nextSubscriberSequenceCheck)
         {
             nextSubscriberSequenceCheck = getSubscriberOffset() + messageBuffer.capacity();
         }
+        return limitPosition <= nextSubscriberSequenceCheck;
     }
 
-    private void zero(ByteBuffer buffer)
+    private void zero(final int offset, final int length)
     {
+        counters.add(Counter.ZEROED_BYTES, length);
         if (DEBUG)
         {
-            System.out.printf("%s %s Zeroing buffer at %d - %d%n",
-                    path, Thread.currentThread().getName(), buffer.position(), buffer.limit());
+            System.out.printf("%s %s Zeroing span at %d - %d%n",
+                    path, Thread.currentThread().getName(), offset, offset + length);
         }
-        int chunks = buffer.remaining() / 8;
-        for (int i = 0; i < chunks; i++)
+        // spans are whole records, so only a clean-ahead length that is not a multiple of 8 leaves a tail
+        final int end = offset + length;
+        int index = offset;
+        for (; index + HEADER_WORD_LENGTH <= end; index += HEADER_WORD_LENGTH)
         {
-            buffer.putLong(0);
+            VIEW.set(messageBuffer, index, 0L);
         }
-        for (int i = 0; i < buffer.remaining(); i++)
+        for (; index < end; index++)
         {
-            buffer.put((byte) 0);
+            messageBuffer.put(index, (byte) 0);
         }
     }
 
+    private void zeroConsumed(final int offset, final int length)
+    {
+        if (zeroOnConsume)
+        {
+            zero(offset, length);
+        }
+    }
+
+    /**
+     * @return the header at {@code position}, or zero if it was stamped in a different lap of the ring
+     */
+    private long readHeader(final long position)
+    {
+        final long header = (long) VIEW.getVolatile(messageBuffer, mask(position));
+        return Util.recordEpoch(header) == epoch(position) ? header : 0L;
+    }
+
+    private long epoch(final long position)
+    {
+        return (position >>> epochShift) & epochMask;
+    }
+
     private long getSubscriberOffset()
     {
         return (long) VIEW.getVolatile(data, Util.SUBSCRIBER_SEQUENCE_OFFSET);
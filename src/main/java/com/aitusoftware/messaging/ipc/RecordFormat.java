@@ -0,0 +1,121 @@
+package com.aitusoftware.messaging.ipc;
+
+import static com.aitusoftware.messaging.ipc.Util.CACHE_LINE_SIZE_IN_BYTES;
+
+/**
+ * Layout of records in a transport ring. Each record starts with an 8-byte header word holding its
+ * length and type, followed by the payload at {@link #headerLength()}, and the whole record is padded
+ * to a multiple of {@link #alignment()}.
+ * <p>
+ * {@link #CACHE_LINE} gives every record its own cache lines, while {@link #compact(int)} packs small
+ * records more densely. Every publisher and subscriber of a file must use the same format.
+ * <p>
+ * With {@link #withEpochStamps()}, each header also carries the lap of the ring it was written in, and the
+ * subscriber ignores headers from any other lap. The subscriber then leaves consumed records in place, and
+ * the single publisher clears the ring in bulk ahead of its write position instead. The first write of a
+ * publisher takes ownership of the ring, and fails while another live publisher holds it.
+ */
+public final class RecordFormat
+{
+    public static final String IPC_RECORD_HEADER_LENGTH = "ipc.record.headerLength";
+    public static final String IPC_RECORD_ALIGNMENT = "ipc.record.alignment";
+    public static final String IPC_RECORD_EPOCH_STAMPED = "ipc.record.epochStamped";
+    public static final RecordFormat CACHE_LINE =
+            new RecordFormat(CACHE_LINE_SIZE_IN_BYTES, CACHE_LINE_SIZE_IN_BYTES, false);
+
+    private static final int HEADER_WORD_LENGTH = 8;
+    private static final int MIN_ALIGNMENT = 8;
+
+    private final int headerLength;
+    private final int alignment;
+    private final int alignmentMask;
+    private final boolean epochStamped;
+
+    private RecordFormat(final int headerLength, final int alignment, final boolean epochStamped)
+    {
+        if (Integer.bitCount(alignment) != 1 || alignment < MIN_ALIGNMENT || alignment > CACHE_LINE_SIZE_IN_BYTES)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Alignment must be a power of two between %d and %d, was %d",
+                    MIN_ALIGNMENT, CACHE_LINE_SIZE_IN_BYTES, alignment));
+        }
+        if (headerLength < HEADER_WORD_LENGTH || headerLength > CACHE_LINE_SIZE_IN_BYTES ||
+                headerLength % HEADER_WORD_LENGTH != 0)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Header length must be a multiple of %d no greater than %d, was %d",
+                    HEADER_WORD_LENGTH, CACHE_LINE_SIZE_IN_BYTES, headerLength));
+        }
+        this.headerLength = headerLength;
+        this.alignment = alignment;
+        this.alignmentMask = alignment - 1;
+        this.epochStamped = epochStamped;
+    }
+
+    /**
+     * @param alignment record alignment of 8, 16, 32 or 64 bytes
+     * @return a format with only the 8-byte header word in front of the payload
+     */
+    public static RecordFormat compact(final int alignment)
+    {
+        return new RecordFormat(HEADER_WORD_LENGTH, alignment, false);
+    }
+
+    public static RecordFormat of(final int headerLength, final int alignment)
+    {
+        if (headerLength == CACHE_LINE_SIZE_IN_BYTES && alignment == CACHE_LINE_SIZE_IN_BYTES)
+        {
+            return CACHE_LINE;
+        }
+        return new RecordFormat(headerLength, alignment, false);
+    }
+
+    /**
+     * @return this layout with the lap of the ring stamped into every header
+     */
+    public RecordFormat withEpochStamps()
+    {
+        return epochStamped ? this : new RecordFormat(headerLength, alignment, true);
+    }
+
+    /**
+     * @return the format described by {@value #IPC_RECORD_HEADER_LENGTH}, {@value #IPC_RECORD_ALIGNMENT}
+     * and {@value #IPC_RECORD_EPOCH_STAMPED}, defaulting to {@link #CACHE_LINE}
+     */
+    public static RecordFormat fromSystemProperties()
+    {
+        final RecordFormat format = of(Integer.getInteger(IPC_RECORD_HEADER_LENGTH, CACHE_LINE_SIZE_IN_BYTES),
+                Integer.getInteger(IPC_RECORD_ALIGNMENT, CACHE_LINE_SIZE_IN_BYTES));
+        return Boolean.getBoolean(IPC_RECORD_EPOCH_STAMPED) ? format.withEpochStamps() : format;
+    }
+
+    public int headerLength()
+    {
+        return headerLength;
+    }
+
+    public int alignment()
+    {
+        return alignment;
+    }
+
+    public boolean epochStamped()
+    {
+        return epochStamped;
+    }
+
+    /**
+     * @return the number of ring bytes taken by a record carrying {@code messageSize} bytes of payload
+     */
+    public int recordLength(final int messageSize)
+    {
+        return (messageSize + headerLength + alignmentMask) & ~alignmentMask;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RecordFormat{headerLength=" + headerLength + ", alignment=" + alignment +
+                ", epochStamped=" + epochStamped + '}';
+    }
+}
@@ -0,0 +1,152 @@
+package com.aitusoftware.messaging.ipc;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Read-only view of the publisher and subscriber sequences of a unicast ring file. Only the ring header is
+ * mapped, read-only, and every sample is a pair of volatile loads, so a monitor never writes to the cache lines
+ * of the ring it watches.
+ * <p>
+ * Run as a program, it samples each ring file given as an argument (or each {@code ipc-*} ring in
+ * {@code ipc.monitor.dir}, {@code /dev/shm} by default) every {@code ipc.monitor.intervalMs}, for
+ * {@code ipc.monitor.samples} samples (forever if zero), and prints the lag in bytes and as a share of the
+ * ring capacity, and the write and read rates since the previous sample. A ring whose subscriber has not
+ * advanced over a whole interval while messages were waiting is flagged as stalled.
+ */
+public final class RingLagMonitor
+{
+    private static final long INTERVAL_MS = Long.getLong("ipc.monitor.intervalMs", 1000L);
+    private static final int SAMPLE_COUNT = Integer.getInteger("ipc.monitor.samples", 0);
+    private static final String RING_DIRECTORY = System.getProperty("ipc.monitor.dir", "/dev/shm");
+    private static final String RING_PREFIX = "ipc-";
+
+    private final Path file;
+    private final ByteBuffer header;
+    private final long capacity;
+    private long lastPublisherSequence;
+    private long lastSubscriberSequence;
+    private long stalledSinceNanos;
+
+    public RingLagMonitor(final Path file) throws IOException
+    {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            capacity = ringCapacity(channel.size());
+            if (capacity == 0L)
+            {
+                throw new IllegalArgumentException(String.format(
+                        "File %s of %db does not hold a ring", file, channel.size()));
+            }
+            header = channel.map(FileChannel.MapMode.READ_ONLY, 0L, Util.DATA_OFFSET);
+        }
+        lastPublisherSequence = publisherSequence();
+        lastSubscriberSequence = subscriberSequence();
+        stalledSinceNanos = System.nanoTime();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        final List<RingLagMonitor> monitors = new ArrayList<>();
+        for (Path file : ringFiles(args))
+        {
+            try
+            {
+                monitors.add(new RingLagMonitor(file));
+            }
+            catch (IllegalArgumentException e)
+            {
+                System.out.println(e.getMessage());
+            }
+        }
+        if (monitors.isEmpty())
+        {
+            System.out.println("No rings found");
+            return;
+        }
+
+        long lastSampleNanos = System.nanoTime();
+        for (int i = 0; SAMPLE_COUNT == 0 || i < SAMPLE_COUNT; i++)
+        {
+            Thread.sleep(INTERVAL_MS);
+            final long sampleNanos = System.nanoTime();
+            final double intervalSeconds = (sampleNanos - lastSampleNanos) / (double) TimeUnit.SECONDS.toNanos(1L);
+            for (RingLagMonitor monitor : monitors)
+            {
+                monitor.print(sampleNanos, intervalSeconds);
+            }
+            System.out.println();
+            lastSampleNanos = sampleNanos;
+        }
+    }
+
+    public long publisherSequence()
+    {
+        return (long) TransportCounters.VIEW.getVolatile(header, Util.PUBLISHER_SEQUENCE_OFFSET);
+    }
+
+    public long subscriberSequence()
+    {
+        return (long) TransportCounters.VIEW.getVolatile(header, Util.SUBSCRIBER_SEQUENCE_OFFSET);
+    }
+
+    public long capacity()
+    {
+        return capacity;
+    }
+
+    private void print(final long sampleNanos, final double intervalSeconds)
+    {
+        // the subscriber is read first, so that a lag is never negative
+        final long subscriberSequence = subscriberSequence();
+        final long publisherSequence = publisherSequence();
+        final long lag = publisherSequence - subscriberSequence;
+        if (subscriberSequence != lastSubscriberSequence || lag == 0L)
+        {
+            stalledSinceNanos = sampleNanos;
+        }
+        final long stalledMs = TimeUnit.NANOSECONDS.toMillis(sampleNanos - stalledSinceNanos);
+        System.out.printf("%-24s lag: %12db %6.2f%% of %d, write: %10.1f MB/s, read: %10.1f MB/s%s%n",
+                file.getFileName(), lag, 100d * lag / capacity, capacity,
+                (publisherSequence - lastPublisherSequence) / intervalSeconds / (1024 * 1024),
+                (subscriberSequence - lastSubscriberSequence) / intervalSeconds / (1024 * 1024),
+                stalledMs < INTERVAL_MS ? "" : String.format(", STALLED for %dms", stalledMs));
+        lastPublisherSequence = publisherSequence;
+        lastSubscriberSequence = subscriberSequence;
+    }
+
+    /**
+     * @return the capacity of a unicast ring file of {@code fileLength} bytes, or zero if no ring has that length
+     */
+    private static long ringCapacity(final long fileLength)
+    {
+        final long capacity = fileLength - Util.DATA_OFFSET - 8;
+        return capacity > 0L && Long.bitCount(capacity) == 1 ? capacity : 0L;
+    }
+
+    private static List<Path> ringFiles(final String[] args) throws IOException
+    {
+        if (args.length != 0)
+        {
+            return Stream.of(args).map(Paths::get).collect(Collectors.toList());
+        }
+        try (Stream<Path> files = Files.list(Paths.get(RING_DIRECTORY)))
+        {
+            return files.filter(f -> f.getFileName().toString().startsWith(RING_PREFIX))
+                    .filter(Files::isRegularFile)
+                    .filter(f -> ringCapacity(f.toFile().length()) != 0L)
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+}
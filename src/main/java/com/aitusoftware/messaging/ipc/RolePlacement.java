@@ -0,0 +1,133 @@
+package com.aitusoftware.messaging.ipc;
+
+import com.aitusoftware.messaging.util.Affinity;
+import com.aitusoftware.messaging.util.CpuTopology;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * CPUs for the roles of a harness, chosen by the {@link CpuTopology.Placement} policy named, case-insensitively,
+ * by {@value #IPC_PLACEMENT}, such as {@code share_l2}. An explicit {@code ipc.pub.cpu}, {@code ipc.echo.cpu}
+ * or {@code ipc.sub.cpu} takes precedence, and a role left unplaced keeps the affinity of its process.
+ * <p>
+ * Only the roles a harness runs are placed, so a policy fails only when those roles cannot satisfy it. Every
+ * process attached to a ring places the same roles, and so computes the same placement.
+ */
+public final class RolePlacement
+{
+    public static final String IPC_PLACEMENT = "ipc.placement";
+
+    private static final int NO_CPU = -1;
+
+    public enum Role
+    {
+        PUBLISHER("publish", "ipc.pub.cpu"),
+        ECHO("echo", "ipc.echo.cpu"),
+        SUBSCRIBER("subscribe", "ipc.sub.cpu");
+
+        private final String threadName;
+        private final String cpuProperty;
+
+        Role(final String threadName, final String cpuProperty)
+        {
+            this.threadName = threadName;
+            this.cpuProperty = cpuProperty;
+        }
+    }
+
+    private final int[] cpus = new int[Role.values().length];
+
+    private RolePlacement(final Role[] roles, final int[] placed)
+    {
+        Arrays.fill(cpus, NO_CPU);
+        for (int i = 0; i < roles.length; i++)
+        {
+            cpus[roles[i].ordinal()] = Integer.getInteger(roles[i].cpuProperty, placed[i]);
+        }
+    }
+
+    /**
+     * @param roles the roles the harness runs, in the order the placement policy assigns them
+     * @return the CPU of each role
+     * @throws IllegalStateException if the policy is unknown, the CPU topology cannot be read, or the CPUs
+     *                               allowed to this process cannot satisfy the policy for {@code roles}
+     */
+    public static RolePlacement fromSystemProperties(final Role... roles)
+    {
+        final String placement = System.getProperty(IPC_PLACEMENT);
+        final int[] placed = new int[roles.length];
+        Arrays.fill(placed, NO_CPU);
+        if (placement == null)
+        {
+            return new RolePlacement(roles, placed);
+        }
+        final CpuTopology.Placement policy;
+        try
+        {
+            policy = CpuTopology.Placement.valueOf(placement.toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new IllegalStateException("Unknown " + IPC_PLACEMENT + " policy: " + placement, e);
+        }
+        try
+        {
+            final int[] cpus = CpuTopology.read().place(policy, roles.length, new Affinity().getCurrentThreadCpuMask());
+            System.arraycopy(cpus, 0, placed, 0, roles.length);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to read CPU topology for " + IPC_PLACEMENT + "=" + placement, e);
+        }
+        catch (IllegalStateException e)
+        {
+            throw new IllegalStateException("Unable to place " + Arrays.toString(roles) +
+                    " with " + IPC_PLACEMENT + "=" + placement + ": " + e.getMessage(), e);
+        }
+        final RolePlacement rolePlacement = new RolePlacement(roles, placed);
+        final StringBuilder description = new StringBuilder("Placement ").append(placement).append(':');
+        for (Role role : roles)
+        {
+            description.append(' ').append(role.threadName).append(' ').append(rolePlacement.cpu(role));
+        }
+        System.out.println(description);
+        return rolePlacement;
+    }
+
+    /**
+     * Places {@code roles} for the entry point of a harness, and exits with a non-zero status, before any ring
+     * is touched, if they cannot be placed.
+     */
+    static RolePlacement placeOrExit(final Role... roles)
+    {
+        try
+        {
+            return fromSystemProperties(roles);
+        }
+        catch (IllegalStateException e)
+        {
+            System.err.println(e.getMessage());
+            System.exit(1);
+            throw e;
+        }
+    }
+
+    public int cpu(final Role role)
+    {
+        return cpus[role.ordinal()];
+    }
+
+    /**
+     * Binds the calling thread to the CPU of {@code role}, if it has one.
+     */
+    public void bind(final Role role)
+    {
+        final int cpu = cpu(role);
+        if (cpu != NO_CPU)
+        {
+            System.out.printf("Setting CPU to %d for %s%n", cpu, role.threadName);
+            new Affinity().setCurrentThreadCpuAffinityAndValidate(cpu);
+        }
+    }
+}
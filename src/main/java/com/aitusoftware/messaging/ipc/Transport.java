@@ -0,0 +1,54 @@
+package com.aitusoftware.messaging.ipc;
+
+import java.util.function.Consumer;
+
+/**
+ * Publisher and subscriber operations shared by the ring transports, over the type of message each
+ * implementation reads and writes. All implementations use the same file layout, so a ring written by one
+ * can be read by another.
+ *
+ * @param <M> the message type, e.g. {@code UnsafeBuffer} or {@code ByteBuffer}
+ */
+public interface Transport<M> extends AutoCloseable
+{
+    long BACK_PRESSURED = -2L;
+
+    /**
+     * Writes {@code message} as a single record, waiting for the subscriber if the ring is full.
+     *
+     * @return the sequence of the written record, or -1 if {@code message} is empty
+     */
+    long writeRecord(M message);
+
+    /**
+     * Writes {@code message} only if the subscriber has consumed enough of the ring to make room for it.
+     *
+     * @return the sequence of the written record, {@link #BACK_PRESSURED} if the subscriber is too far
+     * behind, or -1 if {@code message} is empty
+     */
+    long tryWriteRecord(M message);
+
+    /**
+     * Hands the next record, if any, to {@code receiver}.
+     *
+     * @return the length of the record read, or zero if none was available
+     */
+    int poll(Consumer<M> receiver);
+
+    /**
+     * Hands up to {@code fragmentLimit} available records to {@code receiver}.
+     *
+     * @return the number of records read
+     */
+    int poll(Consumer<M> receiver, int fragmentLimit);
+
+    /**
+     * @return the total time blocking writes through this instance have spent waiting for the subscriber
+     */
+    long publisherStallNanos();
+
+    /**
+     * @return the number of blocking writes through this instance that had to wait for the subscriber
+     */
+    long publisherStallCount();
+}
@@ -0,0 +1,170 @@
+package com.aitusoftware.messaging.ipc;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Telemetry of one transport instance, as a set of counters. The counters updated by a publisher share one
+ * cache line, and those updated by a subscriber another, so that a write dirties a single extra line, and the
+ * two sides never share one. Each counter has a single writer, which keeps a local copy and publishes every
+ * update with an ordered store, so updating a counter never costs more than a plain store on the hot path.
+ * <p>
+ * If {@value #IPC_COUNTERS_DIR} is set, the counters are memory-mapped from a file in that directory named
+ * after the ring file, the process id and the instance, which {@link TransportCountersReader} can sample
+ * from any process. Otherwise they are kept in private memory. Counter files are left in place when a
+ * process exits.
+ * <p>
+ * File layout: the number of counters (written last, once the rest of the header is in place), the process
+ * id, the ring capacity, the length of the ring path and the path itself, followed by the counters from
+ * {@link #HEADER_LENGTH}.
+ */
+public final class TransportCounters
+{
+    public static final String IPC_COUNTERS_DIR = "ipc.counters.dir";
+    static final String FILE_SUFFIX = ".counters";
+    static final int COUNT_OFFSET = 0;
+    static final int PID_OFFSET = 8;
+    static final int CAPACITY_OFFSET = 16;
+    static final int PATH_LENGTH_OFFSET = 24;
+    static final int PATH_OFFSET = 32;
+    static final int HEADER_LENGTH = Util.CACHE_LINE_SIZE_IN_BYTES * 4;
+    static final int MAX_PATH_LENGTH = HEADER_LENGTH - PATH_OFFSET;
+    private static final int PUBLISHER_LINE = 0;
+    private static final int SUBSCRIBER_LINE = 1;
+    static final VarHandle VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final boolean DEBUG = false;
+    private static final String COUNTERS_DIR = System.getProperty(IPC_COUNTERS_DIR);
+    private static final AtomicInteger INSTANCE_ID = new AtomicInteger();
+
+    public enum Counter
+    {
+        /** Publisher sequence after the last record claimed by this instance. */
+        PUBLISHER_POSITION(PUBLISHER_LINE, 0),
+        MESSAGES_WRITTEN(PUBLISHER_LINE, 1),
+        BYTES_WRITTEN(PUBLISHER_LINE, 2),
+        /** Padding records written at the end of a lap. */
+        WRAPS(PUBLISHER_LINE, 3),
+        /** Non-blocking writes and claims refused for lack of space. */
+        BACK_PRESSURED(PUBLISHER_LINE, 4),
+        /** Calls to the publisher idle strategy while a blocking write waits for the subscriber. */
+        BACK_PRESSURE_IDLES(PUBLISHER_LINE, 5),
+        /** Blocking writes that had to wait for the subscriber. */
+        STALLS(PUBLISHER_LINE, 6),
+        STALL_NANOS(PUBLISHER_LINE, 7),
+        /** Subscriber sequence after the last record consumed by this instance. */
+        SUBSCRIBER_POSITION(SUBSCRIBER_LINE, 0),
+        MESSAGES_READ(SUBSCRIBER_LINE, 1),
+        /**
+         * Ring bytes cleared, by the subscriber after consuming them, or by the publisher ahead of writing
+         * with epoch-stamped records.
+         */
+        ZEROED_BYTES(SUBSCRIBER_LINE, 2);
+
+        static final Counter[] VALUES = values();
+
+        private final int offset;
+
+        Counter(final int line, final int slot)
+        {
+            this.offset = HEADER_LENGTH + line * Util.CACHE_LINE_SIZE_IN_BYTES + slot * 8;
+        }
+
+        int offset()
+        {
+            return offset;
+        }
+    }
+
+    // a trailing line keeps the subscriber line clear of whatever is mapped next
+    static final int FILE_LENGTH = HEADER_LENGTH + 3 * Util.CACHE_LINE_SIZE_IN_BYTES;
+
+    private final ByteBuffer buffer;
+    private final long[] values = new long[Counter.VALUES.length];
+    private final Path file;
+
+    private TransportCounters(final ByteBuffer buffer, final Path file)
+    {
+        this.buffer = buffer;
+        this.file = file;
+    }
+
+    /**
+     * @return counters for a new transport instance on the ring at {@code ringPath}, in a file if
+     * {@value #IPC_COUNTERS_DIR} is set
+     */
+    static TransportCounters forRing(final Path ringPath, final long capacity) throws IOException
+    {
+        if (COUNTERS_DIR == null)
+        {
+            return new TransportCounters(ByteBuffer.allocateDirect(FILE_LENGTH), null);
+        }
+
+        final long pid = ProcessHandle.current().pid();
+        final Path directory = Paths.get(COUNTERS_DIR);
+        Files.createDirectories(directory);
+        final Path file = directory.resolve(
+                ringPath.getFileName() + "-" + pid + "-" + INSTANCE_ID.getAndIncrement() + FILE_SUFFIX);
+        final ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE))
+        {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, FILE_LENGTH);
+        }
+
+        final byte[] path = ringPath.toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+        final int pathLength = Math.min(path.length, MAX_PATH_LENGTH);
+        VIEW.set(buffer, PID_OFFSET, pid);
+        VIEW.set(buffer, CAPACITY_OFFSET, capacity);
+        VIEW.set(buffer, PATH_LENGTH_OFFSET, (long) pathLength);
+        buffer.duplicate().position(PATH_OFFSET).put(path, path.length - pathLength, pathLength);
+        VIEW.setRelease(buffer, COUNT_OFFSET, (long) Counter.VALUES.length);
+        if (DEBUG)
+        {
+            System.out.printf("Counters for %s in %s%n", ringPath, file);
+        }
+        return new TransportCounters(buffer, file);
+    }
+
+    /**
+     * @return the counters file, or null if the counters are not visible to other processes
+     */
+    public Path file()
+    {
+        return file;
+    }
+
+    /**
+     * @return the last published value of {@code counter}, which may be read from any thread
+     */
+    public long get(final Counter counter)
+    {
+        return (long) VIEW.getVolatile(buffer, counter.offset());
+    }
+
+    void increment(final Counter counter)
+    {
+        add(counter, 1L);
+    }
+
+    void add(final Counter counter, final long delta)
+    {
+        set(counter, values[counter.ordinal()] + delta);
+    }
+
+    void set(final Counter counter, final long value)
+    {
+        values[counter.ordinal()] = value;
+        VIEW.setRelease(buffer, counter.offset(), value);
+    }
+}
@@ -0,0 +1,154 @@
+package com.aitusoftware.messaging.ipc;
+
+import com.aitusoftware.messaging.ipc.TransportCounters.Counter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Read-only view of a {@link TransportCounters} file. The file is mapped read-only, and every sample is a set
+ * of volatile loads, so a reader never writes to the cache lines of the transport it watches.
+ * <p>
+ * Run as a program, it prints every counter of each file in {@value TransportCounters#IPC_COUNTERS_DIR}
+ * (or of the files given as arguments) every {@code ipc.counters.intervalMs}, with the rate of change since
+ * the previous sample. Counters of processes that have exited are marked as such.
+ */
+public final class TransportCountersReader
+{
+    private static final long INTERVAL_MS = Long.getLong("ipc.counters.intervalMs", 1000L);
+    private static final int SAMPLE_COUNT = Integer.getInteger("ipc.counters.samples", 0);
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final long pid;
+    private final long capacity;
+    private final String ringPath;
+    private final long[] lastValues = new long[Counter.VALUES.length];
+
+    public TransportCountersReader(final Path file) throws IOException
+    {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            if (channel.size() < TransportCounters.FILE_LENGTH)
+            {
+                throw new IllegalArgumentException(String.format(
+                        "File %s of %db does not hold transport counters", file, channel.size()));
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, TransportCounters.FILE_LENGTH);
+        }
+        if ((long) TransportCounters.VIEW.getVolatile(buffer, TransportCounters.COUNT_OFFSET) !=
+                Counter.VALUES.length)
+        {
+            throw new IllegalArgumentException("Counters in " + file + " are not initialised");
+        }
+        pid = (long) TransportCounters.VIEW.get(buffer, TransportCounters.PID_OFFSET);
+        capacity = (long) TransportCounters.VIEW.get(buffer, TransportCounters.CAPACITY_OFFSET);
+        final byte[] path = new byte[(int) (long) TransportCounters.VIEW.get(buffer,
+                TransportCounters.PATH_LENGTH_OFFSET)];
+        buffer.duplicate().position(TransportCounters.PATH_OFFSET).get(path);
+        ringPath = new String(path, StandardCharsets.UTF_8);
+        for (Counter counter : Counter.VALUES)
+        {
+            lastValues[counter.ordinal()] = get(counter);
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        final List<TransportCountersReader> readers = new ArrayList<>();
+        for (Path file : counterFiles(args))
+        {
+            try
+            {
+                readers.add(new TransportCountersReader(file));
+            }
+            catch (IllegalArgumentException e)
+            {
+                System.out.println(e.getMessage());
+            }
+        }
+        if (readers.isEmpty())
+        {
+            System.out.println("No counters found");
+            return;
+        }
+
+        long lastSampleNanos = System.nanoTime();
+        for (int i = 0; SAMPLE_COUNT == 0 || i < SAMPLE_COUNT; i++)
+        {
+            Thread.sleep(INTERVAL_MS);
+            final long sampleNanos = System.nanoTime();
+            final double intervalSeconds = (sampleNanos - lastSampleNanos) / (double) TimeUnit.SECONDS.toNanos(1L);
+            for (TransportCountersReader reader : readers)
+            {
+                reader.print(intervalSeconds);
+            }
+            System.out.println();
+            lastSampleNanos = sampleNanos;
+        }
+    }
+
+    public long get(final Counter counter)
+    {
+        return (long) TransportCounters.VIEW.getVolatile(buffer, counter.offset());
+    }
+
+    public long pid()
+    {
+        return pid;
+    }
+
+    public long capacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * @return the ring path recorded by the transport, trimmed to its last
+     * {@value TransportCounters#MAX_PATH_LENGTH} bytes
+     */
+    public String ringPath()
+    {
+        return ringPath;
+    }
+
+    private void print(final double intervalSeconds)
+    {
+        final boolean alive = ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+        System.out.printf("%s (ring: %s, capacity: %d, pid: %d%s)%n",
+                file.getFileName(), ringPath, capacity, pid, alive ? "" : ", exited");
+        for (Counter counter : Counter.VALUES)
+        {
+            final long value = get(counter);
+            System.out.printf("    %-20s %20d %15.0f/s%n",
+                    counter, value, (value - lastValues[counter.ordinal()]) / intervalSeconds);
+            lastValues[counter.ordinal()] = value;
+        }
+    }
+
+    private static List<Path> counterFiles(final String[] args) throws IOException
+    {
+        if (args.length != 0)
+        {
+            return Stream.of(args).map(Paths::get).collect(Collectors.toList());
+        }
+        final Path directory = Paths.get(System.getProperty(TransportCounters.IPC_COUNTERS_DIR, "/dev/shm/ipc-counters"));
+        try (Stream<Path> files = Files.list(directory))
+        {
+            return files.filter(f -> f.getFileName().toString().endsWith(TransportCounters.FILE_SUFFIX))
+                    .sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.aitusoftware.messaging.ipc;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Opens one {@link Transport} implementation, and allocates and accesses the messages it carries, so that
+ * harnesses and benchmarks can be written once for every implementation.
+ *
+ * @param <M> the message type of the transport
+ */
+public interface TransportFactory<M>
+{
+    String name();
+
+    Transport<M> open(Path path, long size, RecordFormat format) throws IOException;
+
+    /**
+     * @return a message of {@code length} bytes in off-heap memory, ready to be written
+     */
+    M allocate(int length);
+
+    /**
+     * Makes a message ready to be written again, after a previous write may have consumed it.
+     */
+    void rewind(M message);
+
+    /**
+     * @param offset from the start of the message payload
+     */
+    long getLong(M message, int offset);
+
+    /**
+     * @param offset from the start of the message payload
+     */
+    void putLong(M message, int offset, long value);
+}
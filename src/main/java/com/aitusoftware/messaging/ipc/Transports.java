@@ -0,0 +1,148 @@
+package com.aitusoftware.messaging.ipc;
+
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+
+/**
+ * The {@link TransportFactory} for each transport implementation, selected by name with {@value #IPC_TRANSPORT}.
+ * Every factory accesses message payloads in native byte order, so that messages written through one
+ * implementation can be read through another.
+ */
+public final class Transports
+{
+    public static final String IPC_TRANSPORT = "ipc.transport";
+    public static final String UNSAFE = "unsafe";
+    public static final String VAR_HANDLE = "varhandle";
+    public static final String MEMORY_SEGMENT = "segment";
+
+    private static final String MEMORY_SEGMENT_FACTORY = "com.aitusoftware.messaging.ipc.MemorySegmentTransportFactory";
+
+    private Transports()
+    {
+    }
+
+    /**
+     * @return the factory named by {@value #IPC_TRANSPORT}, or by {@code defaultName} if it is not set
+     */
+    public static TransportFactory<Object> fromSystemProperties(final String defaultName)
+    {
+        return forName(System.getProperty(IPC_TRANSPORT, defaultName));
+    }
+
+    /**
+     * Looks up a factory by name. The {@value #MEMORY_SEGMENT} transport is built by the {@code jdk21}
+     * profile, and needs {@code --enable-preview} at run time.
+     */
+    @SuppressWarnings("unchecked")
+    public static <M> TransportFactory<M> forName(final String name)
+    {
+        switch (name)
+        {
+            case UNSAFE:
+                return (TransportFactory<M>) new UnsafeBufferTransportFactory();
+            case VAR_HANDLE:
+                return (TransportFactory<M>) new ByteBufferTransportFactory();
+            case MEMORY_SEGMENT:
+                try
+                {
+                    return (TransportFactory<M>) Class.forName(MEMORY_SEGMENT_FACTORY)
+                            .getDeclaredConstructor().newInstance();
+                }
+                catch (ReflectiveOperationException | LinkageError e)
+                {
+                    throw new IllegalStateException("The " + MEMORY_SEGMENT + " transport needs a build on JDK 21 " +
+                            "(profile jdk21), run with --enable-preview", e);
+                }
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + name);
+        }
+    }
+
+    private static final class UnsafeBufferTransportFactory implements TransportFactory<UnsafeBuffer>
+    {
+        @Override
+        public String name()
+        {
+            return UNSAFE;
+        }
+
+        @Override
+        public Transport<UnsafeBuffer> open(final Path path, final long size, final RecordFormat format)
+                throws IOException
+        {
+            return new UnsafeBufferTransport(path, size, format);
+        }
+
+        @Override
+        public UnsafeBuffer allocate(final int length)
+        {
+            return new UnsafeBuffer(ByteBuffer.allocateDirect(length));
+        }
+
+        @Override
+        public void rewind(final UnsafeBuffer message)
+        {
+        }
+
+        @Override
+        public long getLong(final UnsafeBuffer message, final int offset)
+        {
+            return message.getLong(offset);
+        }
+
+        @Override
+        public void putLong(final UnsafeBuffer message, final int offset, final long value)
+        {
+            message.putLong(offset, value);
+        }
+    }
+
+    private static final class ByteBufferTransportFactory implements TransportFactory<ByteBuffer>
+    {
+        private static final VarHandle VIEW =
+                MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+        @Override
+        public String name()
+        {
+            return VAR_HANDLE;
+        }
+
+        @Override
+        public Transport<ByteBuffer> open(final Path path, final long size, final RecordFormat format)
+                throws IOException
+        {
+            return new OffHeapByteBufferTransport(path, size, format);
+        }
+
+        @Override
+        public ByteBuffer allocate(final int length)
+        {
+            return ByteBuffer.allocateDirect(length);
+        }
+
+        @Override
+        public void rewind(final ByteBuffer message)
+        {
+            message.clear();
+        }
+
+        @Override
+        public long getLong(final ByteBuffer message, final int offset)
+        {
+            return (long) VIEW.get(message, message.position() + offset);
+        }
+
+        @Override
+        public void putLong(final ByteBuffer message, final int offset, final long value)
+        {
+            VIEW.set(message, message.position() + offset, value);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package com.aitusoftware.messaging.ipc;
+
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import static com.aitusoftware.messaging.ipc.Util.BROADCAST_DATA_OFFSET;
+import static com.aitusoftware.messaging.ipc.Util.BROADCAST_MAX_SUBSCRIBERS;
+import static com.aitusoftware.messaging.ipc.Util.BROADCAST_SUBSCRIBER_COUNT_OFFSET;
+import static com.aitusoftware.messaging.ipc.Util.CACHE_LINE_SIZE_IN_BYTES;
+import static com.aitusoftware.messaging.ipc.Util.PUBLISHER_SEQUENCE_OFFSET;
+import static com.aitusoftware.messaging.ipc.Util.RECORD_TYPE_MESSAGE;
+import static com.aitusoftware.messaging.ipc.Util.RECORD_TYPE_PADDING;
+
+/**
+ * Single-publisher ring that any number of registered subscribers (up to
+ * {@link Util#BROADCAST_MAX_SUBSCRIBERS} at a time) read independently. Each subscriber owns a padded position
+ * slot in the metadata region, and the publisher only waits for the slowest of them.
+ * <p>
+ * Subscribers never modify the ring. Instead, the publisher zeroes the header word following each record
+ * before committing it, so a subscriber that has caught up always finds an empty header rather than one
+ * left over from the previous lap. The publisher sequence in the metadata region is only advanced once a
+ * record is committed, so that a newly registered subscriber starts on a record boundary.
+ * <p>
+ * Records are laid out by a {@link RecordFormat}, as in the unicast rings. A record that would run past the end
+ * of the ring is preceded by a padding record covering the rest of the lap, which is published on its own,
+ * and the record itself is then written at the start of the next lap.
+ */
+public final class UnsafeBroadcastTransport implements AutoCloseable
+{
+    private static final boolean DEBUG = false;
+    private static final boolean WAIT_FOR_SUBSCRIBER = !Boolean.getBoolean("ipc.disable.subscriberGate");
+    private static final int NOT_REGISTERED = -1;
+    private static final int HEADER_WORD_LENGTH = 8;
+    private static final long RETIRED = Long.MAX_VALUE;
+    public static final long BACK_PRESSURED = -2L;
+
+    private final UnsafeBuffer data;
+    private final UnsafeBuffer messageBuffer;
+    private final RecordFormat format;
+    private final int headerLength;
+    private final long mask;
+    private final FileChannel channel;
+    private final Path path;
+
+    // publisher state
+    private long writeOffset;
+    private long publisherPosition;
+    private long nextSubscriberSequenceCheck = -1L;
+    private final IdleStrategy publisherIdleStrategy = Util.newIdleStrategy(Util.PUBLISHER_IDLE_STRATEGY);
+
+    // subscriber state
+    private int subscriberSequenceOffset = NOT_REGISTERED;
+    private long lastConsumedSequence = 0L;
+    private final UnsafeBuffer receiverView = new UnsafeBuffer();
+
+    public UnsafeBroadcastTransport(Path path, long size) throws IOException
+    {
+        this(path, size, RecordFormat.CACHE_LINE);
+    }
+
+    /**
+     * @param format the layout of records in the ring, which every publisher and subscriber of the file must share
+     */
+    public UnsafeBroadcastTransport(Path path, long size, RecordFormat format) throws IOException
+    {
+        if (format.epochStamped())
+        {
+            throw new IllegalArgumentException("Broadcast rings do not support epoch-stamped records: " + format);
+        }
+        this.path = path;
+        this.format = format;
+        this.headerLength = format.headerLength();
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ);
+        final MappedByteBuffer data = channel.
+                map(FileChannel.MapMode.READ_WRITE, 0L, size + BROADCAST_DATA_OFFSET + 8);
+
+        if (Long.bitCount(size) != 1)
+        {
+            throw new IllegalArgumentException("Buffer Size must be a power of two");
+        }
+
+        ByteBuffer aligned = data.alignedSlice(8);
+        this.data = new UnsafeBuffer(aligned);
+        this.messageBuffer = new UnsafeBuffer(aligned, BROADCAST_DATA_OFFSET, (int) size);
+        this.mask = messageBuffer.capacity() - 1;
+
+        if (data.remaining() < 2 * CACHE_LINE_SIZE_IN_BYTES)
+        {
+            throw new IllegalArgumentException();
+        }
+        if (data.alignmentOffset(0, 8) != 0)
+        {
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Claims a subscriber slot for this instance, starting from the current publisher sequence. The slot of a
+     * subscriber that has been closed is reused, so at most {@link Util#BROADCAST_MAX_SUBSCRIBERS} subscribers
+     * may be registered at a time.
+     *
+     * @return the index of the claimed slot
+     */
+    public int registerSubscriber()
+    {
+        if (subscriberSequenceOffset != NOT_REGISTERED)
+        {
+            throw new IllegalStateException("Subscriber already registered");
+        }
+        final int subscriberIndex = claimSubscriberSlot();
+        subscriberSequenceOffset = Util.broadcastSubscriberSequenceOffset(subscriberIndex);
+        lastConsumedSequence = data.getLongVolatile(PUBLISHER_SEQUENCE_OFFSET);
+        data.putLongOrdered(subscriberSequenceOffset, lastConsumedSequence);
+        if (DEBUG)
+        {
+            System.out.printf("%s %s registered subscriber %d at %d%n", path,
+                    Thread.currentThread().getName(), subscriberIndex, lastConsumedSequence);
+        }
+        return subscriberIndex;
+    }
+
+    /**
+     * Takes the slot of a retired subscriber if there is one, or else the next unused slot. The count of
+     * slots in use is only advanced when a slot is taken. A claimed slot holds zero until its subscriber
+     * stores its starting position, which holds the publisher back in the meantime.
+     */
+    private int claimSubscriberSlot()
+    {
+        while (true)
+        {
+            final int subscriberCount = (int) Math.min(
+                    data.getLongVolatile(BROADCAST_SUBSCRIBER_COUNT_OFFSET), BROADCAST_MAX_SUBSCRIBERS);
+            for (int i = 0; i < subscriberCount; i++)
+            {
+                if (data.compareAndSetLong(Util.broadcastSubscriberSequenceOffset(i), RETIRED, 0L))
+                {
+                    return i;
+                }
+            }
+            if (subscriberCount == BROADCAST_MAX_SUBSCRIBERS)
+            {
+                throw new IllegalStateException(String.format(
+                        "No subscriber slots left in %s, maximum is %d", path, BROADCAST_MAX_SUBSCRIBERS));
+            }
+            if (data.compareAndSetLong(BROADCAST_SUBSCRIBER_COUNT_OFFSET, subscriberCount, subscriberCount + 1))
+            {
+                return subscriberCount;
+            }
+        }
+    }
+
+    /**
+     * Writes {@code message}, waiting for the slowest subscriber if the ring is full.
+     *
+     * @return the sequence of the written record, or -1 if {@code message} is empty
+     * @throws IllegalArgumentException if the record does not fit in the ring
+     */
+    public long writeRecord(final UnsafeBuffer message)
+    {
+        final int messageSize = message.capacity();
+        if (messageSize == 0)
+        {
+            return -1;
+        }
+
+        final int headerOffset = claimRecord(messageSize);
+        messageBuffer.putBytes(headerOffset + headerLength, message, 0, messageSize);
+        commit(headerOffset, Util.recordHeader(RECORD_TYPE_MESSAGE, messageSize));
+        return writeOffset;
+    }
+
+    /**
+     * Writes {@code message} only if the slowest subscriber has consumed enough of the ring to make room for it.
+     * A message that must start from the next lap may publish the padding at the end of the ring even when it is
+     * then back-pressured, so that a message close to the size of the ring is not refused forever.
+     *
+     * @return the sequence of the written record, {@link #BACK_PRESSURED} if a subscriber is too far
+     * behind, or -1 if {@code message} is empty
+     */
+    public long tryWriteRecord(final UnsafeBuffer message)
+    {
+        final int messageSize = message.capacity();
+        if (messageSize == 0)
+        {
+            return -1;
+        }
+        if (isBackPressured(messageSize))
+        {
+            return BACK_PRESSURED;
+        }
+
+        return writeRecord(message);
+    }
+
+    public int poll(final Consumer<UnsafeBuffer> receiver)
+    {
+        return poll(receiver, 1);
+    }
+
+    /**
+     * Reads up to {@code fragmentLimit} records and publishes this subscriber's position once for the batch.
+     *
+     * @return the number of records handed to {@code receiver}
+     */
+    public int poll(final Consumer<UnsafeBuffer> receiver, final int fragmentLimit)
+    {
+        if (subscriberSequenceOffset == NOT_REGISTERED)
+        {
+            throw new IllegalStateException("Subscriber not registered");
+        }
+
+        long position = lastConsumedSequence;
+        int fragmentsRead = 0;
+        while (fragmentsRead < fragmentLimit)
+        {
+            final int headerOffset = mask(position);
+            final long header = messageBuffer.getLongVolatile(headerOffset);
+            if (header == 0L)
+            {
+                break;
+            }
+            if (Util.recordType(header) == RECORD_TYPE_PADDING)
+            {
+                position += Util.recordLength(header);
+                continue;
+            }
+
+            final int messageSize = Util.recordLength(header);
+            if (DEBUG)
+            {
+                System.out.printf("%s %s Read message of %db at %d [%d]%n",
+                        path, Thread.currentThread().getName(),
+                        messageSize, headerOffset, position);
+            }
+            receiverView.wrap(messageBuffer, headerOffset + headerLength, messageSize);
+            receiver.accept(receiverView);
+
+            position += format.recordLength(messageSize);
+            fragmentsRead++;
+        }
+
+        if (position != lastConsumedSequence)
+        {
+            data.putLongOrdered(subscriberSequenceOffset, position);
+            lastConsumedSequence = position;
+        }
+
+        return fragmentsRead;
+    }
+
+    /**
+     * Retires this instance's subscriber slot, if it has one, so that the publisher no longer waits for it
+     * and a later subscriber may reuse it.
+     */
+    @Override
+    public void close() throws Exception
+    {
+        if (subscriberSequenceOffset != NOT_REGISTERED)
+        {
+            data.putLongOrdered(subscriberSequenceOffset, RETIRED);
+            subscriberSequenceOffset = NOT_REGISTERED;
+        }
+        channel.close();
+    }
+
+    /**
+     * Reserves a record at the publisher position, waiting for the slowest subscriber to leave room for it and
+     * for the header word that follows it. A record that would run past the end of the ring first waits for
+     * the rest of the lap alone, which is committed as padding before the record is reserved from the start of
+     * the next lap.
+     */
+    private int claimRecord(final int messageSize)
+    {
+        final int paddedSize = recordLength(messageSize);
+        final int padding = padding(paddedSize);
+        if (padding != 0)
+        {
+            waitForSlowSubscribers(publisherPosition + padding + HEADER_WORD_LENGTH);
+            writePadding(padding);
+        }
+
+        writeOffset = publisherPosition;
+        waitForSlowSubscribers(writeOffset + paddedSize + HEADER_WORD_LENGTH);
+        publisherPosition += paddedSize;
+        return mask(writeOffset);
+    }
+
+    /**
+     * Publishes the record at {@code headerOffset}, which ends at the publisher position, after clearing the
+     * header word that follows it.
+     */
+    private void commit(final int headerOffset, final long header)
+    {
+        messageBuffer.putLong(mask(publisherPosition), 0L);
+        messageBuffer.putLongOrdered(headerOffset, header);
+        data.putLongOrdered(PUBLISHER_SEQUENCE_OFFSET, publisherPosition);
+    }
+
+    private boolean isBackPressured(final int messageSize)
+    {
+        if (!WAIT_FOR_SUBSCRIBER)
+        {
+            return false;
+        }
+        final int paddedSize = recordLength(messageSize);
+        final int padding = padding(paddedSize);
+        if (padding != 0)
+        {
+            // the padding is published on its own, as the record and the padding together may not fit at once
+            if (!hasCapacity(publisherPosition + padding + HEADER_WORD_LENGTH))
+            {
+                return true;
+            }
+            writePadding(padding);
+        }
+        return !hasCapacity(publisherPosition + paddedSize + HEADER_WORD_LENGTH);
+    }
+
+    private void writePadding(final int padding)
+    {
+        final int paddingOffset = mask(publisherPosition);
+        if (DEBUG)
+        {
+            System.out.printf("%s %s Writing %db padding at %d [%d]%n",
+                    path, Thread.currentThread().getName(), padding, paddingOffset, publisherPosition);
+        }
+        publisherPosition += padding;
+        commit(paddingOffset, Util.recordHeader(RECORD_TYPE_PADDING, padding));
+    }
+
+    /**
+     * @return the length of padding needed at the publisher position before a record of {@code paddedSize}
+     * bytes, which is the rest of the lap if the record would run past the end of the ring, or else zero
+     */
+    private int padding(final int paddedSize)
+    {
+        final int offset = mask(publisherPosition);
+        return offset + paddedSize > messageBuffer.capacity() ? messageBuffer.capacity() - offset : 0;
+    }
+
+    private void waitForSlowSubscribers(final long limitPosition)
+    {
+        if (WAIT_FOR_SUBSCRIBER && !hasCapacity(limitPosition))
+        {
+            do
+            {
+                publisherIdleStrategy.idle();
+            }
+            while (!hasCapacity(limitPosition));
+            publisherIdleStrategy.reset();
+        }
+    }
+
+    private boolean hasCapacity(final long limitPosition)
+    {
+        if (limitPosition > nextSubscriberSequenceCheck)
+        {
+            nextSubscriberSequenceCheck = getSlowestSubscriberOffset() + messageBuffer.capacity();
+        }
+        return limitPosition <= nextSubscriberSequenceCheck;
+    }
+
+    private long getSlowestSubscriberOffset()
+    {
+        final int subscriberCount = (int) Math.min(
+                data.getLongVolatile(BROADCAST_SUBSCRIBER_COUNT_OFFSET), BROADCAST_MAX_SUBSCRIBERS);
+        // a subscriber registering now starts no earlier than the last committed record
+        long slowest = data.getLongVolatile(PUBLISHER_SEQUENCE_OFFSET);
+        for (int i = 0; i < subscriberCount; i++)
+        {
+            slowest = Math.min(slowest, data.getLongVolatile(Util.broadcastSubscriberSequenceOffset(i)));
+        }
+        return slowest;
+    }
+
+    /**
+     * @return the number of ring bytes taken by a record of {@code messageSize} bytes, which must leave room in
+     * the ring for the header word that the publisher clears after it
+     */
+    private int recordLength(final int messageSize)
+    {
+        final int paddedSize = format.recordLength(messageSize);
+        if (paddedSize >= messageBuffer.capacity())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Message of %db does not fit in a buffer of %db", messageSize, messageBuffer.capacity()));
+        }
+        return paddedSize;
+    }
+
+    private int mask(long sequence)
+    {
+        return (int) (sequence & mask);
+    }
+}
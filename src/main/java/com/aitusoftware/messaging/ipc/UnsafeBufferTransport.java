@@ -1,5 +1,7 @@
 package com.aitusoftware.messaging.ipc;
 
+import com.aitusoftware.messaging.ipc.TransportCounters.Counter;
+import org.agrona.concurrent.IdleStrategy;
 import org.agrona.concurrent.UnsafeBuffer;
 
 import java.io.IOException;
@@ -12,37 +14,81 @@ import java.util.function.Consumer;
 
 import static com.aitusoftware.messaging.ipc.Util.CACHE_LINE_SIZE_IN_BYTES;
 import static com.aitusoftware.messaging.ipc.Util.DATA_OFFSET;
-import static com.aitusoftware.messaging.ipc.Util.MESSAGE_HEADER_LENGTH;
+import static com.aitusoftware.messaging.ipc.Util.PUBLISHER_OWNER_OFFSET;
 import static com.aitusoftware.messaging.ipc.Util.PUBLISHER_SEQUENCE_OFFSET;
+import static com.aitusoftware.messaging.ipc.Util.RECORD_TYPE_MESSAGE;
+import static com.aitusoftware.messaging.ipc.Util.RECORD_TYPE_PADDING;
 import static com.aitusoftware.messaging.ipc.Util.SUBSCRIBER_SEQUENCE_OFFSET;
 
-public final class UnsafeBufferTransport implements AutoCloseable
+public final class UnsafeBufferTransport implements Transport<UnsafeBuffer>
 {
     private static final boolean DEBUG = false;
     private static final boolean WAIT_FOR_SUBSCRIBER = !Boolean.getBoolean("ipc.disable.subscriberGate");
+    private static final int NO_CAPACITY = -1;
+    private static final int HEADER_WORD_LENGTH = 8;
+    private static final int CLEAN_AHEAD_LENGTH = Integer.getInteger("ipc.pub.cleanAheadLength", 64 * 1024);
 
     private final UnsafeBuffer data;
     private final UnsafeBuffer messageBuffer;
     private final long mask;
     private final FileChannel channel;
     private final Path path;
+    private final RecordFormat format;
+    private final TransportCounters counters;
+    private final int headerLength;
+    private final boolean zeroOnConsume;
+    private final int epochShift;
+    private final long epochMask;
+    private final Journal journal;
 
     // publisher state
     private long writeOffset;
     private long nextSubscriberSequenceCheck = -1L;
-    private long nextBufferWrapSequence;
+    private long cleanPosition;
+    private final long publisherToken = Util.newPublisherToken();
+    private boolean ownsRing;
+    private final IdleStrategy publisherIdleStrategy = Util.newIdleStrategy(Util.PUBLISHER_IDLE_STRATEGY);
 
     // subscriber state
-    private long lastConsumedSequence = 0L;
+    private long lastConsumedSequence;
     private final UnsafeBuffer receiverView = new UnsafeBuffer();
 
     public UnsafeBufferTransport(Path path, long size) throws IOException
+    {
+        this(path, size, RecordFormat.CACHE_LINE);
+    }
+
+    public UnsafeBufferTransport(Path path, long size, RecordFormat format) throws IOException
+    {
+        this(path, size, format, null);
+    }
+
+    /**
+     * Maps the ring at {@code path}, creating it if it does not exist. An existing ring of the same size is
+     * attached to as it stands, so that a restarted process carries on where it stopped: the publisher from
+     * the stored publisher sequence, and the subscriber after the last record it consumed. The ring must
+     * still be opened with the record format it was written with.
+     *
+     * @param journal if not null, every record this instance publishes is also appended to {@code journal}
+     */
+    public UnsafeBufferTransport(Path path, long size, RecordFormat format, Journal journal) throws IOException
     {
         this.path = path;
+        this.journal = journal;
+        this.format = format;
+        this.headerLength = format.headerLength();
         channel = FileChannel.open(path, StandardOpenOption.CREATE,
                 StandardOpenOption.WRITE, StandardOpenOption.READ);
+        final long fileLength = channel.size();
+        if (fileLength != 0L && fileLength != size + DATA_OFFSET + 8)
+        {
+            channel.close();
+            throw new IllegalArgumentException(String.format(
+                    "Existing file %s of %db does not hold a ring of %db", path, fileLength, size));
+        }
         final MappedByteBuffer data = channel.
                 map(FileChannel.MapMode.READ_WRITE, 0L, size + DATA_OFFSET + 8);
+        Util.prepareMapping(path, data);
 
         if (Long.bitCount(size) != 1)
         {
@@ -62,9 +108,19 @@ public final class UnsafeBufferTransport implements AutoCloseable
         {
             throw new IllegalArgumentException();
         }
-        nextBufferWrapSequence = messageBuffer.capacity();
+
+        this.zeroOnConsume = !format.epochStamped();
+        this.epochShift = Long.numberOfTrailingZeros(size);
+        this.epochMask = format.epochStamped() ? Util.RECORD_EPOCH_MASK : 0L;
+        // a ring that has never been written to is already clean for its first lap
+        final long publisherSequence = this.data.getLongVolatile(PUBLISHER_SEQUENCE_OFFSET);
+        this.cleanPosition = publisherSequence == 0L ? size : publisherSequence;
+        // attaching to an existing ring resumes after the last record a subscriber consumed
+        this.lastConsumedSequence = this.data.getLongVolatile(SUBSCRIBER_SEQUENCE_OFFSET);
+        this.counters = TransportCounters.forRing(path, size);
     }
 
+    @Override
     public long writeRecord(final UnsafeBuffer message)
     {
         final int messageSize = message.capacity();
@@ -73,68 +129,198 @@ public final class UnsafeBufferTransport implements AutoCloseable
             return -1;
         }
 
-        updateSubscriberCheckOffset(messageSize);
-        waitForSlowSubscribers(messageSize);
+        return writeRecord(message, messageSize, true);
+    }
 
+    /**
+     * Writes {@code message} only if the subscriber has consumed enough of the ring to make room for it.
+     * Unlike {@link #writeRecord}, this never waits for the subscriber, and reserves no space for the record
+     * when it fails, although it may already have padded out the end of the lap.
+     *
+     * @return the sequence of the written record, {@link #BACK_PRESSURED} if the subscriber is too far
+     * behind, or -1 if {@code message} is empty
+     */
+    @Override
+    public long tryWriteRecord(final UnsafeBuffer message)
+    {
+        final int messageSize = message.capacity();
+        if (messageSize == 0)
+        {
+            return -1;
+        }
 
-        final int paddedSize = Util.padToCacheLine(messageSize + MESSAGE_HEADER_LENGTH);
+        return writeRecord(message, messageSize, false);
+    }
 
-        writeOffset = data.getAndAddLong(PUBLISHER_SEQUENCE_OFFSET, paddedSize);
-        if (writeOffset + paddedSize > nextBufferWrapSequence)
+    /**
+     * Writes each of the first {@code count} {@code messages} as consecutive records, reserving space for the
+     * whole batch with a single update of the publisher sequence, and waiting for the subscriber if the ring is
+     * full. Each record is released to the subscriber as soon as it is copied, and empty messages are skipped.
+     * <p>
+     * A batch is never split across the end of the ring. When it would cross the end, the rest of the lap is
+     * first published as padding on its own, and the whole batch is then reserved from the start of the next
+     * lap, so any batch that fits in the ring as a whole is accepted.
+     *
+     * @throws IllegalArgumentException if the records of the batch together are longer than the ring
+     *
+     * @return the sequence of the first written record, or -1 if every message is empty
+     */
+    public long writeRecords(final UnsafeBuffer[] messages, final int count)
+    {
+        long batchLength = 0L;
+        long batchBytes = 0L;
+        int recordCount = 0;
+        for (int i = 0; i < count; i++)
         {
-            if (DEBUG)
+            final int messageSize = messages[i].capacity();
+            if (messageSize != 0)
             {
-                System.out.printf("%s %s Buffer overrun, writing %d at %d and attempting another message%n",
-                        path, Thread.currentThread().getName(), -paddedSize, mask(writeOffset));
+                batchLength += format.recordLength(messageSize);
+                batchBytes += messageSize;
+                recordCount++;
             }
-            nextBufferWrapSequence = nextBufferWrapSequence + messageBuffer.capacity();
+        }
+        if (recordCount == 0)
+        {
+            return -1;
+        }
+        if (batchLength > messageBuffer.capacity())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Batch of %d records (%db) does not fit in a buffer of %db",
+                    recordCount, batchLength, messageBuffer.capacity()));
+        }
 
-            final int forwardingPointPosition = mask(writeOffset);
-            long retryResult = writeRecord(message);
-            messageBuffer.putLongOrdered(forwardingPointPosition, (long) -paddedSize);
-            return retryResult;
+        int headerOffset = claim((int) batchLength, recordCount, batchBytes, true);
+        // the batch lies within a single lap, so all of its records share an epoch
+        final long epoch = epoch(writeOffset);
+        for (int i = 0; i < count; i++)
+        {
+            final UnsafeBuffer message = messages[i];
+            final int messageSize = message.capacity();
+            if (messageSize == 0)
+            {
+                continue;
+            }
+            messageBuffer.putBytes(headerOffset + headerLength, message, 0, messageSize);
+            if (journal != null)
+            {
+                journal.append(message, 0, messageSize);
+            }
+            messageBuffer.putLongOrdered(headerOffset, Util.recordHeader(epoch, RECORD_TYPE_MESSAGE, messageSize));
+            headerOffset += format.recordLength(messageSize);
         }
+        return writeOffset;
+    }
 
-        int headerOffset = mask(writeOffset);
-        int actualOffset = headerOffset + MESSAGE_HEADER_LENGTH;
-        if (DEBUG)
+    /**
+     * Writes the first {@code count} {@code fragments} back to back as a single record, e.g. a header and a
+     * body held in separate buffers, waiting for the subscriber if the ring is full.
+     *
+     * @return the sequence of the written record, or -1 if every fragment is empty
+     */
+    public long writeGatheredRecord(final UnsafeBuffer[] fragments, final int count)
+    {
+        long messageSize = 0L;
+        for (int i = 0; i < count; i++)
+        {
+            messageSize += fragments[i].capacity();
+        }
+        if (messageSize == 0L)
+        {
+            return -1;
+        }
+        if (messageSize > messageBuffer.capacity())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Message of %db does not fit in a buffer of %db", messageSize, messageBuffer.capacity()));
+        }
+
+        final int headerOffset = claimRecord((int) messageSize, true);
+        int offset = headerOffset + headerLength;
+        for (int i = 0; i < count; i++)
+        {
+            final UnsafeBuffer fragment = fragments[i];
+            messageBuffer.putBytes(offset, fragment, 0, fragment.capacity());
+            offset += fragment.capacity();
+        }
+        if (journal != null)
+        {
+            journal.append(messageBuffer, headerOffset + headerLength, (int) messageSize);
+        }
+        messageBuffer.putLongOrdered(headerOffset,
+                Util.recordHeader(epoch(writeOffset), RECORD_TYPE_MESSAGE, (int) messageSize));
+        return writeOffset;
+    }
+
+    /**
+     * Reserves a record of {@code length} bytes at the publisher sequence and points {@code bufferClaim}
+     * at its payload, so that the message can be encoded in place. The record becomes visible to the
+     * subscriber on {@link BufferClaim#commit()}, or is skipped after {@link BufferClaim#abort()}.
+     * <p>
+     * Like {@link #tryWriteRecord}, the claim fails without reserving space if the subscriber is too far behind.
+     *
+     * @return the sequence of the claimed record, {@link #BACK_PRESSURED} if the subscriber is too far
+     * behind, or -1 if {@code length} is not positive
+     */
+    public long tryClaim(final int length, final BufferClaim bufferClaim)
+    {
+        if (length <= 0)
+        {
+            return -1;
+        }
+
+        final int headerOffset = claimRecord(length, false);
+        if (headerOffset == NO_CAPACITY)
         {
-            System.out.printf("%s %s Writing message of %db at %d [%d]%n",
-                    path, Thread.currentThread().getName(),
-                    paddedSize, headerOffset, writeOffset);
+            return BACK_PRESSURED;
         }
-        messageBuffer.putBytes(actualOffset, message, 0, messageSize);
-        messageBuffer.putLongOrdered(headerOffset, (long) messageSize);
+        bufferClaim.wrap(messageBuffer, headerOffset, length, format, epoch(writeOffset), journal);
         return writeOffset;
     }
 
+    @Override
     public int poll(final Consumer<UnsafeBuffer> receiver)
     {
-        int messageSize = (int) messageBuffer.getLongVolatile(mask(lastConsumedSequence));
+        long header = readHeader(lastConsumedSequence);
 
-        if (messageSize < 0L)
+        while (Util.recordType(header) == RECORD_TYPE_PADDING)
         {
-            this.lastConsumedSequence += -messageSize;
-            messageSize = (int) ((long) messageBuffer.getLongVolatile(mask(this.lastConsumedSequence)));
+            final int paddingOffset = mask(lastConsumedSequence);
+            final int paddingLength = Util.recordLength(header);
+            if (zeroOnConsume)
+            {
+                zero(paddingOffset, Math.min(messageBuffer.capacity() - paddingOffset, paddingLength));
+            }
+            this.lastConsumedSequence += paddingLength;
+            data.putLongOrdered(SUBSCRIBER_SEQUENCE_OFFSET, lastConsumedSequence);
+            counters.set(Counter.SUBSCRIBER_POSITION, lastConsumedSequence);
+            header = readHeader(this.lastConsumedSequence);
         }
+        final int messageSize = Util.recordLength(header);
         if (messageSize != 0)
         {
-            final int newPosition = mask(lastConsumedSequence + MESSAGE_HEADER_LENGTH);
-            final int headerOffset = newPosition - MESSAGE_HEADER_LENGTH;
+            final int headerOffset = mask(lastConsumedSequence);
+            final int newPosition = headerOffset + headerLength;
             if (DEBUG)
             {
                 System.out.printf("%s %s Read message of %db at %d [%d]%n",
                         path, Thread.currentThread().getName(),
-                        messageSize, newPosition - MESSAGE_HEADER_LENGTH, lastConsumedSequence);
+                        messageSize, headerOffset, lastConsumedSequence);
             }
             receiverView.wrap(messageBuffer, newPosition, messageSize);
             receiver.accept(receiverView);
-            final int paddedMessageSize = Util.padToCacheLine(messageSize + MESSAGE_HEADER_LENGTH);
-            receiverView.wrap(messageBuffer, headerOffset, paddedMessageSize);
-            zero(receiverView);
+            final int paddedMessageSize = format.recordLength(messageSize);
+            if (zeroOnConsume)
+            {
+                receiverView.wrap(messageBuffer, headerOffset, paddedMessageSize);
+                zero(receiverView);
+            }
 
-            data.putLongOrdered(SUBSCRIBER_SEQUENCE_OFFSET, lastConsumedSequence);
             lastConsumedSequence += paddedMessageSize;
+            data.putLongOrdered(SUBSCRIBER_SEQUENCE_OFFSET, lastConsumedSequence);
+            counters.set(Counter.SUBSCRIBER_POSITION, lastConsumedSequence);
+            counters.increment(Counter.MESSAGES_READ);
             if (DEBUG)
             {
                 System.out.printf("%s %s read sequence advanced to %d%n", path,
@@ -145,39 +331,270 @@ public final class UnsafeBufferTransport implements AutoCloseable
         return messageSize;
     }
 
-    private void waitForSlowSubscribers(int messageSize)
+    /**
+     * Drains up to {@code fragmentLimit} contiguous records in a single pass. The consumed span is
+     * zeroed in bulk (unless headers are epoch-stamped), and the subscriber sequence is published once
+     * for the whole batch.
+     *
+     * @return the number of records handed to {@code receiver}
+     */
+    @Override
+    public int poll(final Consumer<UnsafeBuffer> receiver, final int fragmentLimit)
     {
-        if (WAIT_FOR_SUBSCRIBER)
+        final int capacity = messageBuffer.capacity();
+        long position = lastConsumedSequence;
+        int spanStart = mask(position);
+        int spanLength = 0;
+        int fragmentsRead = 0;
+        while (fragmentsRead < fragmentLimit)
         {
-            if (writeOffset + messageSize > nextSubscriberSequenceCheck)
+            final int headerOffset = mask(position);
+            if (spanStart + spanLength == capacity)
             {
+                zeroConsumed(spanStart, spanLength);
+                spanStart = 0;
+                spanLength = 0;
+            }
+            final long header = readHeader(position);
+            if (header == 0L)
+            {
+                break;
+            }
+            if (Util.recordType(header) == RECORD_TYPE_PADDING)
+            {
+                final int paddingLength = Util.recordLength(header);
+                spanLength += Math.min(capacity - headerOffset, paddingLength);
+                zeroConsumed(spanStart, spanLength);
+                position += paddingLength;
+                spanStart = mask(position);
+                spanLength = 0;
+                continue;
+            }
+
+            final int messageSize = Util.recordLength(header);
+            if (DEBUG)
+            {
+                System.out.printf("%s %s Read message of %db at %d [%d]%n",
+                        path, Thread.currentThread().getName(),
+                        messageSize, headerOffset, position);
+            }
+            receiverView.wrap(messageBuffer, headerOffset + headerLength, messageSize);
+            receiver.accept(receiverView);
+
+            final int paddedMessageSize = format.recordLength(messageSize);
+            position += paddedMessageSize;
+            spanLength += paddedMessageSize;
+            fragmentsRead++;
+        }
+
+        if (position != lastConsumedSequence)
+        {
+            zeroConsumed(spanStart, spanLength);
+            data.putLongOrdered(SUBSCRIBER_SEQUENCE_OFFSET, position);
+            counters.set(Counter.SUBSCRIBER_POSITION, position);
+            counters.add(Counter.MESSAGES_READ, fragmentsRead);
+            lastConsumedSequence = position;
+            if (DEBUG)
+            {
+                System.out.printf("%s %s read sequence advanced to %d after %d records%n", path,
+                        Thread.currentThread().getName(), lastConsumedSequence, fragmentsRead);
+            }
+        }
+
+        return fragmentsRead;
+    }
+
+    private long writeRecord(final UnsafeBuffer message, final int messageSize, final boolean waitForSubscriber)
+    {
+        final int headerOffset = claimRecord(messageSize, waitForSubscriber);
+        if (headerOffset == NO_CAPACITY)
+        {
+            return BACK_PRESSURED;
+        }
+        messageBuffer.putBytes(headerOffset + headerLength, message, 0, messageSize);
+        if (journal != null)
+        {
+            journal.append(message, 0, messageSize);
+        }
+        messageBuffer.putLongOrdered(headerOffset,
+                Util.recordHeader(epoch(writeOffset), RECORD_TYPE_MESSAGE, messageSize));
+        return writeOffset;
+    }
+
+    private int claimRecord(final int messageSize, final boolean waitForSubscriber)
+    {
+        final int paddedSize = format.recordLength(messageSize);
+        if (paddedSize > messageBuffer.capacity())
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Message of %db does not fit in a buffer of %db", messageSize, messageBuffer.capacity()));
+        }
+
+        return claim(paddedSize, 1, messageSize, waitForSubscriber);
+    }
+
+    /**
+     * Reserves {@code paddedSize} bytes for one or more records by compare-and-set on the shared publisher
+     * sequence, so that any number of publishers, each with its own instance over the same file, may write
+     * concurrently. A reservation that would run past the end of the ring first publishes a padding record
+     * covering the rest of the lap, reserved on its own, and is then retried from the start of the next lap.
+     * <p>
+     * With epoch-stamped headers the subscriber leaves the ring dirty, so the publisher clears it ahead of
+     * the records, including the header word that follows them. Clearing outside the reservation is only safe
+     * for a single publisher, so the first claim takes ownership of the ring.
+     * <p>
+     * While the subscriber is too far behind, a blocking claim waits using the {@code ipc.pub.idleStrategy}.
+     */
+    private int claim(
+            final int paddedSize, final int recordCount, final long messageBytes, final boolean waitForSubscriber)
+    {
+        if (!zeroOnConsume && !ownsRing)
+        {
+            acquireRing();
+        }
+        final int capacity = messageBuffer.capacity();
+        boolean idled = false;
+        long stallStartNanos = 0L;
+        while (true)
+        {
+            final long position = data.getLongVolatile(PUBLISHER_SEQUENCE_OFFSET);
+            final int offset = mask(position);
+            // a record that would run past the end of the ring first reserves the rest of the lap as padding on
+            // its own, then is claimed from the start of the next lap, so it only ever waits for its own length
+            final int padding = offset + paddedSize > capacity ? capacity - offset : 0;
+            final long limitPosition = position + (padding != 0 ? padding : paddedSize);
+            final long cleanLimitPosition = zeroOnConsume ? limitPosition : limitPosition + HEADER_WORD_LENGTH;
+            if (WAIT_FOR_SUBSCRIBER && !hasCapacity(cleanLimitPosition))
+            {
+                if (!waitForSubscriber)
+                {
+                    counters.increment(Counter.BACK_PRESSURED);
+                    return NO_CAPACITY;
+                }
                 if (DEBUG)
                 {
-                    System.out.printf("%s %s writeOffset: %d, subscriber: %d%n",
-                            path, Thread.currentThread().getName(), writeOffset, getSubscriberOffset());
+                    System.out.printf("%s %s position: %d, subscriber: %d%n",
+                            path, Thread.currentThread().getName(), position, getSubscriberOffset());
                 }
-                while (writeOffset + messageSize > nextSubscriberSequenceCheck)
+                if (!idled)
                 {
-                    nextSubscriberSequenceCheck = getSubscriberOffset() + messageBuffer.capacity();
+                    stallStartNanos = System.nanoTime();
+                    idled = true;
                 }
+                counters.increment(Counter.BACK_PRESSURE_IDLES);
+                publisherIdleStrategy.idle();
+                continue;
+            }
+            if (!zeroOnConsume)
+            {
+                cleanAhead(cleanLimitPosition);
+            }
+            if (!data.compareAndSetLong(PUBLISHER_SEQUENCE_OFFSET, position, limitPosition))
+            {
+                if (!zeroOnConsume)
+                {
+                    throw new IllegalStateException("Epoch-stamped records support a single publisher: " + path);
+                }
+                continue;
+            }
+
+            counters.set(Counter.PUBLISHER_POSITION, limitPosition);
+            if (padding != 0)
+            {
+                counters.increment(Counter.WRAPS);
+                if (DEBUG)
+                {
+                    System.out.printf("%s %s Writing %db padding at %d [%d]%n",
+                            path, Thread.currentThread().getName(), padding, offset, position);
+                }
+                messageBuffer.putLongOrdered(offset,
+                        Util.recordHeader(epoch(position), RECORD_TYPE_PADDING, padding));
+                continue;
+            }
+
+            if (idled)
+            {
+                publisherIdleStrategy.reset();
+                counters.add(Counter.STALL_NANOS, System.nanoTime() - stallStartNanos);
+                counters.increment(Counter.STALLS);
+            }
+            counters.add(Counter.MESSAGES_WRITTEN, recordCount);
+            counters.add(Counter.BYTES_WRITTEN, messageBytes);
+
+            writeOffset = position;
+            final int headerOffset = mask(writeOffset);
+            if (DEBUG)
+            {
+                System.out.printf("%s %s Writing %d records of %db at %d [%d]%n",
+                        path, Thread.currentThread().getName(),
+                        recordCount, paddedSize, headerOffset, writeOffset);
             }
+            return headerOffset;
         }
     }
 
-    private void updateSubscriberCheckOffset(int messageSize)
+    /**
+     * Takes sole ownership of an epoch-stamped ring before this instance clears any of it, failing while a
+     * live publisher holds it. Clearing then resumes from the current publisher sequence, as an earlier
+     * publisher may have written since this instance was opened.
+     */
+    private void acquireRing()
     {
-        if (nextSubscriberSequenceCheck == -1L)
+        while (true)
         {
-            nextSubscriberSequenceCheck = getSubscriberOffset() + messageBuffer.capacity();
+            final long owner = data.getLongVolatile(PUBLISHER_OWNER_OFFSET);
+            if (owner != Util.NO_PUBLISHER && Util.isPublisherAlive(owner))
+            {
+                throw new IllegalStateException(String.format(
+                        "Epoch-stamped records support a single publisher, %s is published to by process %d",
+                        path, Util.publisherPid(owner)));
+            }
+            if (data.compareAndSetLong(PUBLISHER_OWNER_OFFSET, owner, publisherToken))
+            {
+                break;
+            }
         }
-        if (writeOffset + messageSize > nextSubscriberSequenceCheck)
+        final long publisherSequence = data.getLongVolatile(PUBLISHER_SEQUENCE_OFFSET);
+        cleanPosition = publisherSequence == 0L ? messageBuffer.capacity() : publisherSequence;
+        ownsRing = true;
+    }
+
+    /**
+     * Zeroes the ring from the clean position through at least {@code requiredPosition}, and up to
+     * {@code ipc.pub.cleanAheadLength} bytes beyond it, without passing the subscriber.
+     */
+    private void cleanAhead(final long requiredPosition)
+    {
+        if (requiredPosition <= cleanPosition)
+        {
+            return;
+        }
+        final int capacity = messageBuffer.capacity();
+        final long cleanLimit = WAIT_FOR_SUBSCRIBER ?
+                Math.min(requiredPosition + CLEAN_AHEAD_LENGTH, nextSubscriberSequenceCheck) : requiredPosition;
+        long position = cleanPosition;
+        while (position < cleanLimit)
+        {
+            final int offset = mask(position);
+            final int length = (int) Math.min(cleanLimit - position, capacity - offset);
+            zero(offset, length);
+            position += length;
+        }
+        cleanPosition = cleanLimit;
+    }
+
+    private boolean hasCapacity(final long limitPosition)
+    {
+        if (limitPosition > nextSubscriberSequenceCheck)
         {
             nextSubscriberSequenceCheck = getSubscriberOffset() + messageBuffer.capacity();
         }
+        return limitPosition <= nextSubscriberSequenceCheck;
     }
 
     private void zero(UnsafeBuffer buffer)
     {
+        counters.add(Counter.ZEROED_BYTES, buffer.capacity());
         int chunks = buffer.capacity() / 8;
         int bytes = buffer.capacity() - chunks * 8;
         for (int i = 0; i < chunks; i++)
@@ -195,6 +612,39 @@ public final class UnsafeBufferTransport implements AutoCloseable
         }
     }
 
+    private void zero(final int offset, final int length)
+    {
+        counters.add(Counter.ZEROED_BYTES, length);
+        messageBuffer.setMemory(offset, length, (byte) 0);
+        if (DEBUG)
+        {
+            System.out.printf("%s %s zeroed %db at %d%n", path,
+                    Thread.currentThread().getName(), length, offset);
+        }
+    }
+
+    private void zeroConsumed(final int offset, final int length)
+    {
+        if (zeroOnConsume)
+        {
+            zero(offset, length);
+        }
+    }
+
+    /**
+     * @return the header at {@code position}, or zero if it was stamped in a different lap of the ring
+     */
+    private long readHeader(final long position)
+    {
+        final long header = messageBuffer.getLongVolatile(mask(position));
+        return Util.recordEpoch(header) == epoch(position) ? header : 0L;
+    }
+
+    private long epoch(final long position)
+    {
+        return (position >>> epochShift) & epochMask;
+    }
+
     private long getSubscriberOffset()
     {
         return data.getLongVolatile(SUBSCRIBER_SEQUENCE_OFFSET);
@@ -205,9 +655,25 @@ public final class UnsafeBufferTransport implements AutoCloseable
         return (int) (sequence & mask);
     }
 
+    @Override
+    public long publisherStallNanos()
+    {
+        return counters.get(Counter.STALL_NANOS);
+    }
+
+    @Override
+    public long publisherStallCount()
+    {
+        return counters.get(Counter.STALLS);
+    }
+
     @Override
     public void close() throws Exception
     {
+        if (ownsRing)
+        {
+            data.compareAndSetLong(PUBLISHER_OWNER_OFFSET, publisherToken, Util.NO_PUBLISHER);
+        }
         channel.close();
     }
 }
\ No newline at end of file
@@ -1,12 +1,41 @@
 package com.aitusoftware.messaging.ipc;
 
-import com.aitusoftware.messaging.util.Affinity;
+import com.aitusoftware.messaging.util.Memory;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.BusySpinIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.NoOpIdleStrategy;
+import org.agrona.concurrent.SleepingIdleStrategy;
+import org.agrona.concurrent.YieldingIdleStrategy;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 final class Util {
-    private static final int NO_CPU = -1;
-    static final int PUBLISHER_CPU = Integer.getInteger("ipc.pub.cpu", NO_CPU);
-    static final int ECHO_CPU = Integer.getInteger("ipc.echo.cpu", NO_CPU);
-    static final int SUBSCRIBER_CPU = Integer.getInteger("ipc.sub.cpu", NO_CPU);
+    static final String IDLE_BUSY_SPIN = "busySpin";
+    static final String IDLE_SPIN_WAIT = "spinWait";
+    static final String IDLE_YIELD = "yield";
+    static final String IDLE_PARK = "park";
+    static final String IDLE_BACKOFF = "backoff";
+    static final String SUBSCRIBER_IDLE_STRATEGY = System.getProperty("ipc.idleStrategy", IDLE_BUSY_SPIN);
+    static final String PUBLISHER_IDLE_STRATEGY =
+            System.getProperty("ipc.pub.idleStrategy", SUBSCRIBER_IDLE_STRATEGY);
+    private static final long IDLE_PARK_NS = Long.getLong("ipc.idle.parkNs", TimeUnit.MICROSECONDS.toNanos(1L));
+    private static final long IDLE_MAX_PARK_NS = Long.getLong("ipc.idle.maxParkNs", TimeUnit.MILLISECONDS.toNanos(1L));
+    private static final long BACKOFF_MAX_SPINS = 100L;
+    private static final long BACKOFF_MAX_YIELDS = 10L;
+
+    static final boolean PREFAULT_MAPPINGS = Boolean.getBoolean("ipc.map.prefault");
+    static final boolean LOCK_MAPPINGS = Boolean.getBoolean("ipc.map.lock");
+    static final boolean HUGE_PAGE_MAPPINGS = Boolean.getBoolean("ipc.map.hugePages");
+    private static final int PAGE_SIZE = Integer.getInteger("ipc.map.pageSize", 4096);
+    private static final VarHandle PAGE_VIEW =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
 
 
     static final int CACHE_LINE_SIZE_IN_BYTES = 64;
@@ -14,21 +43,148 @@ final class Util {
     static final int MESSAGE_HEADER_LENGTH = CACHE_LINE_SIZE_IN_BYTES;
     static final int DATA_OFFSET = CACHE_LINE_SIZE_IN_BYTES * 4;
     static final int PUBLISHER_SEQUENCE_OFFSET = 8 * 7;
+    // the only publisher allowed to write an epoch-stamped ring, as a token from newPublisherToken()
+    static final int PUBLISHER_OWNER_OFFSET = 8 * 6;
+    static final long NO_PUBLISHER = 0L;
+    // the third cache line of a unicast ring header is not used by the transports, harness processes
+    // attached to the same ring coordinate through it
+    static final int CONTROL_ATTACHED_COUNT_OFFSET = CACHE_LINE_SIZE_IN_BYTES * 2;
+    static final int CONTROL_RUN_STATE_OFFSET = CACHE_LINE_SIZE_IN_BYTES * 2 + 8;
+
+    static final int BROADCAST_MAX_SUBSCRIBERS = 16;
+    static final int BROADCAST_SUBSCRIBER_COUNT_OFFSET = CACHE_LINE_SIZE_IN_BYTES + (8 * 7);
+    static final int BROADCAST_DATA_OFFSET = CACHE_LINE_SIZE_IN_BYTES * (2 + BROADCAST_MAX_SUBSCRIBERS);
+
+    static final int RECORD_TYPE_MESSAGE = 1;
+    static final int RECORD_TYPE_PADDING = 2;
 
     private static final int CACHE_LINE_SIZE_MASK = CACHE_LINE_SIZE_IN_BYTES - 1;
+    private static final int PUBLISHER_INSTANCE_BITS = 24;
+    private static final AtomicLong PUBLISHER_INSTANCE_ID = new AtomicLong(1L);
+    private static final long RECORD_LENGTH_MASK = 0xFFFF_FFFFL;
+    private static final int RECORD_TYPE_MASK = 0xFF;
+    private static final int RECORD_EPOCH_SHIFT = 40;
+    static final long RECORD_EPOCH_MASK = (1L << (64 - RECORD_EPOCH_SHIFT)) - 1;
 
     static int padToCacheLine(int messageSize)
     {
-        return messageSize + CACHE_LINE_SIZE_IN_BYTES -
-                ((messageSize) & CACHE_LINE_SIZE_MASK);
+        return (messageSize + CACHE_LINE_SIZE_MASK) & ~CACHE_LINE_SIZE_MASK;
+    }
+
+    static long recordHeader(int recordType, int length)
+    {
+        return recordHeader(0L, recordType, length);
+    }
+
+    /**
+     * Packs a record header word: the epoch in the upper 24 bits, then 8 bits of record type, and the length
+     * in the lower 32 bits. A header word of zero marks a record that has not been written yet.
+     */
+    static long recordHeader(long epoch, int recordType, int length)
+    {
+        return ((epoch & RECORD_EPOCH_MASK) << RECORD_EPOCH_SHIFT) |
+                ((long) (recordType & RECORD_TYPE_MASK) << 32) | (length & RECORD_LENGTH_MASK);
+    }
+
+    static long recordEpoch(long header)
+    {
+        return header >>> RECORD_EPOCH_SHIFT;
+    }
+
+    static int recordType(long header)
+    {
+        return (int) (header >>> 32) & RECORD_TYPE_MASK;
+    }
+
+    static int recordLength(long header)
+    {
+        return (int) header;
+    }
+
+    /**
+     * @return a token naming a transport instance of this process, never {@link #NO_PUBLISHER}
+     */
+    static long newPublisherToken()
+    {
+        final long instanceId = PUBLISHER_INSTANCE_ID.getAndIncrement() & ((1L << PUBLISHER_INSTANCE_BITS) - 1);
+        return (ProcessHandle.current().pid() << PUBLISHER_INSTANCE_BITS) | Math.max(instanceId, 1L);
+    }
+
+    static long publisherPid(long token)
+    {
+        return token >>> PUBLISHER_INSTANCE_BITS;
     }
 
-    static void setCpu(String name, int cpu)
+    /**
+     * @return true unless the process that took {@code token} has exited
+     */
+    static boolean isPublisherAlive(long token)
     {
-        if (cpu != NO_CPU)
+        final long pid = publisherPid(token);
+        return pid == ProcessHandle.current().pid() || ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    static int broadcastSubscriberSequenceOffset(int subscriberIndex)
+    {
+        return CACHE_LINE_SIZE_IN_BYTES * (2 + subscriberIndex) + (8 * 7);
+    }
+
+    /**
+     * Creates a new, unshared idle strategy: {@value #IDLE_BUSY_SPIN} spins without a hint,
+     * {@value #IDLE_SPIN_WAIT} spins with {@code Thread.onSpinWait()}, {@value #IDLE_YIELD} yields,
+     * {@value #IDLE_PARK} parks for {@code ipc.idle.parkNs}, and {@value #IDLE_BACKOFF} spins, then yields,
+     * then parks for up to {@code ipc.idle.maxParkNs}.
+     */
+    static IdleStrategy newIdleStrategy(String name)
+    {
+        switch (name)
+        {
+            case IDLE_BUSY_SPIN:
+                return new NoOpIdleStrategy();
+            case IDLE_SPIN_WAIT:
+                return new BusySpinIdleStrategy();
+            case IDLE_YIELD:
+                return new YieldingIdleStrategy();
+            case IDLE_PARK:
+                return new SleepingIdleStrategy(IDLE_PARK_NS);
+            case IDLE_BACKOFF:
+                return new BackoffIdleStrategy(BACKOFF_MAX_SPINS, BACKOFF_MAX_YIELDS, IDLE_PARK_NS, IDLE_MAX_PARK_NS);
+            default:
+                throw new IllegalArgumentException("Unknown idle strategy: " + name);
+        }
+    }
+
+    /**
+     * Applies the {@code ipc.map.*} options to a new mapping, so that the first lap of the ring does not
+     * take page faults: huge pages are requested first, then every page is written to, then the
+     * mapping is locked. Pages are written with an atomic add of zero, which leaves an attached ring intact
+     * even while another process is writing to it.
+     */
+    static void prepareMapping(Path path, ByteBuffer mapping)
+    {
+        if (!(HUGE_PAGE_MAPPINGS || PREFAULT_MAPPINGS || LOCK_MAPPINGS))
+        {
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        final Memory memory = HUGE_PAGE_MAPPINGS || LOCK_MAPPINGS ? new Memory() : null;
+        if (HUGE_PAGE_MAPPINGS)
+        {
+            memory.adviseHugePages(mapping);
+        }
+        if (PREFAULT_MAPPINGS)
+        {
+            for (int offset = 0; offset < mapping.capacity() - 7; offset += PAGE_SIZE)
+            {
+                PAGE_VIEW.getAndAdd(mapping, offset, 0L);
+            }
+        }
+        if (LOCK_MAPPINGS)
         {
-            System.out.printf("Setting CPU to %d for %s%n", cpu, name);
-            new Affinity().setCurrentThreadCpuAffinityAndValidate(cpu);
+            memory.lock(mapping);
         }
+        System.out.printf("Prepared %db mapping of %s in %dus (prefault: %b, lock: %b, hugePages: %b)%n",
+                mapping.capacity(), path, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos),
+                PREFAULT_MAPPINGS, LOCK_MAPPINGS, HUGE_PAGE_MAPPINGS);
     }
 }
@@ -8,6 +8,7 @@ import jnr.ffi.types.size_t;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.BitSet;
 
 public final class Affinity
 {
@@ -34,12 +35,35 @@ public final class Affinity
         }
     }
 
+    public void setCurrentThreadCpuAffinityAndValidate(final BitSet cpus)
+    {
+        setCurrentThreadCpuAffinity(cpus);
+        if (!cpus.equals(getCurrentThreadCpuMask()))
+        {
+            throw new IllegalStateException("Unable to set thread affinity to " + cpus);
+        }
+    }
+
     public void setCurrentThreadCpuAffinity(final int cpu)
     {
+        final BitSet cpus = new BitSet();
+        cpus.set(cpu);
+        setCurrentThreadCpuAffinity(cpus);
+    }
+
+    /**
+     * Restricts the current thread to run on any of {@code cpus}.
+     */
+    public void setCurrentThreadCpuAffinity(final BitSet cpus)
+    {
+        if (cpus.isEmpty() || cpus.length() > MAX_CPUS)
+        {
+            throw new IllegalArgumentException("CPU mask must be non-empty, and below " + MAX_CPUS + ": " + cpus);
+        }
         Arrays.fill(cpuMask, (byte) 0);
-        final int byteIndex = cpu / BITS_PER_BYTE;
-        final int bitIndex = cpu - (BITS_PER_BYTE * byteIndex);
-        cpuMask[byteIndex] = (byte) (1 << bitIndex);
+        // cpu_set_t holds CPU n in bit n % 8 of byte n / 8, as does BitSet.toByteArray
+        final byte[] cpuBytes = cpus.toByteArray();
+        System.arraycopy(cpuBytes, 0, cpuMask, 0, cpuBytes.length);
 
         final int returnValue = libc.sched_setaffinity(0, BYTE_COUNT, mask);
 
@@ -51,7 +75,24 @@ public final class Affinity
         }
     }
 
+    /**
+     * @return the CPU the current thread is pinned to, or -1 if it has no affinity
+     * @throws IllegalStateException if the thread may run on more than one CPU
+     */
     public int getCurrentThreadCpuAffinity()
+    {
+        final BitSet cpus = getCurrentThreadCpuMask();
+        if (cpus.cardinality() > 1)
+        {
+            throw new IllegalStateException("Thread affinity not set");
+        }
+        return cpus.isEmpty() ? -1 : cpus.nextSetBit(0);
+    }
+
+    /**
+     * @return the CPUs the current thread may run on
+     */
+    public BitSet getCurrentThreadCpuMask()
     {
         Arrays.fill(cpuMask, (byte) 0);
         final int returnValue = libc.sched_getaffinity(0, BYTE_COUNT, mask);
@@ -62,19 +103,6 @@ public final class Affinity
                     "Failed to get affinity, response code: %d, error code: %d",
                     returnValue, LastError.getLastError(jnr.ffi.Runtime.getSystemRuntime())));
         }
-
-        int cpuAffinity = -1;
-        for (int i = 0; i < BYTE_COUNT; i++)
-        {
-            if (cpuMask[i] != 0)
-            {
-                if (cpuAffinity != -1)
-                {
-                    throw new IllegalStateException("Thread affinity not set");
-                }
-                cpuAffinity = Integer.numberOfTrailingZeros(cpuMask[i]);
-            }
-        }
-        return cpuAffinity;
+        return BitSet.valueOf(cpuMask);
     }
 }
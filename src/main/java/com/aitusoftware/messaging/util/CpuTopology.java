@@ -0,0 +1,338 @@
+package com.aitusoftware.messaging.util;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CPU, core, cache and socket layout of the machine, as described by {@code /sys/devices/system/cpu}, and
+ * placement of a number of communicating roles according to a {@link Placement} policy, so that a harness
+ * measures the same kind of cache-to-cache path on any machine.
+ * <p>
+ * Cores are identified by their set of SMT siblings, as core ids repeat across sockets. Where a kernel does
+ * not describe the L2 or L3 caches, a core stands in for its L2, and a socket for its L3.
+ */
+public final class CpuTopology
+{
+    public static final Path SYSFS_CPU_ROOT = Paths.get("/sys/devices/system/cpu");
+
+    public enum Placement
+    {
+        /** All roles on hardware threads that share one L2 cache, which on most x86 parts means one core. */
+        SHARE_L2,
+        /** Each role on its own core, all sharing one L3 cache. */
+        SHARE_L3,
+        /** Each role on its own core, wherever the cores are. */
+        SEPARATE_CORES,
+        /** Each role on its own core, all in one socket. */
+        SAME_SOCKET,
+        /** Each role on its own core, with consecutive roles on different sockets. */
+        CROSS_SOCKET
+    }
+
+    private final BitSet online;
+    private final int[] socket;
+    private final BitSet[] core;
+    private final BitSet[] l2;
+    private final BitSet[] l3;
+
+    private CpuTopology(
+            final BitSet online, final int[] socket, final BitSet[] core, final BitSet[] l2, final BitSet[] l3)
+    {
+        this.online = online;
+        this.socket = socket;
+        this.core = core;
+        this.l2 = l2;
+        this.l3 = l3;
+    }
+
+    public static CpuTopology read() throws IOException
+    {
+        return read(SYSFS_CPU_ROOT);
+    }
+
+    /**
+     * @param root a directory laid out as {@code /sys/devices/system/cpu}
+     */
+    public static CpuTopology read(final Path root) throws IOException
+    {
+        final BitSet online = parseCpuList(readString(root.resolve("online")));
+        final int cpuCount = online.length();
+        final int[] socket = new int[cpuCount];
+        final BitSet[] core = new BitSet[cpuCount];
+        final BitSet[] l2 = new BitSet[cpuCount];
+        final BitSet[] l3 = new BitSet[cpuCount];
+        for (int cpu = online.nextSetBit(0); cpu >= 0; cpu = online.nextSetBit(cpu + 1))
+        {
+            final Path cpuDirectory = root.resolve("cpu" + cpu);
+            final Path topology = cpuDirectory.resolve("topology");
+            socket[cpu] = Integer.parseInt(readString(topology.resolve("physical_package_id")));
+            core[cpu] = parseCpuList(readString(topology.resolve("thread_siblings_list")));
+            l2[cpu] = core[cpu];
+            l3[cpu] = parseCpuList(readString(topology.resolve("core_siblings_list")));
+            final Path caches = cpuDirectory.resolve("cache");
+            for (int index = 0; Files.isDirectory(caches.resolve("index" + index)); index++)
+            {
+                final Path cache = caches.resolve("index" + index);
+                if ("Instruction".equals(readString(cache.resolve("type"))))
+                {
+                    continue;
+                }
+                final int level = Integer.parseInt(readString(cache.resolve("level")));
+                if (level == 2)
+                {
+                    l2[cpu] = parseCpuList(readString(cache.resolve("shared_cpu_list")));
+                }
+                else if (level == 3)
+                {
+                    l3[cpu] = parseCpuList(readString(cache.resolve("shared_cpu_list")));
+                }
+            }
+            core[cpu].and(online);
+            l2[cpu].and(online);
+            l3[cpu].and(online);
+        }
+        return new CpuTopology(online, socket, core, l2, l3);
+    }
+
+    /**
+     * @param cpuList a kernel CPU list, such as {@code 0-3,8,10-11}
+     */
+    public static BitSet parseCpuList(final String cpuList)
+    {
+        final BitSet cpus = new BitSet();
+        for (String range : cpuList.trim().split(","))
+        {
+            if (range.isEmpty())
+            {
+                continue;
+            }
+            final int separator = range.indexOf('-');
+            if (separator == -1)
+            {
+                cpus.set(Integer.parseInt(range));
+            }
+            else
+            {
+                cpus.set(Integer.parseInt(range.substring(0, separator)),
+                        Integer.parseInt(range.substring(separator + 1)) + 1);
+            }
+        }
+        return cpus;
+    }
+
+    /**
+     * @param roleCount number of roles to place, e.g. publisher, echo and subscriber
+     * @param allowed   CPUs that roles may be placed on, e.g. the affinity mask of the process
+     * @return one CPU for each role, preferring the lowest-numbered CPUs that satisfy {@code placement}
+     * @throws IllegalStateException if the allowed CPUs cannot satisfy {@code placement}
+     */
+    public int[] place(final Placement placement, final int roleCount, final BitSet allowed)
+    {
+        final BitSet candidates = (BitSet) online.clone();
+        candidates.and(allowed);
+        switch (placement)
+        {
+            case SHARE_L2:
+                for (BitSet group : groups(l2, candidates))
+                {
+                    final BitSet cpus = (BitSet) group.clone();
+                    cpus.and(candidates);
+                    if (cpus.cardinality() >= roleCount)
+                    {
+                        return cpus.stream().limit(roleCount).toArray();
+                    }
+                }
+                break;
+            case SHARE_L3:
+                for (BitSet group : groups(l3, candidates))
+                {
+                    final BitSet cpus = (BitSet) group.clone();
+                    cpus.and(candidates);
+                    final int[] placed = onePerCore(cpus);
+                    if (placed.length >= roleCount)
+                    {
+                        return Arrays.copyOf(placed, roleCount);
+                    }
+                }
+                break;
+            case SEPARATE_CORES:
+                final int[] separateCores = onePerCore(candidates);
+                if (separateCores.length >= roleCount)
+                {
+                    return Arrays.copyOf(separateCores, roleCount);
+                }
+                break;
+            case SAME_SOCKET:
+                for (BitSet cpus : sockets(candidates))
+                {
+                    final int[] inSocket = onePerCore(cpus);
+                    if (inSocket.length >= roleCount)
+                    {
+                        return Arrays.copyOf(inSocket, roleCount);
+                    }
+                }
+                break;
+            case CROSS_SOCKET:
+                final List<BitSet> sockets = sockets(candidates);
+                if (sockets.size() < 2)
+                {
+                    break;
+                }
+                final int[][] coresBySocket = new int[sockets.size()][];
+                for (int i = 0; i < coresBySocket.length; i++)
+                {
+                    coresBySocket[i] = onePerCore(sockets.get(i));
+                }
+                final int[] crossSocket = new int[roleCount];
+                for (int role = 0; role < roleCount; role++)
+                {
+                    final int[] cores = coresBySocket[role % coresBySocket.length];
+                    final int index = role / coresBySocket.length;
+                    if (index >= cores.length)
+                    {
+                        throw unplaceable(placement, roleCount, candidates);
+                    }
+                    crossSocket[role] = cores[index];
+                }
+                return crossSocket;
+            default:
+                throw new IllegalArgumentException("Unknown placement: " + placement);
+        }
+        throw unplaceable(placement, roleCount, candidates);
+    }
+
+    public int socket(final int cpu)
+    {
+        return socket[cpu];
+    }
+
+    /**
+     * @return the hardware threads of the core that {@code cpu} belongs to
+     */
+    public BitSet core(final int cpu)
+    {
+        return (BitSet) core[cpu].clone();
+    }
+
+    public BitSet l2(final int cpu)
+    {
+        return (BitSet) l2[cpu].clone();
+    }
+
+    public BitSet l3(final int cpu)
+    {
+        return (BitSet) l3[cpu].clone();
+    }
+
+    public BitSet online()
+    {
+        return (BitSet) online.clone();
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder description = new StringBuilder();
+        for (int cpu = online.nextSetBit(0); cpu >= 0; cpu = online.nextSetBit(cpu + 1))
+        {
+            description.append(String.format("cpu%d: socket %d, core %s, L2 %s, L3 %s%n",
+                    cpu, socket[cpu], core[cpu], l2[cpu], l3[cpu]));
+        }
+        return description.toString();
+    }
+
+    /**
+     * Prints the topology of this machine, and the placement of {@code args[0]} (default 3) roles
+     * under each policy.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        final CpuTopology topology = read();
+        final BitSet allowed = new Affinity().getCurrentThreadCpuMask();
+        final int roleCount = args.length == 0 ? 3 : Integer.parseInt(args[0]);
+        System.out.print(topology);
+        System.out.printf("allowed: %s%n", allowed);
+        for (Placement placement : Placement.values())
+        {
+            try
+            {
+                System.out.printf("%-15s %s%n", placement,
+                        Arrays.toString(topology.place(placement, roleCount, allowed)));
+            }
+            catch (IllegalStateException e)
+            {
+                System.out.printf("%-15s %s%n", placement, e.getMessage());
+            }
+        }
+    }
+
+    private int[] onePerCore(final BitSet cpus)
+    {
+        final BitSet usedCores = new BitSet();
+        final BitSet placed = new BitSet();
+        for (int cpu = cpus.nextSetBit(0); cpu >= 0; cpu = cpus.nextSetBit(cpu + 1))
+        {
+            final int coreId = core[cpu].nextSetBit(0);
+            if (!usedCores.get(coreId))
+            {
+                usedCores.set(coreId);
+                placed.set(cpu);
+            }
+        }
+        return placed.stream().toArray();
+    }
+
+    private List<BitSet> sockets(final BitSet cpus)
+    {
+        final List<BitSet> sockets = new ArrayList<>();
+        final BitSet seen = new BitSet();
+        for (int cpu = cpus.nextSetBit(0); cpu >= 0; cpu = cpus.nextSetBit(cpu + 1))
+        {
+            if (!seen.get(socket[cpu]))
+            {
+                seen.set(socket[cpu]);
+                final BitSet inSocket = new BitSet();
+                for (int other = cpu; other >= 0; other = cpus.nextSetBit(other + 1))
+                {
+                    if (socket[other] == socket[cpu])
+                    {
+                        inSocket.set(other);
+                    }
+                }
+                sockets.add(inSocket);
+            }
+        }
+        return sockets;
+    }
+
+    private static Set<BitSet> groups(final BitSet[] groupByCpu, final BitSet cpus)
+    {
+        final Set<BitSet> groups = new LinkedHashSet<>();
+        for (int cpu = cpus.nextSetBit(0); cpu >= 0; cpu = cpus.nextSetBit(cpu + 1))
+        {
+            groups.add(groupByCpu[cpu]);
+        }
+        return groups;
+    }
+
+    private static IllegalStateException unplaceable(
+            final Placement placement, final int roleCount, final BitSet candidates)
+    {
+        return new IllegalStateException(String.format(
+                "Cannot place %d roles with policy %s on CPUs %s", roleCount, placement, candidates));
+    }
+
+    private static String readString(final Path file) throws IOException
+    {
+        return new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+    }
+}
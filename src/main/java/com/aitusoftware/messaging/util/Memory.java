@@ -0,0 +1,61 @@
+package com.aitusoftware.messaging.util;
+
+import jnr.ffi.LastError;
+import jnr.ffi.LibraryLoader;
+import jnr.ffi.Pointer;
+import jnr.ffi.types.size_t;
+import org.agrona.BufferUtil;
+
+import java.nio.ByteBuffer;
+
+public final class Memory
+{
+    private static final int MADV_HUGEPAGE = 14;
+    private final jnr.ffi.Runtime runtime = jnr.ffi.Runtime.getSystemRuntime();
+    private final LibC libc = LibraryLoader.create(LibC.class).load("c");
+
+    @SuppressWarnings("SpellCheckingInspection")
+    public interface LibC
+    {
+        int mlock(Pointer addr, @size_t long len);
+        int madvise(Pointer addr, @size_t long len, int advice);
+    }
+
+    /**
+     * Locks the pages of a direct buffer into memory, so that they are never paged out.
+     * Limited by {@code RLIMIT_MEMLOCK} for unprivileged processes.
+     */
+    public void lock(final ByteBuffer buffer)
+    {
+        final int returnValue = libc.mlock(pointer(buffer), buffer.capacity());
+
+        if (returnValue != 0)
+        {
+            throw new IllegalStateException(String.format(
+                    "Failed to lock %db, response code: %d, error code: %d",
+                    buffer.capacity(), returnValue, LastError.getLastError(runtime)));
+        }
+    }
+
+    /**
+     * Asks the kernel to back a direct buffer with transparent huge pages. The buffer must start on a page
+     * boundary, as a mapping does, and for a file mapping the file system must support huge pages
+     * (e.g. tmpfs mounted with {@code huge=advise}).
+     */
+    public void adviseHugePages(final ByteBuffer buffer)
+    {
+        final int returnValue = libc.madvise(pointer(buffer), buffer.capacity(), MADV_HUGEPAGE);
+
+        if (returnValue != 0)
+        {
+            throw new IllegalStateException(String.format(
+                    "Failed to advise huge pages for %db, response code: %d, error code: %d",
+                    buffer.capacity(), returnValue, LastError.getLastError(runtime)));
+        }
+    }
+
+    private Pointer pointer(final ByteBuffer buffer)
+    {
+        return Pointer.wrap(runtime, BufferUtil.address(buffer));
+    }
+}
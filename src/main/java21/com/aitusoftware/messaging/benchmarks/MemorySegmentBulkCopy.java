@@ -0,0 +1,50 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+
+/**
+ * Looked up by {@link BulkCopies#forName(String)}, which cannot refer to this class directly, as it is only
+ * built on JDK 21.
+ */
+public final class MemorySegmentBulkCopy implements BulkCopy
+{
+    private MemorySegment source;
+    private MemorySegment target;
+    // the benchmark zeroes the same range on every invocation, so its slice is made once and reused
+    private MemorySegment zeroSlice;
+    private long zeroSliceOffset;
+
+    @Override
+    public String name()
+    {
+        return BulkCopies.MEMORY_SEGMENT;
+    }
+
+    @Override
+    public void wrap(final ByteBuffer source, final ByteBuffer target)
+    {
+        this.source = MemorySegment.ofBuffer(source);
+        this.target = MemorySegment.ofBuffer(target);
+        this.zeroSlice = null;
+    }
+
+    @Override
+    public void copy(final int sourceOffset, final int targetOffset, final int length)
+    {
+        MemorySegment.copy(source, sourceOffset, target, targetOffset, length);
+    }
+
+    @Override
+    public void zero(final int targetOffset, final int length)
+    {
+        MemorySegment slice = zeroSlice;
+        if (slice == null || zeroSliceOffset != targetOffset || slice.byteSize() != length)
+        {
+            slice = target.asSlice(targetOffset, length);
+            zeroSlice = slice;
+            zeroSliceOffset = targetOffset;
+        }
+        slice.fill((byte) 0);
+    }
+}
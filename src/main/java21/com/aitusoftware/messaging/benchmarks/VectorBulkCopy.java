@@ -0,0 +1,67 @@
+package com.aitusoftware.messaging.benchmarks;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Copies and zeroes a vector of the widest shape the CPU supports at a time, then finishes the tail
+ * a byte at a time. Looked up by {@link BulkCopies#forName(String)}, as it is only built on JDK 21.
+ */
+public final class VectorBulkCopy implements BulkCopy
+{
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final ByteVector ZERO = ByteVector.zero(SPECIES);
+
+    private MemorySegment source;
+    private MemorySegment target;
+
+    @Override
+    public String name()
+    {
+        return BulkCopies.VECTOR;
+    }
+
+    @Override
+    public void wrap(final ByteBuffer source, final ByteBuffer target)
+    {
+        this.source = MemorySegment.ofBuffer(source);
+        this.target = MemorySegment.ofBuffer(target);
+    }
+
+    @Override
+    public void copy(final int sourceOffset, final int targetOffset, final int length)
+    {
+        final int vectorLength = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < vectorLength; i += SPECIES.length())
+        {
+            ByteVector.fromMemorySegment(SPECIES, source, sourceOffset + i, ByteOrder.nativeOrder())
+                    .intoMemorySegment(target, targetOffset + i, ByteOrder.nativeOrder());
+        }
+        for (; i < length; i++)
+        {
+            target.set(ValueLayout.JAVA_BYTE, targetOffset + i,
+                    source.get(ValueLayout.JAVA_BYTE, sourceOffset + i));
+        }
+    }
+
+    @Override
+    public void zero(final int targetOffset, final int length)
+    {
+        final int vectorLength = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < vectorLength; i += SPECIES.length())
+        {
+            ZERO.intoMemorySegment(target, targetOffset + i, ByteOrder.nativeOrder());
+        }
+        for (; i < length; i++)
+        {
+            target.set(ValueLayout.JAVA_BYTE, targetOffset + i, (byte) 0);
+        }
+    }
+}
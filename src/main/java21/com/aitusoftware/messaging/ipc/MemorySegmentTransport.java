@@ -0,0 +1,549 @@
+package com.aitusoftware.messaging.ipc;
+
+import com.aitusoftware.messaging.ipc.TransportCounters.Counter;
+import org.agrona.concurrent.IdleStrategy;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * Ring transport over a {@link MemorySegment} mapping, using memory-segment var handles in place of
+ * {@code Unsafe} or byte-buffer views. The file layout and record protocol match the other transports,
+ * including record formats, epoch stamps, multiple publishers and resuming an existing ring.
+ * <p>
+ * A {@link SegmentHandler} is handed each record as an offset and length in the mapping of the ring, so
+ * polling allocates nothing. A {@code Consumer} receiver is handed a slice of the ring instead. As a segment
+ * cannot be moved once created, one slice is kept per record slot of the ring and reused while records at
+ * that slot have the same length, so that steady polling of fixed-size messages allocates nothing either.
+ * Either is only valid during the callback.
+ * Claims and journals are not supported.
+ */
+public final class MemorySegmentTransport implements Transport<MemorySegment>
+{
+    private static final boolean DEBUG = false;
+    private static final boolean WAIT_FOR_SUBSCRIBER =
+            !Boolean.getBoolean(OffHeapByteBufferTransport.IPC_DISABLE_SUBSCRIBER_GATE);
+    private static final int NO_CAPACITY = -1;
+    private static final VarHandle VIEW = MethodHandles.memorySegmentViewVarHandle(ValueLayout.JAVA_LONG);
+    private static final int HEADER_WORD_LENGTH = 8;
+    private static final int CLEAN_AHEAD_LENGTH = Integer.getInteger("ipc.pub.cleanAheadLength", 64 * 1024);
+
+    private final Arena arena;
+    private final MemorySegment data;
+    private final MemorySegment messageBuffer;
+    private final long mask;
+    private final FileChannel channel;
+    private final Path path;
+    private final RecordFormat format;
+    private final TransportCounters counters;
+    private final int headerLength;
+    private final int alignmentShift;
+    private final boolean zeroOnConsume;
+    private final int epochShift;
+    private final long epochMask;
+
+    // publisher state
+    private long writeOffset;
+    private long nextSubscriberSequenceCheck = -1L;
+    private long cleanPosition;
+    private final long publisherToken = Util.newPublisherToken();
+    private boolean ownsRing;
+    private final IdleStrategy publisherIdleStrategy = Util.newIdleStrategy(Util.PUBLISHER_IDLE_STRATEGY);
+
+    // subscriber state
+    private long lastConsumedSequence;
+    private final SegmentHandler receiverHandler = this::onReceiverMessage;
+    private Consumer<MemorySegment> receiver;
+    private MemorySegment[] receiverViews;
+
+    public MemorySegmentTransport(Path path, long size) throws IOException
+    {
+        this(path, size, RecordFormat.CACHE_LINE);
+    }
+
+    /**
+     * Maps the ring at {@code path}, creating it if it does not exist, or attaching to an existing ring of
+     * the same size as the other transports do.
+     */
+    public MemorySegmentTransport(Path path, long size, RecordFormat format) throws IOException
+    {
+        if (Long.bitCount(size) != 1)
+        {
+            throw new IllegalArgumentException("Buffer Size must be a power of two");
+        }
+        this.path = path;
+        this.format = format;
+        this.headerLength = format.headerLength();
+        this.alignmentShift = Integer.numberOfTrailingZeros(format.alignment());
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ);
+        final long fileLength = channel.size();
+        if (fileLength != 0L && fileLength != size + Util.DATA_OFFSET + 8)
+        {
+            channel.close();
+            throw new IllegalArgumentException(String.format(
+                    "Existing file %s of %db does not hold a ring of %db", path, fileLength, size));
+        }
+        arena = Arena.ofShared();
+        data = channel.map(FileChannel.MapMode.READ_WRITE, 0L, size + Util.DATA_OFFSET + 8, arena);
+        Util.prepareMapping(path, data.asByteBuffer());
+        messageBuffer = data.asSlice(Util.DATA_OFFSET, size);
+        mask = size - 1;
+
+        this.zeroOnConsume = !format.epochStamped();
+        this.epochShift = Long.numberOfTrailingZeros(size);
+        this.epochMask = format.epochStamped() ? Util.RECORD_EPOCH_MASK : 0L;
+        // a ring that has never been written to is already clean for its first lap
+        final long publisherSequence = (long) VIEW.getVolatile(data, (long) Util.PUBLISHER_SEQUENCE_OFFSET);
+        this.cleanPosition = publisherSequence == 0L ? size : publisherSequence;
+        // attaching to an existing ring resumes after the last record a subscriber consumed
+        this.lastConsumedSequence = (long) VIEW.getVolatile(data, (long) Util.SUBSCRIBER_SEQUENCE_OFFSET);
+        this.counters = TransportCounters.forRing(path, size);
+    }
+
+    @Override
+    public long writeRecord(final MemorySegment message)
+    {
+        final int messageSize = (int) message.byteSize();
+        if (messageSize == 0)
+        {
+            return -1;
+        }
+
+        return writeRecord(message, messageSize, true);
+    }
+
+    @Override
+    public long tryWriteRecord(final MemorySegment message)
+    {
+        final int messageSize = (int) message.byteSize();
+        if (messageSize == 0)
+        {
+            return -1;
+        }
+
+        return writeRecord(message, messageSize, false);
+    }
+
+    @Override
+    public int poll(final Consumer<MemorySegment> receiver)
+    {
+        useReceiver(receiver);
+        return poll(receiverHandler);
+    }
+
+    /**
+     * Hands the next record to {@code handler} as an offset and length in the mapping of the ring.
+     *
+     * @return the length of the record read, or zero if none was available
+     */
+    public int poll(final SegmentHandler handler)
+    {
+        long header = readHeader(lastConsumedSequence);
+        while (Util.recordType(header) == Util.RECORD_TYPE_PADDING)
+        {
+            final long paddingOffset = mask(lastConsumedSequence);
+            final int paddingLength = Util.recordLength(header);
+            if (zeroOnConsume)
+            {
+                zero(paddingOffset, Math.min(messageBuffer.byteSize() - paddingOffset, paddingLength));
+            }
+            this.lastConsumedSequence += paddingLength;
+            VIEW.setRelease(data, (long) Util.SUBSCRIBER_SEQUENCE_OFFSET, lastConsumedSequence);
+            counters.set(Counter.SUBSCRIBER_POSITION, lastConsumedSequence);
+            header = readHeader(this.lastConsumedSequence);
+        }
+        final int messageSize = Util.recordLength(header);
+        if (messageSize != 0)
+        {
+            final long headerOffset = mask(lastConsumedSequence);
+            if (DEBUG)
+            {
+                System.out.printf("%s %s Read message of %db at %d [%d]%n",
+                        path, Thread.currentThread().getName(),
+                        messageSize, headerOffset, lastConsumedSequence);
+            }
+            handler.onMessage(messageBuffer, headerOffset + headerLength, messageSize);
+            final int paddedMessageSize = format.recordLength(messageSize);
+            if (zeroOnConsume)
+            {
+                zero(headerOffset, paddedMessageSize);
+            }
+
+            lastConsumedSequence += paddedMessageSize;
+            VIEW.setRelease(data, (long) Util.SUBSCRIBER_SEQUENCE_OFFSET, lastConsumedSequence);
+            counters.set(Counter.SUBSCRIBER_POSITION, lastConsumedSequence);
+            counters.increment(Counter.MESSAGES_READ);
+            if (DEBUG)
+            {
+                System.out.printf("%s %s read sequence advanced to %d%n", path,
+                        Thread.currentThread().getName(), lastConsumedSequence);
+            }
+        }
+
+        return messageSize;
+    }
+
+    /**
+     * Drains up to {@code fragmentLimit} contiguous records in a single pass. The consumed span is
+     * zeroed in bulk (unless headers are epoch-stamped), and the subscriber sequence is published once
+     * for the whole batch.
+     *
+     * @return the number of records handed to {@code receiver}
+     */
+    @Override
+    public int poll(final Consumer<MemorySegment> receiver, final int fragmentLimit)
+    {
+        useReceiver(receiver);
+        return poll(receiverHandler, fragmentLimit);
+    }
+
+    /**
+     * Drains up to {@code fragmentLimit} contiguous records like {@link #poll(Consumer, int)}, handing each to
+     * {@code handler} as an offset and length in the mapping of the ring.
+     *
+     * @return the number of records handed to {@code handler}
+     */
+    public int poll(final SegmentHandler handler, final int fragmentLimit)
+    {
+        final long capacity = messageBuffer.byteSize();
+        long position = lastConsumedSequence;
+        long spanStart = mask(position);
+        long spanLength = 0;
+        int fragmentsRead = 0;
+        while (fragmentsRead < fragmentLimit)
+        {
+            final long headerOffset = mask(position);
+            if (spanStart + spanLength == capacity)
+            {
+                zeroConsumed(spanStart, spanLength);
+                spanStart = 0;
+                spanLength = 0;
+            }
+            final long header = readHeader(position);
+            if (header == 0L)
+            {
+                break;
+            }
+            if (Util.recordType(header) == Util.RECORD_TYPE_PADDING)
+            {
+                final int paddingLength = Util.recordLength(header);
+                spanLength += Math.min(capacity - headerOffset, paddingLength);
+                zeroConsumed(spanStart, spanLength);
+                position += paddingLength;
+                spanStart = mask(position);
+                spanLength = 0;
+                continue;
+            }
+
+            final int messageSize = Util.recordLength(header);
+            if (DEBUG)
+            {
+                System.out.printf("%s %s Read message of %db at %d [%d]%n",
+                        path, Thread.currentThread().getName(),
+                        messageSize, headerOffset, position);
+            }
+            handler.onMessage(messageBuffer, headerOffset + headerLength, messageSize);
+
+            final int paddedMessageSize = format.recordLength(messageSize);
+            position += paddedMessageSize;
+            spanLength += paddedMessageSize;
+            fragmentsRead++;
+        }
+
+        if (position != lastConsumedSequence)
+        {
+            zeroConsumed(spanStart, spanLength);
+            VIEW.setRelease(data, (long) Util.SUBSCRIBER_SEQUENCE_OFFSET, position);
+            counters.set(Counter.SUBSCRIBER_POSITION, position);
+            counters.add(Counter.MESSAGES_READ, fragmentsRead);
+            lastConsumedSequence = position;
+            if (DEBUG)
+            {
+                System.out.printf("%s %s read sequence advanced to %d after %d records%n", path,
+                        Thread.currentThread().getName(), lastConsumedSequence, fragmentsRead);
+            }
+        }
+
+        return fragmentsRead;
+    }
+
+    @Override
+    public long publisherStallNanos()
+    {
+        return counters.get(Counter.STALL_NANOS);
+    }
+
+    @Override
+    public long publisherStallCount()
+    {
+        return counters.get(Counter.STALLS);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (ownsRing)
+        {
+            VIEW.compareAndSet(data, (long) Util.PUBLISHER_OWNER_OFFSET, publisherToken, Util.NO_PUBLISHER);
+        }
+        arena.close();
+        channel.close();
+    }
+
+    private void useReceiver(final Consumer<MemorySegment> receiver)
+    {
+        this.receiver = receiver;
+        if (receiverViews == null)
+        {
+            receiverViews = new MemorySegment[(int) (messageBuffer.byteSize() >>> alignmentShift)];
+        }
+    }
+
+    /**
+     * Hands a record to the receiver of the poll in progress as the slice kept for its slot of the ring,
+     * replacing the slice when the record length differs.
+     */
+    private void onReceiverMessage(final MemorySegment segment, final long offset, final int length)
+    {
+        final int slot = (int) ((offset - headerLength) >>> alignmentShift);
+        MemorySegment view = receiverViews[slot];
+        if (view == null || view.byteSize() != length)
+        {
+            view = segment.asSlice(offset, length);
+            receiverViews[slot] = view;
+        }
+        receiver.accept(view);
+    }
+
+    private long writeRecord(final MemorySegment message, final int messageSize, final boolean waitForSubscriber)
+    {
+        final long headerOffset = claimRecord(messageSize, waitForSubscriber);
+        if (headerOffset == NO_CAPACITY)
+        {
+            return BACK_PRESSURED;
+        }
+        MemorySegment.copy(message, 0L, messageBuffer, headerOffset + headerLength, messageSize);
+        VIEW.setRelease(messageBuffer, headerOffset,
+                Util.recordHeader(epoch(writeOffset), Util.RECORD_TYPE_MESSAGE, messageSize));
+        return writeOffset;
+    }
+
+    /**
+     * Reserves space for a record by compare-and-set on the shared publisher sequence, padding to the end
+     * of the ring where needed, exactly as {@link OffHeapByteBufferTransport} does.
+     */
+    private long claimRecord(final int messageSize, final boolean waitForSubscriber)
+    {
+        final long capacity = messageBuffer.byteSize();
+        final int paddedSize = format.recordLength(messageSize);
+        if (paddedSize > capacity)
+        {
+            throw new IllegalArgumentException(String.format(
+                    "Message of %db does not fit in a buffer of %db", messageSize, capacity));
+        }
+
+        if (!zeroOnConsume && !ownsRing)
+        {
+            acquireRing();
+        }
+        boolean idled = false;
+        long stallStartNanos = 0L;
+        while (true)
+        {
+            final long position = (long) VIEW.getVolatile(data, (long) Util.PUBLISHER_SEQUENCE_OFFSET);
+            final long offset = mask(position);
+            // a record that would run past the end of the ring first reserves the rest of the lap as padding on
+            // its own, then is claimed from the start of the next lap, so it only ever waits for its own length
+            final long padding = offset + paddedSize > capacity ? capacity - offset : 0L;
+            final long limitPosition = position + (padding != 0 ? padding : paddedSize);
+            final long cleanLimitPosition = zeroOnConsume ? limitPosition : limitPosition + HEADER_WORD_LENGTH;
+            if (WAIT_FOR_SUBSCRIBER && !hasCapacity(cleanLimitPosition))
+            {
+                if (!waitForSubscriber)
+                {
+                    counters.increment(Counter.BACK_PRESSURED);
+                    return NO_CAPACITY;
+                }
+                if (DEBUG)
+                {
+                    System.out.printf("%s %s position: %d, subscriber: %d%n",
+                            path, Thread.currentThread().getName(), position, getSubscriberOffset());
+                }
+                if (!idled)
+                {
+                    stallStartNanos = System.nanoTime();
+                    idled = true;
+                }
+                counters.increment(Counter.BACK_PRESSURE_IDLES);
+                publisherIdleStrategy.idle();
+                continue;
+            }
+            if (!zeroOnConsume)
+            {
+                cleanAhead(cleanLimitPosition);
+            }
+            if (!VIEW.compareAndSet(data, (long) Util.PUBLISHER_SEQUENCE_OFFSET, position, limitPosition))
+            {
+                if (!zeroOnConsume)
+                {
+                    throw new IllegalStateException("Epoch-stamped records support a single publisher: " + path);
+                }
+                continue;
+            }
+
+            counters.set(Counter.PUBLISHER_POSITION, limitPosition);
+            if (padding != 0)
+            {
+                counters.increment(Counter.WRAPS);
+                if (DEBUG)
+                {
+                    System.out.printf("%s %s Writing %db padding at %d [%d]%n",
+                            path, Thread.currentThread().getName(), padding, offset, position);
+                }
+                VIEW.setRelease(messageBuffer, offset,
+                        Util.recordHeader(epoch(position), Util.RECORD_TYPE_PADDING, (int) padding));
+                continue;
+            }
+
+            if (idled)
+            {
+                publisherIdleStrategy.reset();
+                counters.add(Counter.STALL_NANOS, System.nanoTime() - stallStartNanos);
+                counters.increment(Counter.STALLS);
+            }
+            counters.increment(Counter.MESSAGES_WRITTEN);
+            counters.add(Counter.BYTES_WRITTEN, messageSize);
+
+            writeOffset = position;
+            final long headerOffset = mask(writeOffset);
+            if (DEBUG)
+            {
+                System.out.printf("%s %s Writing message of %db at %d [%d]%n",
+                        path, Thread.currentThread().getName(),
+                        paddedSize, headerOffset, writeOffset);
+            }
+            return headerOffset;
+        }
+    }
+
+    /**
+     * Takes sole ownership of an epoch-stamped ring before this instance clears any of it, failing while a
+     * live publisher holds it. Clearing then resumes from the current publisher sequence, as an earlier
+     * publisher may have written since this instance was opened.
+     */
+    private void acquireRing()
+    {
+        while (true)
+        {
+            final long owner = (long) VIEW.getVolatile(data, (long) Util.PUBLISHER_OWNER_OFFSET);
+            if (owner != Util.NO_PUBLISHER && Util.isPublisherAlive(owner))
+            {
+                throw new IllegalStateException(String.format(
+                        "Epoch-stamped records support a single publisher, %s is published to by process %d",
+                        path, Util.publisherPid(owner)));
+            }
+            if (VIEW.compareAndSet(data, (long) Util.PUBLISHER_OWNER_OFFSET, owner, publisherToken))
+            {
+                break;
+            }
+        }
+        final long publisherSequence = (long) VIEW.getVolatile(data, (long) Util.PUBLISHER_SEQUENCE_OFFSET);
+        cleanPosition = publisherSequence == 0L ? messageBuffer.byteSize() : publisherSequence;
+        ownsRing = true;
+    }
+
+    /**
+     * Zeroes the ring from the clean position through at least {@code requiredPosition}, and up to
+     * {@code ipc.pub.cleanAheadLength} bytes beyond it, without passing the subscriber.
+     */
+    private void cleanAhead(final long requiredPosition)
+    {
+        if (requiredPosition <= cleanPosition)
+        {
+            return;
+        }
+        final long capacity = messageBuffer.byteSize();
+        final long cleanLimit = WAIT_FOR_SUBSCRIBER ?
+                Math.min(requiredPosition + CLEAN_AHEAD_LENGTH, nextSubscriberSequenceCheck) : requiredPosition;
+        long position = cleanPosition;
+        while (position < cleanLimit)
+        {
+            final long offset = mask(position);
+            final long length = Math.min(cleanLimit - position, capacity - offset);
+            zero(offset, length);
+            position += length;
+        }
+        cleanPosition = cleanLimit;
+    }
+
+    private boolean hasCapacity(final long limitPosition)
+    {
+        if (limitPosition > nextSubscriberSequenceCheck)
+        {
+            nextSubscriberSequenceCheck = getSubscriberOffset() + messageBuffer.byteSize();
+        }
+        return limitPosition <= nextSubscriberSequenceCheck;
+    }
+
+    private void zero(final long offset, final long length)
+    {
+        counters.add(Counter.ZEROED_BYTES, length);
+        if (DEBUG)
+        {
+            System.out.printf("%s %s Zeroing span at %d - %d%n",
+                    path, Thread.currentThread().getName(), offset, offset + length);
+        }
+        // spans are whole records, so only a clean-ahead length that is not a multiple of 8 leaves a tail
+        final long end = offset + length;
+        long index = offset;
+        for (; index + HEADER_WORD_LENGTH <= end; index += HEADER_WORD_LENGTH)
+        {
+            VIEW.set(messageBuffer, index, 0L);
+        }
+        for (; index < end; index++)
+        {
+            messageBuffer.set(ValueLayout.JAVA_BYTE, index, (byte) 0);
+        }
+    }
+
+    private void zeroConsumed(final long offset, final long length)
+    {
+        if (zeroOnConsume)
+        {
+            zero(offset, length);
+        }
+    }
+
+    /**
+     * @return the header at {@code position}, or zero if it was stamped in a different lap of the ring
+     */
+    private long readHeader(final long position)
+    {
+        final long header = (long) VIEW.getVolatile(messageBuffer, mask(position));
+        return Util.recordEpoch(header) == epoch(position) ? header : 0L;
+    }
+
+    private long epoch(final long position)
+    {
+        return (position >>> epochShift) & epochMask;
+    }
+
+    private long getSubscriberOffset()
+    {
+        return (long) VIEW.getVolatile(data, (long) Util.SUBSCRIBER_SEQUENCE_OFFSET);
+    }
+
+    private long mask(long sequence)
+    {
+        return sequence & mask;
+    }
+}
@@ -0,0 +1,50 @@
+package com.aitusoftware.messaging.ipc;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Path;
+
+/**
+ * Looked up by {@link Transports#forName(String)}, which cannot refer to this class directly, as it is only
+ * built on JDK 21.
+ */
+public final class MemorySegmentTransportFactory implements TransportFactory<MemorySegment>
+{
+    @Override
+    public String name()
+    {
+        return Transports.MEMORY_SEGMENT;
+    }
+
+    @Override
+    public Transport<MemorySegment> open(final Path path, final long size, final RecordFormat format)
+            throws IOException
+    {
+        return new MemorySegmentTransport(path, size, format);
+    }
+
+    @Override
+    public MemorySegment allocate(final int length)
+    {
+        return Arena.ofAuto().allocate(length, Long.BYTES);
+    }
+
+    @Override
+    public void rewind(final MemorySegment message)
+    {
+    }
+
+    @Override
+    public long getLong(final MemorySegment message, final int offset)
+    {
+        return message.get(ValueLayout.JAVA_LONG_UNALIGNED, offset);
+    }
+
+    @Override
+    public void putLong(final MemorySegment message, final int offset, final long value)
+    {
+        message.set(ValueLayout.JAVA_LONG_UNALIGNED, offset, value);
+    }
+}
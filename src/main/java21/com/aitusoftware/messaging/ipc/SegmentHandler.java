@@ -0,0 +1,18 @@
+package com.aitusoftware.messaging.ipc;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Receives messages polled from a {@link MemorySegmentTransport} as a range of the mapping of the whole ring,
+ * like {@link MessageHandler} does for byte buffers, so that no segment is created per message.
+ */
+@FunctionalInterface
+public interface SegmentHandler
+{
+    /**
+     * @param segment mapping of the ring, only valid during the call, which must not be written to
+     * @param offset  of the message payload in {@code segment}
+     * @param length  of the message payload
+     */
+    void onMessage(MemorySegment segment, long offset, int length);
+}
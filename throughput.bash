@@ -0,0 +1,10 @@
+#!/bin/bash
+
+CPUS=${PLACEMENT:+-Dipc.placement=$PLACEMENT}
+
+# Sustained msgs/s and MB/s of publisher, echo and subscriber for each message size
+TRANSPORT=${1:-varhandle}
+
+for MSG_SIZE in 64 256 1024 4096; do
+    java -XX:+UseSerialGC --add-exports java.base/sun.nio.ch=ALL-UNNAMED -cp target/benchmarks.jar -Dipc.transport=$TRANSPORT ${CPUS:--Dipc.pub.cpu=1 -Dipc.echo.cpu=2 -Dipc.sub.cpu=3} -Dipc.msgCount=1048576 -Dipc.bufferSize=1048576 -Dipc.msgSize=$MSG_SIZE -Dipc.throughput=true -Dipc.intervals=10 -Dagrona.disable.bounds.checks=true com.aitusoftware.messaging.ipc.Harness | grep "^throughput:"
+done